@@ -42,6 +42,11 @@ const configSchema = z.object({
     origin: z.string().default('*'),
     credentials: z.coerce.boolean().default(false),
   }),
+
+  // Offline approval vouchers (EC P-256 private key, PKCS#8 PEM); unset disables offline approval
+  offline: z.object({
+    voucherPrivateKey: z.string().includes('PRIVATE KEY').optional(),
+  }),
 });
 
 function loadConfig() {
@@ -77,6 +82,10 @@ function loadConfig() {
       origin: process.env['CORS_ORIGIN'],
       credentials: process.env['CORS_CREDENTIALS'],
     },
+    offline: {
+      // Single-line env values carry the PEM's newlines as \n
+      voucherPrivateKey: process.env['OFFLINE_VOUCHER_PRIVATE_KEY']?.replace(/\\n/g, '\n') || undefined,
+    },
   });
 
   if (!result.success) {
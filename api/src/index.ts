@@ -30,6 +30,8 @@ import fraudRouter from './routes/fraud.js';
 import auditRouter from './routes/audit.js';
 import merchantsRouter from './routes/merchants.js';
 import governanceRouter from './routes/governance.js';
+import parametersRouter from './routes/parameters.js';
+import eventsRouter from './routes/events.js';
 
 const app = express();
 
@@ -210,6 +212,8 @@ apiRouter.use('/fraud', fraudRouter);
 apiRouter.use('/audit', auditRouter);
 apiRouter.use('/merchants', merchantsRouter);
 apiRouter.use('/governance', governanceRouter);
+apiRouter.use('/parameters', parametersRouter);
+apiRouter.use('/events', eventsRouter);
 
 app.use('/api/v1', apiRouter);
 
@@ -0,0 +1,51 @@
+import { Router, Request, Response } from 'express';
+import { authenticate, requirePermission } from '../middleware/auth.js';
+import { invalidations, Invalidation } from '../services/invalidations.js';
+
+const router = Router();
+
+router.use(authenticate);
+
+const KEEP_ALIVE_MS = 15_000;
+
+/**
+ * @openapi
+ * /events:
+ *   get:
+ *     summary: Server-Sent Events stream of payment and wallet invalidations
+ *     description: >
+ *       Each event is named "invalidate" and its data is
+ *       {"type": "payment" | "wallet", "id": "..."}. Comment lines are sent
+ *       as keep-alives. Only changes made through this API instance are sent.
+ *     tags: [Events]
+ */
+router.get('/', requirePermission('read'), (req: Request, res: Response) => {
+  res.status(200).set({
+    'Content-Type': 'text/event-stream',
+    'Cache-Control': 'no-cache, no-transform',
+    Connection: 'keep-alive',
+    // Stop reverse proxies from buffering the stream
+    'X-Accel-Buffering': 'no',
+  });
+  res.flushHeaders();
+
+  // compression() buffers writes until flushed
+  const send = (frame: string) => {
+    res.write(frame);
+    (res as Response & { flush?: () => void }).flush?.();
+  };
+
+  // Comment line so clients see the stream is open
+  send(': connected\n\n');
+  const unsubscribe = invalidations.subscribe((invalidation: Invalidation) => {
+    send(`event: invalidate\ndata: ${JSON.stringify(invalidation)}\n\n`);
+  });
+  const keepAlive = setInterval(() => send(': keep-alive\n\n'), KEEP_ALIVE_MS);
+
+  req.on('close', () => {
+    clearInterval(keepAlive);
+    unsubscribe();
+  });
+});
+
+export default router;
@@ -0,0 +1,83 @@
+import { Router, Request, Response } from 'express';
+import { createHash } from 'crypto';
+import { parameters } from '../config/parameters.js';
+import { authenticate, requirePermission } from '../middleware/auth.js';
+import { asyncHandler } from '../middleware/errors.js';
+import { config } from '../config/index.js';
+import { offlineVoucherPublicKey } from '../utils/offlineVoucher.js';
+
+const router = Router();
+
+router.use(authenticate);
+
+/**
+ * @openapi
+ * /parameters/offline:
+ *   get:
+ *     summary: Get the rulebook limits terminals apply to offline approvals
+ *     tags: [Parameters]
+ */
+router.get(
+  '/offline',
+  requirePermission('read'),
+  asyncHandler(async (_req: Request, res: Response) => {
+    res.json({
+      success: true,
+      data: {
+        offline_cap_per_device: parameters.offline_cap_per_device,
+        offline_daily_velocity_per_wallet: parameters.offline_daily_velocity_per_wallet,
+        offline_reconciliation_window_seconds: parameters.offline_reconciliation_window_seconds,
+        transfer_velocity_limit_window_seconds: parameters.transfer_velocity_limit_window_seconds,
+        transfer_velocity_limit_max_amount: parameters.transfer_velocity_limit_max_amount,
+        // Verifies the offlineVoucher returned by POST /payments; null disables offline approval
+        offline_voucher_public_key: offlineVoucherPublicKey(config.offline.voucherPrivateKey),
+      },
+    });
+  })
+);
+
+/**
+ * Fee schedule as used by services/fee-engine.ts. The version is a hash of the
+ * values, so clients can cache it and revalidate with If-None-Match.
+ */
+function feeSchedule() {
+  const schedule = {
+    fee_transfer_basis_points: parameters.fee_transfer_basis_points,
+    fee_merchant_retail_bps: parameters.fee_merchant_retail_bps,
+    fee_merchant_hospitality_bps: parameters.fee_merchant_hospitality_bps,
+    fee_merchant_ecommerce_bps: parameters.fee_merchant_ecommerce_bps,
+    fee_instant_settlement_fixed_cents: parameters.fee_instant_settlement_fixed_cents,
+    fee_cross_border_bps: parameters.fee_cross_border_bps,
+    fee_atm_fixed_cents: parameters.fee_atm_fixed_cents,
+    fee_atm_bps: parameters.fee_atm_bps,
+  };
+  const version = createHash('sha256').update(JSON.stringify(schedule)).digest('hex').slice(0, 16);
+  return { version, ...schedule };
+}
+
+/**
+ * @openapi
+ * /parameters/fees:
+ *   get:
+ *     summary: Get the fee schedule for client-side fee calculation
+ *     tags: [Parameters]
+ */
+router.get(
+  '/fees',
+  requirePermission('read'),
+  asyncHandler(async (req: Request, res: Response) => {
+    const schedule = feeSchedule();
+    const etag = `"${schedule.version}"`;
+    res.setHeader('ETag', etag);
+    if (req.headers['if-none-match'] === etag) {
+      res.status(304).end();
+      return;
+    }
+    res.json({
+      success: true,
+      data: schedule,
+    });
+  })
+);
+
+export default router;
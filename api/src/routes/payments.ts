@@ -1,12 +1,15 @@
 import { Router, Request, Response } from 'express';
 import { z } from 'zod';
 import { blockchainService, ConditionType } from '../services/blockchain.js';
+import { invalidations } from '../services/invalidations.js';
 import { parameters } from '../config/parameters.js';
 import { authenticate, requirePermission } from '../middleware/auth.js';
 import { validate, asyncHandler, NotFoundError } from '../middleware/errors.js';
 import { idempotency, strictRateLimiter } from '../middleware/common.js';
 import { logAuditEvent } from '../utils/logger.js';
 import { generateCorrelationId } from '../utils/crypto.js';
+import { signOfflineVoucher } from '../utils/offlineVoucher.js';
+import { config } from '../config/index.js';
 import {
   createConditionalPaymentSchema,
   confirmDeliverySchema,
@@ -64,6 +67,8 @@ router.post(
       correlationId,
       userId
     );
+    invalidations.publish('payment', result.paymentId);
+    invalidations.publish('wallet', result.payer, payee);
 
     logAuditEvent({
       action: 'CONDITIONAL_PAYMENT_CREATED',
@@ -81,6 +86,15 @@ router.post(
       result: 'success',
     });
 
+    // Lets a terminal approve the tap offline; the wallet writes it to the tag
+    const offlineVoucher = signOfflineVoucher(
+      config.offline.voucherPrivateKey,
+      result.paymentId,
+      result.payer,
+      BigInt(amount),
+      expiresAt
+    );
+
     res.status(201).json({
       success: true,
       data: {
@@ -93,6 +107,7 @@ router.post(
         arbiter: arbiterAddress,
         txHash: result.txHash,
         blockNumber: result.blockNumber,
+        offlineVoucher,
       },
     });
   })
@@ -151,6 +166,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.confirmDelivery(paymentId, proof, correlationId, userId);
+    invalidations.publish('payment', paymentId);
 
     logAuditEvent({
       action: 'DELIVERY_CONFIRMED',
@@ -193,6 +209,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.releasePayment(paymentId, proof, correlationId, userId);
+    invalidations.publish('payment', paymentId);
 
     logAuditEvent({
       action: 'PAYMENT_RELEASED',
@@ -233,6 +250,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.cancelPayment(paymentId!, correlationId, userId);
+    invalidations.publish('payment', paymentId!);
 
     logAuditEvent({
       action: 'PAYMENT_CANCELLED',
@@ -275,6 +293,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.disputePayment(paymentId, correlationId, userId);
+    invalidations.publish('payment', paymentId);
 
     logAuditEvent({
       action: 'PAYMENT_DISPUTED',
@@ -319,6 +338,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.resolveDispute(paymentId, releaseToPayee, correlationId, userId);
+    invalidations.publish('payment', paymentId);
 
     logAuditEvent({
       action: 'DISPUTE_RESOLVED',
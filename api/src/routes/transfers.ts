@@ -1,6 +1,7 @@
 import { Router, Request, Response } from 'express';
 import { z } from 'zod';
 import { blockchainService } from '../services/blockchain.js';
+import { invalidations } from '../services/invalidations.js';
 import { authenticate, requirePermission, requireRole, validateKeyRole } from '../middleware/auth.js';
 import { validate, asyncHandler } from '../middleware/errors.js';
 import { idempotency, strictRateLimiter } from '../middleware/common.js';
@@ -53,6 +54,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.mint(to, BigInt(amount), justification, idempotencyKey, correlationId, userId);
+    invalidations.publish('wallet', to);
 
     logAuditEvent({
       action: 'TOKENS_MINTED',
@@ -99,6 +101,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.burn(from, BigInt(amount), idempotencyKey, correlationId, userId);
+    invalidations.publish('wallet', from);
 
     logAuditEvent({
       action: 'TOKENS_BURNED',
@@ -225,6 +228,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.escrowFunds(account, BigInt(amount), legalBasis, BigInt(expiry), correlationId, userId);
+    invalidations.publish('wallet', account);
 
     logAuditEvent({
       action: 'FUNDS_ESCROWED',
@@ -270,6 +274,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.releaseEscrowedFunds(account, to, correlationId, userId);
+    invalidations.publish('wallet', account, to);
 
     logAuditEvent({
       action: 'ESCROWED_FUNDS_RELEASED',
@@ -312,6 +317,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.burnEscrowedFunds(account, correlationId, userId);
+    invalidations.publish('wallet', account);
 
     logAuditEvent({
       action: 'ESCROWED_FUNDS_BURNED',
@@ -415,6 +421,7 @@ router.post(
     // For now, the operator performs the transfer
     // In production, this would require the sender's signature
     const result = await blockchainService.transfer(to, BigInt(amount), correlationId, userId);
+    invalidations.publish('wallet', to);
 
     logAuditEvent({
       action: 'TOKENS_TRANSFERRED',
@@ -458,6 +465,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.executeWaterfall(wallet, correlationId, userId);
+    invalidations.publish('wallet', wallet);
 
     logAuditEvent({
       action: 'WATERFALL_EXECUTED',
@@ -500,6 +508,7 @@ router.post(
     const userId = req.auth!.institutionId;
     
     const result = await blockchainService.executeReverseWaterfall(wallet, BigInt(amount), correlationId, userId);
+    invalidations.publish('wallet', wallet);
 
     logAuditEvent({
       action: 'REVERSE_WATERFALL_EXECUTED',
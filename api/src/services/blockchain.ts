@@ -851,7 +851,7 @@ class BlockchainService {
     arbiter: string,
     correlationId?: string,
     userId?: string
-  ): Promise<{ txHash: string; blockNumber: number; paymentId: string }> {
+  ): Promise<{ txHash: string; blockNumber: number; paymentId: string; payer: string }> {
     const { txHash, blockNumber, receipt } = await this.executeTransaction(
       this._conditionalPayments,
       'createConditionalPayment',
@@ -879,11 +879,13 @@ class BlockchainService {
     }
 
     const paymentId = event.args.paymentId as string;
+    const payer = event.args.payer as string;
 
     return {
       txHash,
       blockNumber,
       paymentId,
+      payer,
     };
   }
 
@@ -0,0 +1,44 @@
+import { EventEmitter } from 'events';
+
+/**
+ * In-process feed of state changes for GET /events.
+ *
+ * Routes publish after a state-changing transaction succeeds, so clients
+ * caching payments or balances (e.g. the SumUp PaymentStateCache) can drop
+ * stale entries. Only changes made through this API instance are published;
+ * clients keep a TTL for everything else.
+ */
+
+export type InvalidationType = 'payment' | 'wallet';
+
+export interface Invalidation {
+  type: InvalidationType;
+  id: string;
+}
+
+class InvalidationService {
+  private readonly emitter = new EventEmitter();
+
+  constructor() {
+    // One listener per open event stream
+    this.emitter.setMaxListeners(0);
+  }
+
+  publish(type: InvalidationType, ...ids: string[]): void {
+    for (const id of ids) {
+      this.emitter.emit('invalidate', { type, id } satisfies Invalidation);
+    }
+  }
+
+  /** Returns the function that unsubscribes */
+  subscribe(listener: (invalidation: Invalidation) => void): () => void {
+    this.emitter.on('invalidate', listener);
+    return () => this.emitter.off('invalidate', listener);
+  }
+
+  listenerCount(): number {
+    return this.emitter.listenerCount('invalidate');
+  }
+}
+
+export const invalidations = new InvalidationService();
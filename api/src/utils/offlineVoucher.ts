@@ -0,0 +1,85 @@
+import crypto from 'crypto';
+
+/**
+ * Offline approval vouchers.
+ *
+ * When an escrow is created the API signs its payment ID, payer and amount so
+ * that a terminal can approve the tap without calling back (see
+ * OfflineVoucher in teur-client-core). ECDSA P-256 with SHA-256, DER encoded.
+ * docs/offline-voucher-test-vectors.json pins the message format for both sides.
+ */
+
+export interface OfflineVoucher {
+  payer: string;
+  /** Unix seconds; the escrow's own expiry */
+  expiresAt: number;
+  /** 0x-prefixed hex DER signature */
+  signature: string;
+}
+
+export function offlineVoucherMessage(
+  paymentId: string,
+  payer: string,
+  amount: bigint | number,
+  expiresAt: number
+): Buffer {
+  return Buffer.from(
+    `teur-offline-voucher:1:${paymentId.toLowerCase()}:${payer.toLowerCase()}:${amount}:${expiresAt}`,
+    'utf8'
+  );
+}
+
+/**
+ * Signs a voucher, or returns null when no voucher key is configured (every
+ * tap then goes online).
+ */
+export function signOfflineVoucher(
+  privateKeyPem: string | undefined,
+  paymentId: string,
+  payer: string,
+  amount: bigint | number,
+  expiresAt: number
+): OfflineVoucher | null {
+  if (!privateKeyPem) {
+    return null;
+  }
+  const signature = crypto.sign('sha256', offlineVoucherMessage(paymentId, payer, amount, expiresAt), privateKeyPem);
+  return { payer: payer.toLowerCase(), expiresAt, signature: '0x' + signature.toString('hex') };
+}
+
+export function verifyOfflineVoucher(
+  publicKeyHex: string,
+  paymentId: string,
+  payer: string,
+  amount: bigint | number,
+  expiresAt: number,
+  signatureHex: string
+): boolean {
+  try {
+    const key = crypto.createPublicKey({
+      key: Buffer.from(publicKeyHex.replace(/^0x/, ''), 'hex'),
+      format: 'der',
+      type: 'spki',
+    });
+    return crypto.verify(
+      'sha256',
+      offlineVoucherMessage(paymentId, payer, amount, expiresAt),
+      key,
+      Buffer.from(signatureHex.replace(/^0x/, ''), 'hex')
+    );
+  } catch {
+    return false;
+  }
+}
+
+/**
+ * Public half of the voucher key as published to terminals: 0x-prefixed hex
+ * of the DER SubjectPublicKeyInfo, or null when no key is configured.
+ */
+export function offlineVoucherPublicKey(privateKeyPem: string | undefined): string | null {
+  if (!privateKeyPem) {
+    return null;
+  }
+  const spki = crypto.createPublicKey(privateKeyPem).export({ format: 'der', type: 'spki' });
+  return '0x' + spki.toString('hex');
+}
@@ -0,0 +1,79 @@
+import { afterAll, beforeAll, describe, expect, it } from 'vitest'
+import http from 'http'
+import type { AddressInfo } from 'net'
+
+let server: http.Server
+let baseUrl: string
+let invalidations: typeof import('../src/services/invalidations.js').invalidations
+
+beforeAll(async () => {
+  // minimal env required by config validation
+  process.env.BLOCKCHAIN_OPERATOR_PRIVATE_KEY = '0x' + '1'.repeat(64)
+  process.env.CONTRACT_PERMISSIONING = '0x' + '2'.repeat(40)
+  process.env.CONTRACT_WALLET_REGISTRY = '0x' + '3'.repeat(40)
+  process.env.CONTRACT_TOKENIZED_EURO = '0x' + '4'.repeat(40)
+  process.env.CONTRACT_CONDITIONAL_PAYMENTS = '0x' + '5'.repeat(40)
+
+  // import app after env is set
+  const mod = await import('../src/index.js')
+  invalidations = (await import('../src/services/invalidations.js')).invalidations
+  // An event stream never ends, so talk to a real listener instead of supertest
+  server = mod.app.listen(0)
+  await new Promise<void>(resolve => server.once('listening', () => resolve()))
+  baseUrl = `http://127.0.0.1:${(server.address() as AddressInfo).port}`
+})
+
+afterAll(() => {
+  server?.close()
+})
+
+/** Reads the stream until `predicate` matches what has arrived */
+function readUntil(res: http.IncomingMessage, predicate: (text: string) => boolean): Promise<string> {
+  return new Promise((resolve, reject) => {
+    let text = ''
+    const onData = (chunk: Buffer) => {
+      text += chunk.toString('utf8')
+      if (predicate(text)) {
+        res.off('data', onData)
+        resolve(text)
+      }
+    }
+    res.on('data', onData)
+    res.once('error', reject)
+  })
+}
+
+describe('GET /events', () => {
+  it('requires an API key', async () => {
+    const status = await new Promise<number>((resolve, reject) => {
+      http.get(`${baseUrl}/api/v1/events`, res => {
+        res.resume()
+        resolve(res.statusCode!)
+      }).once('error', reject)
+    })
+    expect(status).toBe(401)
+  })
+
+  it('streams invalidations as Server-Sent Events', async () => {
+    const req = http.get(`${baseUrl}/api/v1/events`, { headers: { 'X-API-Key': 'demo-psp-key' } })
+    const res = await new Promise<http.IncomingMessage>((resolve, reject) => {
+      req.once('response', resolve)
+      req.once('error', reject)
+    })
+    expect(res.statusCode).toBe(200)
+    expect(res.headers['content-type']).toContain('text/event-stream')
+
+    await readUntil(res, text => text.includes(': connected'))
+    const frames = readUntil(res, text => text.includes('"wallet"'))
+    invalidations.publish('payment', '0xabc')
+    invalidations.publish('wallet', '0xdef')
+    const text = await frames
+    expect(text).toContain('event: invalidate\ndata: {"type":"payment","id":"0xabc"}\n\n')
+    expect(text).toContain('event: invalidate\ndata: {"type":"wallet","id":"0xdef"}\n\n')
+
+    const listeners = invalidations.listenerCount()
+    req.destroy()
+    await new Promise(resolve => setTimeout(resolve, 50))
+    expect(invalidations.listenerCount()).toBe(listeners - 1)
+  })
+})
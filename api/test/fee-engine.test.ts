@@ -0,0 +1,43 @@
+import { describe, expect, it } from 'vitest';
+import fs from 'fs';
+import path from 'path';
+import { feeEngine, FeeType } from '../src/services/fee-engine.js';
+import { rulebookParameters } from '../src/config/index.js';
+
+// Shared with the Java FeeEngine (sumup-integration/FeeEngineVectorCheck.java)
+const vectorsPath = path.resolve(__dirname, '..', '..', 'docs', 'fee-test-vectors.json');
+const { schedule, vectors } = JSON.parse(fs.readFileSync(vectorsPath, 'utf8'));
+
+describe('fee engine test vectors', () => {
+  it('were generated for the lab fee schedule', () => {
+    for (const [name, value] of Object.entries(schedule)) {
+      expect(rulebookParameters[name as keyof typeof rulebookParameters], name).toBe(value);
+    }
+  });
+
+  for (const vector of vectors) {
+    it(vector.name, () => {
+      const calculation = {
+        ...vector.input,
+        type: vector.input.type as FeeType,
+        amount: BigInt(vector.input.amount),
+      };
+
+      if (vector.error) {
+        expect(() => feeEngine.calculateFee(calculation)).toThrow();
+        return;
+      }
+
+      const result = feeEngine.calculateFee(calculation);
+      const breakdown = Object.fromEntries(
+        Object.entries(result.breakdown).map(([key, value]) => [key, Number(value)])
+      );
+      expect({
+        totalFee: Number(result.totalFee),
+        breakdown,
+        netAmount: Number(result.netAmount),
+        feeBasis: result.feeBasis,
+      }).toEqual(vector.expected);
+    });
+  }
+});
@@ -0,0 +1,57 @@
+import { describe, expect, it } from 'vitest';
+import fs from 'fs';
+import path from 'path';
+import {
+  offlineVoucherPublicKey,
+  signOfflineVoucher,
+  verifyOfflineVoucher,
+} from '../src/utils/offlineVoucher.js';
+
+// Shared with the Clover terminal (clover-android-app/app/src/test/java/com/teur/clover/OfflineRiskEngineCheck.java)
+const vectorsPath = path.resolve(__dirname, '..', '..', 'docs', 'offline-voucher-test-vectors.json');
+const { privateKeyPem, publicKey, vectors } = JSON.parse(fs.readFileSync(vectorsPath, 'utf8'));
+
+describe('offline voucher test vectors', () => {
+  it('publish the public key of the test key', () => {
+    expect(offlineVoucherPublicKey(privateKeyPem)).toBe(publicKey);
+  });
+
+  for (const vector of vectors) {
+    it(vector.name, () => {
+      expect(
+        verifyOfflineVoucher(
+          publicKey,
+          vector.paymentId,
+          vector.payer,
+          vector.amount,
+          vector.expiresAt,
+          vector.signature
+        )
+      ).toBe(vector.valid);
+    });
+  }
+});
+
+describe('signOfflineVoucher', () => {
+  const [vector] = vectors;
+
+  it('signs what the terminal verifies', () => {
+    const voucher = signOfflineVoucher(
+      privateKeyPem,
+      vector.paymentId,
+      vector.payer.toUpperCase().replace('0X', '0x'),
+      BigInt(vector.amount),
+      vector.expiresAt
+    );
+    expect(voucher).not.toBeNull();
+    expect(voucher!.payer).toBe(vector.payer);
+    expect(
+      verifyOfflineVoucher(publicKey, vector.paymentId, vector.payer, vector.amount, vector.expiresAt, voucher!.signature)
+    ).toBe(true);
+  });
+
+  it('returns null without a voucher key', () => {
+    expect(signOfflineVoucher(undefined, vector.paymentId, vector.payer, 1n, vector.expiresAt)).toBeNull();
+    expect(offlineVoucherPublicKey(undefined)).toBeNull();
+  });
+});
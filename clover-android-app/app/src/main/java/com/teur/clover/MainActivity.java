@@ -5,11 +5,33 @@ import android.os.Bundle;
 import android.widget.TextView;
 import com.clover.sdk.v3.connector.IPaymentConnector;
 import com.clover.sdk.v3.connector.PaymentConnector;
+import com.teur.client.AndroidNfcTagSource;
+import com.teur.client.NfcReader;
+import com.teur.client.PaymentEventLog;
+import com.teur.client.PaymentLedger;
+import okhttp3.OkHttpClient;
+import java.io.File;
+import java.io.IOException;
 
 public class MainActivity extends AppCompatActivity {
 
     private IPaymentConnector paymentConnector;
     private TextView statusText;
+    private PaymentLedger ledger;
+    private OfflineRiskEngine riskEngine;
+    private TEurTender tender;
+    private NfcReader nfcReader;
+    private PaymentEventLog eventLog;
+    private File seenPaymentsFile;
+
+    // Offline approval settings - replace with your actual API URL and key
+    private static final String RISK_LIMITS_URL = "http://your-api-url/api/v1/parameters/offline";
+    private static final String PAYMENTS_URL = "http://your-api-url/api/v1/payments";
+    private static final String API_KEY = "your-api-key";
+    private static final long MAX_OFFLINE_TAP_MINOR = 2500; // €25.00
+    private static final long LIMITS_REFRESH_MILLIS = 5 * 60 * 1000L;
+    private static final long LIMITS_MAX_AGE_MILLIS = 30 * 60 * 1000L;
+    private static final long PAYER_VERIFY_TIMEOUT_MILLIS = 5_000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -18,24 +40,137 @@ public class MainActivity extends AppCompatActivity {
 
         statusText = findViewById(R.id.statusText);
 
+        // Cached risk limits and the API's voucher key let small taps approve
+        // without any network call; the escrow is read back before each
+        // deferred release
+        OkHttpClient apiClient = new OkHttpClient();
+        riskEngine = new OfflineRiskEngine(
+                OfflineRiskEngine.httpSource(apiClient, RISK_LIMITS_URL, API_KEY, MAX_OFFLINE_TAP_MINOR),
+                OfflineRiskEngine.httpVerifier(apiClient, PAYMENTS_URL, API_KEY, PAYER_VERIFY_TIMEOUT_MILLIS),
+                LIMITS_MAX_AGE_MILLIS);
+        riskEngine.start(LIMITS_REFRESH_MILLIS);
+
+        // Structured tap/release events, written off the payment path
+        try {
+            eventLog = PaymentEventLog.open(new File(getFilesDir(), "events"), PaymentEventLog.Format.NDJSON, 4096);
+        } catch (IOException e) {
+            eventLog = PaymentEventLog.disabled();
+        }
+
+        // Taps are read in NFC reader mode on a dedicated I/O thread; the
+        // tender picks up the newest one when a payment starts
+        nfcReader = new NfcReader(new AndroidNfcTagSource(this));
+
         // Initialize Clover Payment Connector
         try {
             paymentConnector = new PaymentConnector(this);
 
             // Register our custom tEUR tender
-            paymentConnector.addTender(new TEurTender());
+            tender = new TEurTender(null, riskEngine, nfcReader);
+            tender.setEventLog(eventLog);
+            paymentConnector.addTender(tender);
+
+            // Restore recently released payment IDs so replays are rejected after a restart
+            seenPaymentsFile = new File(getFilesDir(), "teur-seen-payments.bin");
+            try {
+                tender.getSeenPayments().loadSnapshot(seenPaymentsFile);
+            } catch (IOException e) {
+                // Start with an empty cache; the server still rejects duplicates
+            }
 
             statusText.setText("Clover connector initialized. tEUR tender registered.");
         } catch (Exception e) {
             statusText.setText("Failed to initialize Clover connector: " + e.getMessage());
         }
+
+        // Opening the ledger scans the whole file, so it happens off the UI
+        // thread; taps before it is ready just aren't recorded locally. Offline
+        // approval starts once pending settlements are restored.
+        new Thread(() -> {
+            openLedger();
+            openSettlementQueue();
+        }, "teur-local-state").start();
+    }
+
+    private void openSettlementQueue() {
+        OfflineSettlementQueue queue;
+        try {
+            queue = OfflineSettlementQueue.open(new File(getFilesDir(), "teur-offline-settlements.bin"));
+        } catch (IOException e) {
+            // Without a durable queue every tap is released online
+            return;
+        }
+        runOnUiThread(() -> {
+            if (!isDestroyed() && tender != null) {
+                tender.setSettlementQueue(queue);
+            }
+        });
+    }
+
+    private void openLedger() {
+        PaymentLedger opened;
+        try {
+            opened = PaymentLedger.open(new File(getFilesDir(), "teur-ledger.bin"));
+        } catch (IOException e) {
+            // Optional; payments work without it
+            return;
+        }
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                try {
+                    opened.close();
+                } catch (IOException e) {
+                    // Nothing was written through this instance
+                }
+                return;
+            }
+            ledger = opened;
+            if (tender != null) {
+                tender.setLedger(opened);
+            }
+            if (opened.corruptRecords() > 0) {
+                statusText.append("\nLedger: " + opened.corruptRecords() + " damaged records skipped");
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Reader mode only works while the activity is in the foreground
+        nfcReader.start();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        nfcReader.stop();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        nfcReader.close();
+        eventLog.close();
+        if (tender != null) {
+            try {
+                tender.getSeenPayments().writeSnapshot(seenPaymentsFile);
+            } catch (IOException e) {
+                // Best effort; the server still rejects duplicates
+            }
+        }
         if (paymentConnector != null) {
             paymentConnector.dispose();
         }
+        if (riskEngine != null) {
+            riskEngine.shutdown();
+        }
+        if (ledger != null) {
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                // Records are already on disk; nothing else to do on shutdown
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,510 @@
+package com.teur.clover;
+
+// Offline Risk-Limit Engine for tEUR Taps
+// Approves small taps locally against cached limits and defers the release call
+//
+// Limits mirror the rulebook parameters (offline_cap_per_device,
+// offline_daily_velocity_per_wallet, transfer_velocity_limit_*) and are
+// refreshed in the background. Counters are updated with CAS loops only, so
+// concurrent taps never block each other. A tap that does not fit every limit,
+// or arrives while the cached limits are stale, must go online as before.
+//
+// Approval uses local data only. The payer written on an NFC tag is only
+// trusted with a valid OfflineVoucher: the API's signature over payment ID,
+// payer and escrowed amount, checked against the voucher key that comes with
+// the limits. Taps without one go online. The escrow itself is read back by a
+// PayerVerifier on the settlement thread, before the deferred release.
+// Approved amounts stay reserved against the terminal cap until their
+// release succeeds, so an outage cannot approve more than the cap.
+
+import com.teur.client.NfcPaymentData;
+import com.teur.client.OfflineVoucher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+public class OfflineRiskEngine {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final int PAYMENT_STATUS_PENDING = 0; // IConditionalPayments.PaymentStatus
+
+    // Wallet counters pack a period number (high 24 bits) with an amount (low 40 bits)
+    private static final int AMOUNT_BITS = 40;
+    private static final long AMOUNT_MASK = (1L << AMOUNT_BITS) - 1;
+    private static final long PERIOD_MASK = (1L << (64 - AMOUNT_BITS)) - 1;
+    // Set by evictIdleWallets on counters it is removing; never a real packed value
+    private static final long EVICTED = -1L;
+
+    /**
+     * Supplies the current limits (e.g. from the tEUR parameters endpoint)
+     */
+    public interface LimitsSource {
+        Limits fetch() throws IOException;
+    }
+
+    /**
+     * Confirms who funded a payment before its deferred release is sent
+     */
+    public interface PayerVerifier {
+        /**
+         * On-chain payer of the escrowed payment, or null if the payment is
+         * unknown, no longer pending or escrows a different amount
+         */
+        String verifiedPayer(String paymentId, long amountMinor) throws IOException;
+    }
+
+    public enum Outcome {
+        APPROVED_OFFLINE,
+        ONLINE_REQUIRED
+    }
+
+    private final AtomicReference<Limits> limits = new AtomicReference<>();
+    private final AtomicLong terminalOutstanding = new AtomicLong();
+    private final ConcurrentHashMap<String, WalletCounters> wallets = new ConcurrentHashMap<>();
+    private final LimitsSource source;
+    private final PayerVerifier verifier;
+    private final long maxLimitsAgeMillis;
+    volatile LongSupplier clock = System::currentTimeMillis; // replaced by OfflineRiskEngineCheck
+    private ScheduledExecutorService refresher;
+    private ScheduledFuture<?> refreshTask;
+
+    /**
+     * @param source             where limits are refreshed from
+     * @param maxLimitsAgeMillis cached limits older than this disable offline approval
+     */
+    public OfflineRiskEngine(LimitsSource source, long maxLimitsAgeMillis) {
+        this(source, null, maxLimitsAgeMillis);
+    }
+
+    /**
+     * @param source             where limits are refreshed from
+     * @param verifier           reads back the escrow for {@link #verifyPayer}
+     *                           before a deferred release; null skips that check
+     * @param maxLimitsAgeMillis cached limits older than this disable offline approval
+     */
+    public OfflineRiskEngine(LimitsSource source, PayerVerifier verifier, long maxLimitsAgeMillis) {
+        this.source = source;
+        this.verifier = verifier;
+        this.maxLimitsAgeMillis = maxLimitsAgeMillis;
+    }
+
+    /**
+     * Refreshes limits now and then every {@code periodMillis} on a daemon thread
+     */
+    public synchronized void start(long periodMillis) {
+        if (refresher != null) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "teur-risk-limits");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshTask = refresher.scheduleWithFixedDelay(this::refreshQuietly, 0, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (refresher != null) {
+            refreshTask.cancel(false);
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * Fetches limits synchronously; keeps the previous limits on failure
+     */
+    public void refresh() throws IOException {
+        limits.set(source.fetch());
+    }
+
+    public void updateLimits(Limits newLimits) {
+        limits.set(newLimits);
+    }
+
+    public Limits getLimits() {
+        return limits.get();
+    }
+
+    /**
+     * Outstanding (approved offline, not yet settled) amount on this terminal
+     */
+    public long getTerminalOutstanding() {
+        return terminalOutstanding.get();
+    }
+
+    /**
+     * Decides whether a tapped payment can be approved without waiting for
+     * its release, without any network call: the tag's voucher must be signed
+     * by the API's voucher key for this payment, its payer and exactly this
+     * amount, and not be expired. Then applies {@link #evaluate} to that payer.
+     */
+    public Decision evaluateTap(NfcPaymentData tap, long amountMinor) {
+        Decision precheck = precheck(amountMinor);
+        if (precheck != null) {
+            return precheck;
+        }
+        PublicKey voucherKey = limits.get().voucherKey;
+        if (voucherKey == null) {
+            return Decision.online("voucher key unavailable");
+        }
+        OfflineVoucher voucher = tap.voucher;
+        if (voucher == null || tap.payer == null || tap.amountMinor == null) {
+            return Decision.online("tap has no offline voucher");
+        }
+        if (tap.amountMinor != amountMinor) {
+            return Decision.online("voucher amount differs from the sale");
+        }
+        if (voucher.isExpired(clock.getAsLong())) {
+            return Decision.online("offline voucher expired");
+        }
+        if (!voucher.verify(voucherKey, tap.paymentId, tap.payer, amountMinor)) {
+            return Decision.online("offline voucher not valid");
+        }
+        return evaluate(tap.payer, amountMinor);
+    }
+
+    /**
+     * Decides whether a payment by a verified wallet can be approved without
+     * a network round trip. An approval reserves the amount against every
+     * limit; report a successful deferred release with {@link #settled(Decision)}.
+     *
+     * @param walletId payer vouched for by the API, never an unsigned tag field
+     */
+    public Decision evaluate(String walletId, long amountMinor) {
+        Decision precheck = precheck(amountMinor);
+        if (precheck != null) {
+            return precheck;
+        }
+        Limits current = limits.get();
+        long now = clock.getAsLong();
+        if (walletId == null || walletId.isEmpty()) {
+            return Decision.online("payer not verified");
+        }
+        walletId = walletId.toLowerCase(Locale.ROOT);
+
+        if (!tryAdd(terminalOutstanding, amountMinor, current.terminalCapMinor)) {
+            return Decision.online("terminal offline cap reached");
+        }
+
+        long day = now / MILLIS_PER_DAY;
+        WalletCounters counters;
+        while (true) {
+            counters = wallets.computeIfAbsent(walletId, key -> new WalletCounters());
+            int added = tryAddInPeriod(counters.daily, day, amountMinor, current.walletDailyMinor);
+            if (added == ADDED) {
+                break;
+            }
+            if (added == OVER_CAP) {
+                terminalOutstanding.addAndGet(-amountMinor);
+                return Decision.online("wallet daily offline limit reached");
+            }
+            // Evicted between the lookup and the CAS: drop it and use a fresh entry
+            wallets.remove(walletId, counters);
+        }
+
+        long window = now / current.velocityWindowMillis;
+        // The daily counter now holds today's period, so eviction leaves this entry alone
+        if (tryAddInPeriod(counters.velocity, window, amountMinor, current.velocityMaxMinor) != ADDED) {
+            subtractInPeriod(counters.daily, day, amountMinor);
+            terminalOutstanding.addAndGet(-amountMinor);
+            return Decision.online("wallet velocity limit reached");
+        }
+
+        return new Decision(Outcome.APPROVED_OFFLINE, null, amountMinor);
+    }
+
+    /**
+     * Reads back the escrow of an offline approval before its deferred
+     * release; blocking, so call it from the settlement thread. Returns the
+     * on-chain payer (the tapped payer if there is no PayerVerifier), or null
+     * if the payment is unknown, no longer pending or escrows another amount.
+     *
+     * @throws IOException if the API can't be reached; try again later
+     */
+    public String verifyPayer(String paymentId, String tappedPayer, long amountMinor) throws IOException {
+        if (verifier == null) {
+            return tappedPayer;
+        }
+        return verifier.verifiedPayer(paymentId, amountMinor);
+    }
+
+    /**
+     * Releases the terminal reservation once the deferred release has
+     * succeeded. Wallet counters keep the amount: the customer spent it.
+     * Don't call it for failed or rejected releases: money not recovered
+     * stays counted against the terminal cap.
+     */
+    public void settled(Decision decision) {
+        if (decision.outcome == Outcome.APPROVED_OFFLINE) {
+            terminalOutstanding.addAndGet(-decision.amountMinor);
+        }
+    }
+
+    /**
+     * Reserves an approval restored after a restart (e.g. from an
+     * OfflineSettlementQueue), even past the cap: the tap was already
+     * approved. Returns the decision to pass to {@link #settled(Decision)}.
+     */
+    public Decision restore(long amountMinor) {
+        terminalOutstanding.addAndGet(amountMinor);
+        return new Decision(Outcome.APPROVED_OFFLINE, null, amountMinor);
+    }
+
+    /**
+     * Drops wallet counters from previous days to bound memory; runs with
+     * every background refresh. A counter is only removed after a CAS marks
+     * it evicted, so a tap that fetched it concurrently either lands first
+     * (and the entry stays) or sees the mark and starts a fresh entry.
+     */
+    public void evictIdleWallets() {
+        long today = (clock.getAsLong() / MILLIS_PER_DAY) & PERIOD_MASK;
+        for (Map.Entry<String, WalletCounters> entry : wallets.entrySet()) {
+            AtomicLong daily = entry.getValue().daily;
+            long packed = daily.get();
+            if (packed != EVICTED && periodOf(packed) != today && daily.compareAndSet(packed, EVICTED)) {
+                wallets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Amount approved offline today for a wallet (0 if it has no counters)
+     */
+    public long walletDailyUsed(String walletId) {
+        WalletCounters counters = wallets.get(walletId.toLowerCase(Locale.ROOT));
+        long packed = counters != null ? counters.daily.get() : EVICTED;
+        long today = (clock.getAsLong() / MILLIS_PER_DAY) & PERIOD_MASK;
+        return packed != EVICTED && periodOf(packed) == today ? packed & AMOUNT_MASK : 0;
+    }
+
+    int trackedWallets() {
+        return wallets.size();
+    }
+
+    private Decision precheck(long amountMinor) {
+        Limits current = limits.get();
+        if (current == null || clock.getAsLong() - current.fetchedAtMillis > maxLimitsAgeMillis) {
+            return Decision.online("limits unavailable or stale");
+        }
+        if (amountMinor <= 0 || amountMinor > current.maxTapAmountMinor) {
+            return Decision.online("amount above offline tap limit");
+        }
+        return null;
+    }
+
+    private void refreshQuietly() {
+        evictIdleWallets();
+        try {
+            refresh();
+        } catch (IOException | RuntimeException e) {
+            // Keep the last known limits; they expire via maxLimitsAgeMillis
+        }
+    }
+
+    private static boolean tryAdd(AtomicLong counter, long amount, long cap) {
+        while (true) {
+            long current = counter.get();
+            if (current + amount > cap) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + amount)) {
+                return true;
+            }
+        }
+    }
+
+    private static final int ADDED = 0;
+    private static final int OVER_CAP = 1;
+    private static final int COUNTER_EVICTED = 2;
+
+    private static int tryAddInPeriod(AtomicLong counter, long period, long amount, long cap) {
+        long tag = period & PERIOD_MASK;
+        while (true) {
+            long packed = counter.get();
+            if (packed == EVICTED) {
+                return COUNTER_EVICTED;
+            }
+            long used = periodOf(packed) == tag ? packed & AMOUNT_MASK : 0;
+            if (used + amount > cap || used + amount > AMOUNT_MASK) {
+                return OVER_CAP;
+            }
+            if (counter.compareAndSet(packed, (tag << AMOUNT_BITS) | (used + amount))) {
+                return ADDED;
+            }
+        }
+    }
+
+    private static void subtractInPeriod(AtomicLong counter, long period, long amount) {
+        long tag = period & PERIOD_MASK;
+        while (true) {
+            long packed = counter.get();
+            if (packed == EVICTED || periodOf(packed) != tag) {
+                return; // Period rolled over; nothing left to undo
+            }
+            long used = Math.max(0, (packed & AMOUNT_MASK) - amount);
+            if (counter.compareAndSet(packed, (tag << AMOUNT_BITS) | used)) {
+                return;
+            }
+        }
+    }
+
+    private static long periodOf(long packed) {
+        return (packed >>> AMOUNT_BITS) & PERIOD_MASK;
+    }
+
+    /**
+     * Reads limits from a JSON endpoint returning rulebook parameters
+     * (either at the top level or wrapped in a {@code data} object)
+     */
+    public static LimitsSource httpSource(OkHttpClient client, String url, String apiKey, long maxTapAmountMinor) {
+        return () -> {
+            Request request = new Request.Builder()
+                    .url(url)
+                    .get()
+                    .addHeader("X-API-Key", apiKey)
+                    .build();
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Failed to fetch risk limits: " + response.code());
+                }
+                JSONObject json = new JSONObject(response.body().string());
+                return Limits.fromParameters(json.optJSONObject("data") != null ? json.getJSONObject("data") : json,
+                        maxTapAmountMinor);
+            }
+        };
+    }
+
+    /**
+     * Verifies settlements against {@code GET {paymentsUrl}/{paymentId}}: the
+     * payment must still be pending and escrow exactly the approved amount.
+     * Bounded by {@code timeoutMillis} so an unreachable API fails the attempt
+     * quickly and it is retried with the settlement's backoff.
+     */
+    public static PayerVerifier httpVerifier(OkHttpClient client, String paymentsUrl, String apiKey,
+            long timeoutMillis) {
+        OkHttpClient bounded = client.newBuilder().callTimeout(timeoutMillis, TimeUnit.MILLISECONDS).build();
+        return (paymentId, amountMinor) -> {
+            Request request = new Request.Builder()
+                    .url(paymentsUrl + "/" + paymentId)
+                    .get()
+                    .addHeader("X-API-Key", apiKey)
+                    .build();
+            try (Response response = bounded.newCall(request).execute()) {
+                if (response.code() == 404) {
+                    return null;
+                }
+                if (!response.isSuccessful()) {
+                    throw new IOException("Failed to verify payment: " + response.code());
+                }
+                JSONObject json = new JSONObject(response.body().string());
+                JSONObject payment = json.optJSONObject("data") != null ? json.getJSONObject("data") : json;
+                boolean pending = payment.optInt("status", -1) == PAYMENT_STATUS_PENDING;
+                boolean sameAmount = String.valueOf(amountMinor).equals(payment.optString("amount"));
+                return pending && sameAmount ? payment.optString("payer", null) : null;
+            }
+        };
+    }
+
+    private static final class WalletCounters {
+        final AtomicLong daily = new AtomicLong();
+        final AtomicLong velocity = new AtomicLong();
+    }
+
+    /**
+     * Immutable snapshot of offline limits, all amounts in minor units
+     */
+    public static final class Limits {
+        public final long maxTapAmountMinor;
+        public final long terminalCapMinor;
+        public final long walletDailyMinor;
+        public final long velocityWindowMillis;
+        public final long velocityMaxMinor;
+        public final long fetchedAtMillis;
+        public final PublicKey voucherKey; // verifies OfflineVoucher signatures; null approves nothing offline
+
+        public Limits(long maxTapAmountMinor, long terminalCapMinor, long walletDailyMinor,
+                long velocityWindowMillis, long velocityMaxMinor, long fetchedAtMillis) {
+            this(maxTapAmountMinor, terminalCapMinor, walletDailyMinor, velocityWindowMillis, velocityMaxMinor,
+                    fetchedAtMillis, null);
+        }
+
+        public Limits(long maxTapAmountMinor, long terminalCapMinor, long walletDailyMinor,
+                long velocityWindowMillis, long velocityMaxMinor, long fetchedAtMillis, PublicKey voucherKey) {
+            if (velocityWindowMillis <= 0) {
+                throw new IllegalArgumentException("velocityWindowMillis must be positive");
+            }
+            this.maxTapAmountMinor = maxTapAmountMinor;
+            this.terminalCapMinor = terminalCapMinor;
+            this.walletDailyMinor = walletDailyMinor;
+            this.velocityWindowMillis = velocityWindowMillis;
+            this.velocityMaxMinor = velocityMaxMinor;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.voucherKey = voucherKey;
+        }
+
+        /**
+         * Builds limits from rulebook parameter names (see parameters.json)
+         * and the API's offline_voucher_public_key
+         *
+         * @throws IOException if the voucher key is present but not a valid EC key
+         */
+        public static Limits fromParameters(JSONObject params, long maxTapAmountMinor) throws IOException {
+            String voucherKey = params.optString("offline_voucher_public_key", null);
+            PublicKey key = null;
+            if (voucherKey != null) {
+                try {
+                    key = OfflineVoucher.parsePublicKey(voucherKey);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Invalid offline voucher key", e);
+                }
+            }
+            return new Limits(
+                    maxTapAmountMinor,
+                    params.getLong("offline_cap_per_device"),
+                    params.getLong("offline_daily_velocity_per_wallet"),
+                    params.getLong("transfer_velocity_limit_window_seconds") * 1000L,
+                    params.getLong("transfer_velocity_limit_max_amount"),
+                    System.currentTimeMillis(),
+                    key);
+        }
+    }
+
+    /**
+     * Result of a local risk check
+     */
+    public static final class Decision {
+        public final Outcome outcome;
+        public final String reason;
+        final long amountMinor;
+
+        private Decision(Outcome outcome, String reason, long amountMinor) {
+            this.outcome = outcome;
+            this.reason = reason;
+            this.amountMinor = amountMinor;
+        }
+
+        static Decision online(String reason) {
+            return new Decision(Outcome.ONLINE_REQUIRED, reason, 0);
+        }
+
+        public boolean isApprovedOffline() {
+            return outcome == Outcome.APPROVED_OFFLINE;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.teur.clover;
+
+// Offline Settlement Queue for tEUR Taps
+// Durable list of offline-approved taps whose release has not succeeded yet
+//
+// A tap approved offline has already been reported as paid, so its release
+// must survive network outages and restarts. Each change rewrites a small
+// snapshot (temp file, then rename); the queue holds at most the terminal's
+// offline cap worth of taps. The file contains payment secrets and belongs in
+// app-private storage.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class OfflineSettlementQueue {
+
+    private static final int SNAPSHOT_MAGIC = 0x544f5351; // "TOSQ"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long FIRST_RETRY_MILLIS = 5_000L;
+    private static final long MAX_RETRY_MILLIS = 5 * 60 * 1000L;
+
+    private final File file;
+    private final Map<String, Settlement> pending = new LinkedHashMap<>();
+
+    private OfflineSettlementQueue(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the queue, restoring settlements left pending by a previous run.
+     * A missing file is an empty queue.
+     */
+    public static OfflineSettlementQueue open(File file) throws IOException {
+        OfflineSettlementQueue queue = new OfflineSettlementQueue(file);
+        if (!file.exists()) {
+            return queue;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognized settlement queue " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String paymentId = in.readUTF();
+                String secret = in.readUTF();
+                long amountMinor = in.readLong();
+                String payer = in.readBoolean() ? in.readUTF() : null;
+                queue.pending.put(paymentId, new Settlement(paymentId, secret, amountMinor, payer));
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Adds a settlement and writes it to disk before returning; a tap must
+     * not be approved offline if this throws
+     */
+    public synchronized void add(Settlement settlement) throws IOException {
+        pending.put(settlement.paymentId, settlement);
+        try {
+            write();
+        } catch (IOException e) {
+            pending.remove(settlement.paymentId);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes a settlement once its release has succeeded or been rejected
+     */
+    public synchronized void remove(String paymentId) throws IOException {
+        if (pending.remove(paymentId) != null) {
+            write();
+        }
+    }
+
+    /**
+     * Settlements not yet completed, oldest first
+     */
+    public synchronized List<Settlement> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Delay before retry number {@code attempt} (1-based): 5 s doubling up to 5 minutes
+     */
+    public static long retryDelayMillis(int attempt) {
+        int doublings = Math.min(Math.max(attempt - 1, 0), 16);
+        return Math.min(FIRST_RETRY_MILLIS << doublings, MAX_RETRY_MILLIS);
+    }
+
+    private void write() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(pending.size());
+            for (Settlement settlement : pending.values()) {
+                out.writeUTF(settlement.paymentId);
+                out.writeUTF(settlement.secret);
+                out.writeLong(settlement.amountMinor);
+                out.writeBoolean(settlement.payer != null);
+                if (settlement.payer != null) {
+                    out.writeUTF(settlement.payer);
+                }
+            }
+            out.flush();
+            // The tap is reported as paid right after this returns
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            // Some filesystems refuse to rename over an existing file
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Failed to replace settlement queue " + file);
+            }
+        }
+    }
+
+    /**
+     * One offline-approved tap awaiting its release call
+     */
+    public static final class Settlement {
+        public final String paymentId;
+        public final String secret;
+        public final long amountMinor;
+        public final String payer; // payer named by the tap's voucher, or null
+
+        public Settlement(String paymentId, String secret, long amountMinor, String payer) {
+            this.paymentId = paymentId;
+            this.secret = secret;
+            this.amountMinor = amountMinor;
+            this.payer = payer;
+        }
+    }
+}
@@ -3,19 +3,23 @@ package com.teur.clover;
 // Clover Custom Tender for tEUR Token Payments
 // This code is part of a Clover Android app using the Payment Connector SDK
 
-import android.nfc.Ndef;
-import android.nfc.NdefMessage;
-import android.nfc.NdefRecord;
-import android.nfc.NfcAdapter;
 import android.nfc.Tag;
 import android.util.Log;
 import com.clover.sdk.v3.connector.IPaymentConnector;
 import com.clover.sdk.v3.payments.Payment;
 import com.clover.sdk.v3.payments.Tender;
+import com.teur.client.AndroidNfcTagSource;
+import com.teur.client.NfcReader;
+import com.teur.client.PaymentEventLog;
+import com.teur.client.PaymentLedger;
+import com.teur.client.PaymentTracer;
+import com.teur.client.SeenPaymentCache;
 import okhttp3.*;
 import org.json.JSONObject;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class TEurTender implements Tender {
 
@@ -23,21 +27,104 @@ public class TEurTender implements Tender {
     private static final String API_BASE_URL = "http://your-api-url/api/v1"; // Replace with actual API URL
     private static final String TAG = "TEurTender";
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String SERVICE_NAME = "teur-clover-tender";
+
+    private final PaymentTracer tracer = new PaymentTracer(SERVICE_NAME);
+    // Sends traceparent and X-Request-Id so API correlation IDs join the tap's trace
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(tracer.interceptor())
+            .build();
+    private volatile PaymentLedger ledger;
+    private final OfflineRiskEngine riskEngine;
+    private final NfcReader nfcReader;
+    private final SeenPaymentCache seenPayments = new SeenPaymentCache();
+    private volatile PaymentEventLog eventLog = PaymentEventLog.disabled();
+    private volatile OfflineSettlementQueue settlementQueue;
+    private final ScheduledExecutorService settlementRetries = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "teur-offline-settle");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    private OkHttpClient client = new OkHttpClient();
-    private NfcAdapter nfcAdapter;
+    public TEurTender() {
+        this(null, null);
+    }
 
-    // Store NFC data temporarily
-    private volatile String currentPaymentId = null;
-    private volatile String currentSecret = null;
+    public TEurTender(PaymentLedger ledger, OfflineRiskEngine riskEngine) {
+        // Tags arrive only through readNfcTag()
+        this(ledger, riskEngine, new NfcReader(null));
+    }
 
-    public TEurTender() {
-        // Initialize NFC adapter - this would typically be passed from the Activity
-        // context
-        // For now, we'll handle NFC reading through method calls
+    /**
+     * @param ledger     on-device ledger that records each tap, or null
+     * @param riskEngine local limits for offline approval of small taps, or null
+     *                   to always release online
+     * @param nfcReader  reader whose newest tap pays, usually fed by an
+     *                   AndroidNfcTagSource in reader mode
+     */
+    public TEurTender(PaymentLedger ledger, OfflineRiskEngine riskEngine, NfcReader nfcReader) {
+        this.ledger = ledger;
+        this.riskEngine = riskEngine;
+        this.nfcReader = nfcReader;
         Log.d(TAG, "TEurTender initialized");
     }
 
+    public NfcReader getNfcReader() {
+        return nfcReader;
+    }
+
+    /**
+     * Spans of recent taps: one trace per payment with a span per step
+     */
+    public PaymentTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Attaches the on-device ledger once it has been opened, e.g. from a
+     * background thread after the tender is registered
+     */
+    public void setLedger(PaymentLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Attaches the durable queue of offline-approved taps and resumes the
+     * settlements it holds from a previous run. Without a queue every tap is
+     * released online.
+     */
+    public void setSettlementQueue(OfflineSettlementQueue queue) {
+        this.settlementQueue = queue;
+        for (OfflineSettlementQueue.Settlement settlement : queue.pending()) {
+            // Keep replays of the same tag out while its release is pending
+            SeenPaymentCache.Attempt attempt = seenPayments.begin(settlement.paymentId);
+            if (!attempt.owner) {
+                // Released before the restart (restored seen-payment snapshot), or already being sent
+                if (attempt.alreadyReleased) {
+                    removeSettlement(settlement.paymentId);
+                }
+                continue;
+            }
+            OfflineRiskEngine.Decision decision =
+                    riskEngine != null ? riskEngine.restore(settlement.amountMinor) : null;
+            settlementRetries.execute(() -> sendSettlement(settlement, decision, 1, false));
+        }
+    }
+
+    /**
+     * Attaches a structured event log for taps and releases (none by default)
+     */
+    public void setEventLog(PaymentEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    /**
+     * Recently released and in-flight payment IDs; snapshot it across restarts
+     */
+    public SeenPaymentCache getSeenPayments() {
+        return seenPayments;
+    }
+
     @Override
     public String getId() {
         return TEUR_TENDER_ID;
@@ -50,13 +137,49 @@ public class TEurTender implements Tender {
 
     @Override
     public boolean processPayment(Payment payment, IPaymentConnector.PaymentCallback callback) {
-        // Extract payment data from NFC or manual input
-        String paymentId = extractPaymentIdFromNFC(); // Implement NFC reading
-        String secret = extractSecretFromNFC(); // Implement NFC reading
+        // Closed when the outcome is reported, possibly on an OkHttp thread
+        PaymentTracer.Span paymentSpan = tracer.startSpan("processPayment", null);
+        final long amountMinor = payment.getAmount() != null ? payment.getAmount() : 0L;
+        paymentSpan.setAttribute("payment.amount_minor", amountMinor);
+
+        // Newest tap, already read and parsed on the NFC I/O thread
+        NfcReader.Tap tap;
+        try (PaymentTracer.Span step = tracer.startSpan("nfc.take_tap", paymentSpan)) {
+            tap = nfcReader.latest();
+            if (tap != null) {
+                step.setAttribute("nfc.read_micros", tap.readNanos() / 1000);
+            }
+        }
+        if (tap == null) {
+            eventLog.log(PaymentEventLog.Event.TAP_MISSING, null, 0, paymentSpan.getTraceId());
+            return fail(payment, callback, paymentSpan, "NFC data not available. Please tap NFC device.");
+        }
+        String paymentId = tap.data.paymentId;
+        String secret = tap.data.secret;
+        paymentSpan.setAttribute("teur.payment_id", paymentId);
+        eventLog.log(PaymentEventLog.Event.TAP_READ, paymentId, tap.readNanos() / 1000, paymentSpan.getTraceId());
+
+        // Binary taps may carry the amount the customer's wallet authorized
+        if (tap.data.amountMinor != null && tap.data.amountMinor != amountMinor) {
+            eventLog.log(PaymentEventLog.Event.TAP_AMOUNT_MISMATCH, paymentId, tap.data.amountMinor,
+                    paymentSpan.getTraceId());
+            return fail(payment, callback, paymentSpan, "Tapped amount does not match the payment");
+        }
 
-        if (paymentId == null || secret == null) {
-            callback.onPaymentFailed(payment, new Exception("NFC data not available. Please tap NFC device."));
-            return false;
+        // Suppress double taps and retries of a payment already released or in flight
+        SeenPaymentCache.Attempt attempt;
+        try (PaymentTracer.Span step = tracer.startSpan("teur.replay_check", paymentSpan)) {
+            attempt = seenPayments.begin(paymentId);
+            step.setAttribute("teur.replay", attempt.alreadyReleased || !attempt.owner);
+        }
+        if (attempt.alreadyReleased) {
+            eventLog.log(PaymentEventLog.Event.RELEASE_DUPLICATE, paymentId, 0, paymentSpan.getTraceId());
+            return fail(payment, callback, paymentSpan, "Payment already released");
+        }
+        if (!attempt.owner) {
+            // The in-flight release pays for another Clover payment, never this one
+            eventLog.log(PaymentEventLog.Event.RELEASE_JOINED, paymentId, 0, paymentSpan.getTraceId());
+            return fail(payment, callback, paymentSpan, "Payment is already being released");
         }
 
         // Call API to release payment
@@ -65,34 +188,76 @@ public class TEurTender implements Tender {
             releaseData.put("paymentId", paymentId);
             releaseData.put("secret", secret);
         } catch (Exception e) {
-            callback.onPaymentFailed(payment, new Exception("Failed to create payment data"));
-            return false;
+            seenPayments.finish(paymentId, false);
+            return fail(payment, callback, paymentSpan, "Failed to create payment data");
         }
 
-        RequestBody body = RequestBody.create(releaseData.toString(), JSON);
-        Request request = new Request.Builder()
-                .url(API_BASE_URL + "/payments/" + paymentId + "/release")
-                .post(body)
-                .addHeader("X-API-Key", "your-api-key") // Replace with actual key
-                .build();
+        recordInLedger(paymentId, amountMinor, PaymentLedger.Status.PENDING);
+
+        // Small taps with a valid offline voucher within the cached risk
+        // limits are approved locally and settled in the background
+        OfflineSettlementQueue queue = settlementQueue;
+        if (riskEngine != null && queue != null) {
+            OfflineRiskEngine.Decision decision;
+            try (PaymentTracer.Span step = tracer.startSpan("risk.evaluate_tap", paymentSpan)) {
+                decision = riskEngine.evaluateTap(tap.data, amountMinor);
+                step.setAttribute("risk.approved_offline", decision.isApprovedOffline());
+            }
+            OfflineSettlementQueue.Settlement settlement =
+                    new OfflineSettlementQueue.Settlement(paymentId, secret, amountMinor, tap.data.payer);
+            if (decision.isApprovedOffline() && enqueueSettlement(queue, settlement, decision, paymentSpan)) {
+                eventLog.log(PaymentEventLog.Event.OFFLINE_APPROVED, paymentId, amountMinor, paymentSpan.getTraceId());
+                payment.setResult(Payment.Result.SUCCESS);
+                paymentSpan.close();
+                callback.onPaymentSucceeded(payment);
+                // The escrow is read back before the release, off this thread
+                settlementRetries.execute(() -> sendSettlement(settlement, decision, 1, false));
+                return true;
+            }
+            if (!decision.isApprovedOffline()) {
+                eventLog.log(PaymentEventLog.Event.ONLINE_REQUIRED, paymentId, amountMinor, paymentSpan.getTraceId(),
+                        decision.reason);
+            }
+        }
 
-        client.newCall(request).enqueue(new Callback() {
+        PaymentTracer.Span releaseSpan = tracer.startSpan("teur.release", paymentSpan);
+        String traceId = releaseSpan.getTraceId();
+        eventLog.log(PaymentEventLog.Event.RELEASE_SENT, paymentId, amountMinor, traceId);
+
+        newReleaseCall(releaseData, paymentId, releaseSpan).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "API call failed", e);
-                callback.onPaymentFailed(payment, new Exception("API call failed"));
+                eventLog.log(PaymentEventLog.Event.RELEASE_FAILED, paymentId, 0, traceId, e);
+                releaseSpan.setError(e.getClass().getSimpleName());
+                releaseSpan.close();
+                recordInLedger(paymentId, amountMinor, PaymentLedger.Status.FAILED);
+                seenPayments.finish(paymentId, false);
+                fail(payment, callback, paymentSpan, "API call failed");
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    Log.d(TAG, "Payment successful");
-                    // Payment successful
-                    payment.setResult(Payment.Result.SUCCESS);
-                    callback.onPaymentSucceeded(payment);
-                } else {
-                    Log.e(TAG, "Payment release failed: " + response.code());
-                    callback.onPaymentFailed(payment, new Exception("Payment release failed"));
+            public void onResponse(Call call, Response response) {
+                // Closing returns the connection to the pool
+                try (Response released = response) {
+                    if (!released.isSuccessful()) {
+                        releaseSpan.setError("HTTP " + released.code());
+                    }
+                    releaseSpan.close();
+                    long elapsedMs = releaseSpan.getDurationNanos() / 1_000_000L;
+                    if (released.isSuccessful()) {
+                        eventLog.log(PaymentEventLog.Event.RELEASE_SUCCEEDED, paymentId, elapsedMs, traceId);
+                        recordInLedger(paymentId, amountMinor, PaymentLedger.Status.RELEASED);
+                        seenPayments.finish(paymentId, true);
+                        // Payment successful
+                        payment.setResult(Payment.Result.SUCCESS);
+                        paymentSpan.close();
+                        callback.onPaymentSucceeded(payment);
+                    } else {
+                        eventLog.log(PaymentEventLog.Event.RELEASE_REJECTED, paymentId, released.code(), traceId);
+                        recordInLedger(paymentId, amountMinor, PaymentLedger.Status.FAILED);
+                        seenPayments.finish(paymentId, false);
+                        fail(payment, callback, paymentSpan, "Payment release failed");
+                    }
                 }
             }
         });
@@ -100,126 +265,190 @@ public class TEurTender implements Tender {
         return true; // Async processing
     }
 
-    private String extractPaymentIdFromNFC() {
-        // Return the stored payment ID from NFC read
-        // This would be set by calling readNfcTag() when NFC tag is detected
-        return currentPaymentId;
+    /**
+     * Ends the payment's trace as failed and reports the failure to Clover
+     */
+    private boolean fail(Payment payment, IPaymentConnector.PaymentCallback callback, PaymentTracer.Span paymentSpan,
+            String message) {
+        paymentSpan.setError(message);
+        paymentSpan.close();
+        callback.onPaymentFailed(payment, new Exception(message));
+        return false;
     }
 
-    private String extractSecretFromNFC() {
-        // Return the stored secret from NFC read
-        // This would be set by calling readNfcTag() when NFC tag is detected
-        return currentSecret;
+    /**
+     * Persists an offline approval before it is reported; if that fails the
+     * reservation is returned and the tap goes online
+     */
+    private boolean enqueueSettlement(OfflineSettlementQueue queue, OfflineSettlementQueue.Settlement settlement,
+            OfflineRiskEngine.Decision decision, PaymentTracer.Span paymentSpan) {
+        try (PaymentTracer.Span step = tracer.startSpan("settlement.enqueue", paymentSpan)) {
+            try {
+                queue.add(settlement);
+                return true;
+            } catch (IOException e) {
+                step.setError(e.getClass().getSimpleName());
+                eventLog.log(PaymentEventLog.Event.SETTLEMENT_QUEUE_WRITE_FAILED, settlement.paymentId, 0, null, e);
+                riskEngine.settled(decision);
+                return false;
+            }
+        }
     }
 
     /**
-     * Method to be called when an NFC tag is detected
-     * This should be called from the Activity's NFC intent handler
+     * Sends the release for a tap already approved offline; runs on the
+     * settlement thread. The customer has left by now: the escrow is first
+     * read back through the risk engine's PayerVerifier, then the release is
+     * sent. Network errors and server-side failures are retried with backoff
+     * (the ledger entry stays PENDING and the amount stays reserved against
+     * the terminal cap) until the release succeeds or is rejected.
      */
-    public void readNfcTag(Tag tag) {
-        try {
-            Ndef ndef = Ndef.get(tag);
-            if (ndef == null) {
-                Log.w(TAG, "NDEF not supported on this tag");
+    private void sendSettlement(OfflineSettlementQueue.Settlement settlement, OfflineRiskEngine.Decision decision,
+            int attempt, boolean payerVerified) {
+        String paymentId = settlement.paymentId;
+        // One trace per attempt; the customer's payment trace has ended by now
+        PaymentTracer.Span span = tracer.startSpan("teur.settle", null)
+                .setAttribute("teur.payment_id", paymentId)
+                .setAttribute("settlement.attempt", attempt);
+        String traceId = span.getTraceId();
+        if (!payerVerified && riskEngine != null) {
+            String onChainPayer;
+            try (PaymentTracer.Span step = tracer.startSpan("teur.verify_payer", span)) {
+                onChainPayer = riskEngine.verifyPayer(paymentId, settlement.payer, settlement.amountMinor);
+                step.setAttribute("teur.escrow_pending", onChainPayer != null);
+            } catch (IOException | RuntimeException e) {
+                eventLog.log(PaymentEventLog.Event.OFFLINE_SETTLEMENT_FAILED, paymentId, attempt, traceId, e);
+                span.setError(e.getClass().getSimpleName());
+                span.close();
+                retrySettlement(settlement, decision, attempt, false);
                 return;
             }
-
-            ndef.connect();
-            NdefMessage ndefMessage = ndef.getNdefMessage();
-            ndef.close();
-
-            if (ndefMessage == null) {
-                Log.w(TAG, "No NDEF message found");
+            if (onChainPayer == null) {
+                // No pending escrow for this amount, so the release cannot
+                // succeed; the loss stays counted against the cap
+                eventLog.log(PaymentEventLog.Event.OFFLINE_SETTLEMENT_REJECTED, paymentId, 0, traceId,
+                        "escrow not pending for the approved amount");
+                span.setError("escrow not pending");
+                span.close();
+                recordInLedger(paymentId, settlement.amountMinor, PaymentLedger.Status.FAILED);
+                seenPayments.finish(paymentId, false);
+                removeSettlement(paymentId);
                 return;
             }
-
-            // Parse NDEF records
-            parseNdefMessage(ndefMessage);
-
+            if (settlement.payer != null && !onChainPayer.equalsIgnoreCase(settlement.payer)) {
+                // The voucher named another wallet; the escrow still pays, so release it
+                eventLog.log(PaymentEventLog.Event.OFFLINE_SETTLEMENT_PAYER_MISMATCH, paymentId,
+                        settlement.amountMinor, traceId, onChainPayer);
+            }
+        }
+        JSONObject releaseData = new JSONObject();
+        try {
+            releaseData.put("paymentId", paymentId);
+            releaseData.put("secret", settlement.secret);
         } catch (Exception e) {
-            Log.e(TAG, "Error reading NFC tag", e);
+            // Only fails for non-finite numbers; both values are strings
+            throw new IllegalStateException(e);
         }
-    }
+        newReleaseCall(releaseData, paymentId, span).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                eventLog.log(PaymentEventLog.Event.OFFLINE_SETTLEMENT_FAILED, paymentId, attempt, traceId, e);
+                span.setError(e.getClass().getSimpleName());
+                span.close();
+                retrySettlement(settlement, decision, attempt, true);
+            }
 
-    /**
-     * Parse NDEF message to extract payment data
-     */
-    private void parseNdefMessage(NdefMessage ndefMessage) {
-        NdefRecord[] records = ndefMessage.getRecords();
-
-        for (NdefRecord record : records) {
-            if (record.getTnf() == NdefRecord.TNF_WELL_KNOWN &&
-                    java.util.Arrays.equals(record.getType(), NdefRecord.RTD_TEXT)) {
-
-                // Parse text record
-                String text = parseTextRecord(record);
-                parsePaymentData(text);
-
-            } else if (record.getTnf() == NdefRecord.TNF_EXTERNAL_TYPE) {
-                // Handle custom MIME type for payment data
-                String mimeType = new String(record.getType(), StandardCharsets.US_ASCII);
-                if ("application/vnd.teur.payment".equals(mimeType)) {
-                    String jsonData = new String(record.getPayload(), StandardCharsets.UTF_8);
-                    parseJsonPaymentData(jsonData);
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                int code = response.code();
+                if (!response.isSuccessful()) {
+                    span.setError("HTTP " + code);
+                }
+                span.close();
+                if (response.isSuccessful()) {
+                    eventLog.log(PaymentEventLog.Event.OFFLINE_SETTLED, paymentId, attempt, traceId);
+                    recordInLedger(paymentId, settlement.amountMinor, PaymentLedger.Status.RELEASED);
+                    if (decision != null) {
+                        riskEngine.settled(decision);
+                    }
+                } else if (code == 408 || code == 429 || code >= 500) {
+                    eventLog.log(PaymentEventLog.Event.OFFLINE_SETTLEMENT_FAILED, paymentId, attempt, traceId,
+                            "HTTP " + code);
+                    retrySettlement(settlement, decision, attempt, true);
+                    return;
+                } else {
+                    // Not recoverable by retrying; the loss stays counted against the cap
+                    eventLog.log(PaymentEventLog.Event.OFFLINE_SETTLEMENT_REJECTED, paymentId, code, traceId);
+                    recordInLedger(paymentId, settlement.amountMinor, PaymentLedger.Status.FAILED);
                 }
+                seenPayments.finish(paymentId, response.isSuccessful());
+                removeSettlement(paymentId);
             }
-        }
+        });
     }
 
-    /**
-     * Parse text record containing payment data
-     */
-    private String parseTextRecord(NdefRecord record) {
-        byte[] payload = record.getPayload();
-        String textEncoding = ((payload[0] & 0200) == 0) ? "UTF-8" : "UTF-16";
-        int languageCodeLength = payload[0] & 0077;
+    private void retrySettlement(OfflineSettlementQueue.Settlement settlement, OfflineRiskEngine.Decision decision,
+            int attempt, boolean payerVerified) {
+        settlementRetries.schedule(() -> sendSettlement(settlement, decision, attempt + 1, payerVerified),
+                OfflineSettlementQueue.retryDelayMillis(attempt), TimeUnit.MILLISECONDS);
+    }
 
+    private void removeSettlement(String paymentId) {
+        OfflineSettlementQueue queue = settlementQueue;
+        if (queue == null) {
+            return;
+        }
         try {
-            return new String(payload, languageCodeLength + 1,
-                    payload.length - languageCodeLength - 1, textEncoding);
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing text record", e);
-            return null;
+            queue.remove(paymentId);
+        } catch (IOException e) {
+            // Stays on disk and is sent again after a restart; the API rejects the duplicate
+            eventLog.log(PaymentEventLog.Event.SETTLEMENT_QUEUE_WRITE_FAILED, paymentId, 0, null, e);
         }
     }
 
     /**
-     * Parse payment data from text (format: "paymentId:secret")
+     * @param parent span the HTTP span is recorded under; enqueued calls run
+     *               on OkHttp's threads, where no span is current
      */
-    private void parsePaymentData(String text) {
-        if (text == null)
-            return;
+    private Call newReleaseCall(JSONObject releaseData, String paymentId, PaymentTracer.Span parent) {
+        RequestBody body = RequestBody.create(releaseData.toString(), JSON);
+        Request request = new Request.Builder()
+                .url(API_BASE_URL + "/payments/" + paymentId + "/release")
+                .post(body)
+                .addHeader("X-API-Key", "your-api-key") // Replace with actual key
+                .tag(PaymentTracer.Span.class, parent)
+                .build();
+        return client.newCall(request);
+    }
 
-        String[] parts = text.split(":");
-        if (parts.length >= 2) {
-            currentPaymentId = parts[0].trim();
-            currentSecret = parts[1].trim();
-            Log.d(TAG, "Parsed payment data - ID: " + currentPaymentId);
-        } else {
-            Log.w(TAG, "Invalid payment data format: " + text);
+    private void recordInLedger(String paymentId, long amountMinor, PaymentLedger.Status status) {
+        PaymentLedger ledger = this.ledger;
+        if (ledger == null) {
+            return;
+        }
+        try {
+            ledger.record(paymentId, amountMinor, status, null);
+        } catch (IOException | RuntimeException e) {
+            // The ledger is a local convenience; never fail a payment because of it
+            eventLog.log(PaymentEventLog.Event.LEDGER_WRITE_FAILED, paymentId, 0, null, e);
         }
     }
 
     /**
-     * Parse payment data from JSON
+     * Method to be called when an NFC tag is detected outside reader mode
+     * (e.g. from the Activity's NFC intent handler). Returns immediately; the
+     * tag is read on the NFC I/O thread.
      */
-    private void parseJsonPaymentData(String jsonData) {
-        try {
-            JSONObject json = new JSONObject(jsonData);
-            currentPaymentId = json.optString("paymentId");
-            currentSecret = json.optString("secret");
-            Log.d(TAG, "Parsed JSON payment data - ID: " + currentPaymentId);
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing JSON payment data", e);
-        }
+    public void readNfcTag(Tag tag) {
+        nfcReader.submit(AndroidNfcTagSource.handle(tag));
     }
 
     /**
      * Clear stored NFC data (call after payment processing)
      */
     public void clearNfcData() {
-        currentPaymentId = null;
-        currentSecret = null;
+        nfcReader.clear();
         Log.d(TAG, "NFC data cleared");
     }
 }
\ No newline at end of file
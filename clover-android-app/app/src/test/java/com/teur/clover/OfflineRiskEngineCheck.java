@@ -0,0 +1,259 @@
+package com.teur.clover;
+
+// Offline Risk Engine Check
+// Exercises OfflineRiskEngine's voucher checks and lock-free counters on a plain JVM
+//
+// Verifies the vouchers in docs/offline-voucher-test-vectors.json (also
+// checked by api/test/offline-voucher.test.ts) through evaluateTap and both
+// tag formats that carry them. Then runs parallel taps against the terminal
+// cap, a wallet's daily limit and its velocity limit, where the approved
+// total must land exactly on the cap, and races evictIdleWallets against taps
+// that picked up yesterday's counters, where no approved amount may be lost.
+// The races need several cores to show up reliably. Exits with status 1 on
+// any failure.
+//
+// Usage: java com.teur.clover.OfflineRiskEngineCheck [path/to/offline-voucher-test-vectors.json] [threads]
+
+import com.teur.client.NfcPaymentData;
+import com.teur.client.OfflineVoucher;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OfflineRiskEngineCheck {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long NO_LIMIT = 1L << 39;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : "../docs/offline-voucher-test-vectors.json";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        checkVouchers(new JSONObject(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8)));
+        checkTerminalCap(threads);
+        checkWalletLimits(threads);
+        checkEvictionRace(threads);
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkVouchers(JSONObject file) throws Exception {
+        PublicKey key = OfflineVoucher.parsePublicKey(file.getString("publicKey"));
+        JSONArray vectors = file.getJSONArray("vectors");
+        for (int i = 0; i < vectors.length(); i++) {
+            JSONObject vector = vectors.getJSONObject(i);
+            NfcPaymentData tap = tap(vector);
+            boolean valid = vector.getBoolean("valid");
+            OfflineRiskEngine engine = engine(new OfflineRiskEngine.Limits(
+                    NO_LIMIT, NO_LIMIT, NO_LIMIT, MILLIS_PER_DAY, NO_LIMIT, 0, key));
+            expect("voucher: " + vector.getString("name"),
+                    engine.evaluateTap(tap, tap.amountMinor).isApprovedOffline() == valid);
+        }
+
+        JSONObject first = vectors.getJSONObject(0);
+        NfcPaymentData tap = tap(first);
+        long amount = tap.amountMinor;
+        NfcPaymentData binary = NfcPaymentData.parse(tap.toBinaryMessage(false));
+        expect("voucher: survives the binary record", binary != null && binary.voucher != null
+                && binary.voucher.verify(key, binary.paymentId, binary.payer, binary.amountMinor));
+        NfcPaymentData json = NfcPaymentData.parse(tap.toJsonMessage());
+        expect("voucher: survives the JSON record", json != null && json.voucher != null
+                && json.voucher.verify(key, json.paymentId, json.payer, json.amountMinor));
+        NfcPaymentData text = NfcPaymentData.parse(tap.toTextMessage());
+        expect("voucher: text record carries none", text != null && text.voucher == null);
+
+        OfflineRiskEngine.Limits limits = new OfflineRiskEngine.Limits(
+                NO_LIMIT, NO_LIMIT, NO_LIMIT, MILLIS_PER_DAY, NO_LIMIT, 0, key);
+        OfflineRiskEngine engine = engine(limits);
+        expect("voucher: sale amount must match", !engine.evaluateTap(tap, amount + 1).isApprovedOffline());
+        expect("voucher: tap without one goes online", !engine.evaluateTap(
+                new NfcPaymentData(tap.paymentId, tap.secret, tap.payer, amount), amount).isApprovedOffline());
+        engine.clock = () -> tap.voucher.expiresAtSeconds * 1000L;
+        expect("voucher: expired one goes online", !engine.evaluateTap(tap, amount).isApprovedOffline());
+        OfflineRiskEngine keyless = engine(new OfflineRiskEngine.Limits(
+                NO_LIMIT, NO_LIMIT, NO_LIMIT, MILLIS_PER_DAY, NO_LIMIT, 0));
+        expect("voucher: no key, no offline approval", !keyless.evaluateTap(tap, amount).isApprovedOffline());
+        expect("voucher: nothing reserved for rejected taps",
+                engine.getTerminalOutstanding() == 0 && keyless.getTerminalOutstanding() == 0);
+    }
+
+    /**
+     * Many threads tap against one terminal cap that fits an odd number of taps
+     */
+    private static void checkTerminalCap(int threads) throws InterruptedException {
+        long cap = 10_000;
+        long amount = 7;
+        OfflineRiskEngine engine = engine(new OfflineRiskEngine.Limits(
+                NO_LIMIT, cap, NO_LIMIT, MILLIS_PER_DAY, NO_LIMIT, 0));
+        AtomicInteger approved = new AtomicInteger();
+        run(threads, thread -> {
+            for (int i = 0; i < 5_000; i++) {
+                if (engine.evaluate("0xwallet" + (i % 64), amount).isApprovedOffline()) {
+                    approved.incrementAndGet();
+                }
+            }
+        });
+        expect("parallel: terminal cap filled exactly",
+                approved.get() == cap / amount && engine.getTerminalOutstanding() == cap / amount * amount);
+    }
+
+    /**
+     * Many threads tap for a few wallets; the velocity limit is tighter than
+     * the daily one, so its rejections must give the daily amount back
+     */
+    private static void checkWalletLimits(int threads) throws InterruptedException {
+        long daily = 1_000;
+        long velocity = 600;
+        long amount = 3;
+        int wallets = 4;
+        OfflineRiskEngine engine = engine(new OfflineRiskEngine.Limits(
+                NO_LIMIT, NO_LIMIT, daily, MILLIS_PER_DAY, velocity, 0));
+        AtomicInteger approved = new AtomicInteger();
+        run(threads, thread -> {
+            for (int i = 0; i < 2_000; i++) {
+                if (engine.evaluate("0xWallet" + (i % wallets), amount).isApprovedOffline()) {
+                    approved.incrementAndGet();
+                }
+            }
+        });
+        long perWallet = velocity / amount * amount;
+        boolean exact = approved.get() == wallets * (velocity / amount);
+        for (int w = 0; w < wallets; w++) {
+            exact &= engine.walletDailyUsed("0xwallet" + w) == perWallet;
+        }
+        expect("parallel: velocity limit filled exactly, daily totals rolled back", exact);
+
+        OfflineRiskEngine dailyOnly = engine(new OfflineRiskEngine.Limits(
+                NO_LIMIT, NO_LIMIT, daily, MILLIS_PER_DAY, NO_LIMIT, 0));
+        run(threads, thread -> {
+            for (int i = 0; i < 2_000; i++) {
+                dailyOnly.evaluate("0xwallet" + (i % wallets), amount);
+            }
+        });
+        boolean dailyExact = dailyOnly.getTerminalOutstanding() == wallets * (daily / amount * amount);
+        for (int w = 0; w < wallets; w++) {
+            dailyExact &= dailyOnly.walletDailyUsed("0xwallet" + w) == daily / amount * amount;
+        }
+        expect("parallel: daily limit filled exactly", dailyExact);
+    }
+
+    /**
+     * Each round leaves every wallet with yesterday's counters, then taps them
+     * from several threads while another thread evicts stale counters
+     */
+    private static void checkEvictionRace(int threads) throws InterruptedException {
+        int wallets = 256;
+        long amount = 5;
+        int tappers = Math.max(2, threads - 1);
+        OfflineRiskEngine engine = engine(new OfflineRiskEngine.Limits(
+                NO_LIMIT, NO_LIMIT, NO_LIMIT, MILLIS_PER_DAY, NO_LIMIT, 0));
+        int lost = 0;
+        for (int round = 0; round < 50; round++) {
+            long yesterday = (1_000L + 2 * round) * MILLIS_PER_DAY;
+            engine.clock = () -> yesterday;
+            for (int w = 0; w < wallets; w++) {
+                engine.evaluate(wallet(round, w), amount);
+            }
+            engine.clock = () -> yesterday + MILLIS_PER_DAY;
+
+            AtomicBoolean tapping = new AtomicBoolean(true);
+            Thread evictor = new Thread(() -> {
+                while (tapping.get()) {
+                    engine.evictIdleWallets();
+                }
+            });
+            evictor.start();
+            int currentRound = round;
+            run(tappers, thread -> {
+                for (int w = 0; w < wallets; w++) {
+                    engine.evaluate(wallet(currentRound, (w + thread * 37) % wallets), amount);
+                }
+            });
+            tapping.set(false);
+            evictor.join();
+
+            for (int w = 0; w < wallets; w++) {
+                if (engine.walletDailyUsed(wallet(round, w)) != tappers * amount) {
+                    lost++;
+                }
+            }
+        }
+        expect("eviction: no approval lost to a concurrent eviction (" + lost + " wallets short)", lost == 0);
+        engine.clock = () -> 3_000L * MILLIS_PER_DAY;
+        engine.evictIdleWallets();
+        expect("eviction: stale wallets dropped", engine.trackedWallets() == 0);
+    }
+
+    private static String wallet(int round, int index) {
+        return "0x" + String.format("%040x", BigInteger.valueOf(round * 1_000L + index));
+    }
+
+    private static NfcPaymentData tap(JSONObject vector) {
+        String hex = vector.getString("signature").substring(2);
+        byte[] signature = new byte[hex.length() / 2];
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return new NfcPaymentData(vector.getString("paymentId"), "0x01", vector.getString("payer"),
+                vector.getLong("amount"), new OfflineVoucher(vector.getLong("expiresAt"), signature));
+    }
+
+    private static OfflineRiskEngine engine(OfflineRiskEngine.Limits limits) {
+        OfflineRiskEngine engine = new OfflineRiskEngine(() -> limits, Long.MAX_VALUE);
+        engine.updateLimits(limits);
+        engine.clock = () -> 1_000L * MILLIS_PER_DAY;
+        return engine;
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    private static void run(int threads, Worker worker) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> started = new ArrayList<>();
+        AtomicInteger errors = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread runner = new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(thread);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                }
+            });
+            runner.start();
+            started.add(runner);
+        }
+        start.countDown();
+        for (Thread runner : started) {
+            runner.join();
+        }
+        if (errors.get() > 0) {
+            expect("worker threads finished without errors", false);
+        }
+    }
+
+    private static void expect(String name, boolean passed) {
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
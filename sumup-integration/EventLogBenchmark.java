@@ -0,0 +1,276 @@
+// Event Log Benchmark
+// Measures PaymentEventLog on the calling thread and on the tap-to-release path
+//
+// 1. Producers: four threads log into a 4096-event rotating NDJSON log, first
+//    in payment-sized bursts (nothing may be dropped), then without pausing
+//    (most is dropped); checks every event is either written or counted as
+//    dropped, that lines parse, that payment IDs only appear as fingerprints
+//    and that rotation keeps the configured number of files.
+// 2. Caller cost: ns and bytes allocated per log() call for a single producer,
+//    in payment-sized and large bursts, against the string-concatenation
+//    println the clients used before.
+// 3. Tap-to-release: processTEurPayment (NFC tap already read, release against
+//    StubTEurServer) with the event log disabled and enabled, alternating.
+// Exits with status 1 on any check failure.
+//
+// Usage: java EventLogBenchmark [payments]
+
+import com.teur.client.PaymentTracer;
+import com.teur.client.NfcPaymentData;
+import com.teur.client.NfcReader;
+import com.teur.client.PaymentEventLog;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class EventLogBenchmark {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String PAYMENT_ID = "0x9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    public static void main(String[] args) throws Exception {
+        // The stub answers in two writes (headers, body); without this, Nagle plus
+        // delayed ACKs add ~40 ms per response. JVM-wide, so set only here.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        int payments = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        File directory = Files.createTempDirectory("teur-events").toFile();
+        int failures = checkProducers(new File(directory, "producers"));
+        failures += measureCaller(new File(directory, "caller"));
+        failures += measureTapToRelease(new File(directory, "release"), payments);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static int checkProducers(File directory) throws Exception {
+        int threads = 4;
+        // The capacity the README suggests for a terminal
+        PaymentEventLog log = PaymentEventLog.open(directory, PaymentEventLog.Format.NDJSON, 4096)
+                .setMaxFileBytes(1024 * 1024)
+                .setMaxFiles(3);
+
+        // Realistic load: each payment logs a handful of events, far below what
+        // the buffer holds, so nothing may be dropped
+        int bursts = 2_000;
+        int perBurst = 8;
+        long[] burstNanos = new long[threads];
+        runProducers(threads, t -> {
+            long nanos = 0;
+            for (int b = 0; b < bursts; b++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < perBurst; i++) {
+                    log.log(PaymentEventLog.Event.RELEASE_SUCCEEDED, PAYMENT_ID, i, TRACE_ID);
+                }
+                nanos += System.nanoTime() - start;
+                log.flush(1000);
+            }
+            burstNanos[t] = nanos;
+        });
+        long bursty = (long) threads * bursts * perBurst;
+        System.out.printf("Producers, bursts of %d: %d events from %d threads, %.0f ns per log() call, "
+                        + "%d written, %d dropped%n",
+                perBurst, bursty, threads, Arrays.stream(burstNanos).sum() / (double) bursty,
+                log.getWritten(), log.getDropped());
+        int failures = 0;
+        if (log.getDropped() > 0) {
+            System.out.println("FAIL events dropped well below capacity");
+            failures++;
+        }
+
+        // Overload: producers never pause, so most events must be dropped and counted
+        int perThread = 250_000;
+        runProducers(threads, t -> {
+            for (int i = 0; i < perThread; i++) {
+                log.log(PaymentEventLog.Event.RELEASE_SUCCEEDED, PAYMENT_ID, i, TRACE_ID);
+            }
+        });
+        // No flush: close() itself must write or count everything
+        log.close();
+
+        long total = bursty + (long) threads * perThread;
+        System.out.printf("Producers, overload: %d more events without pausing, %d written, %d dropped%n",
+                total - bursty, log.getWritten(), log.getDropped());
+        if (log.getWritten() + log.getDropped() != total) {
+            System.out.println("FAIL events lost without being counted");
+            failures++;
+        }
+
+        String[] files = directory.list();
+        String expectedId = String.format("%016x", PaymentEventLog.fingerprint(PAYMENT_ID));
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(directory, "teur-events.ndjson.1")))) {
+            String line;
+            int lines = 0;
+            while ((line = reader.readLine()) != null) {
+                JSONObject event = new JSONObject(line);
+                lines++;
+                if (event.getInt("code") != PaymentEventLog.Event.RELEASE_SUCCEEDED.code
+                        || !expectedId.equals(event.getString("id")) || !TRACE_ID.equals(event.getString("trace"))
+                        || line.contains(PAYMENT_ID.substring(2))) {
+                    System.out.println("FAIL unexpected line " + line);
+                    failures++;
+                    break;
+                }
+            }
+            if (lines == 0) {
+                System.out.println("FAIL rotated file is empty");
+                failures++;
+            }
+        }
+        if (files == null || files.length != 3) {
+            System.out.println("FAIL expected 3 rotated files, found " + Arrays.toString(files));
+            failures++;
+        }
+        return failures;
+    }
+
+    private interface Producer {
+        void run(int thread) throws Exception;
+    }
+
+    private static void runProducers(int threads, Producer producer) throws InterruptedException {
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            producers[t] = new Thread(() -> {
+                try {
+                    producer.run(thread);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+    }
+
+    private static int measureCaller(File directory) throws Exception {
+        int iterations = 1 << 20;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        IOException error = new IOException("connection reset");
+
+        // One producer, bursts below capacity flushed untimed in between, so this
+        // measures logging rather than dropping or other producers. A burst of 8
+        // is about one payment, and its first event wakes the idle drain thread.
+        double[] payment;
+        double[] steady;
+        try (PaymentEventLog log = PaymentEventLog.open(directory, PaymentEventLog.Format.BINARY, 8192)) {
+            logCost(log, 4096, 64, threads, threadId, error); // warm-up
+            steady = logCost(log, 4096, 256, threads, threadId, error);
+            payment = logCost(log, 8, 4096, threads, threadId, error);
+            if (log.getDropped() > 0) {
+                System.out.println("FAIL events dropped below capacity");
+                return 1;
+            }
+        }
+        double logBytes = Math.max(payment[1], steady[1]);
+
+        // What the clients did before: build a message and println it (System.err autoflushes)
+        long printNanos = Long.MAX_VALUE;
+        long printBytes = 0;
+        try (PrintStream err = new PrintStream(new FileOutputStream(new File(directory, "println.log")), true)) {
+            for (int round = 0; round < 3; round++) {
+                long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations / 16; i++) {
+                    err.println("Release failed for " + PAYMENT_ID + ": " + error.getMessage() + " (trace "
+                            + TRACE_ID + ")");
+                }
+                printNanos = Math.min(printNanos, (System.nanoTime() - start) * 16);
+                printBytes = (threads.getThreadAllocatedBytes(threadId) - bytesBefore) * 16;
+            }
+        }
+
+        System.out.printf("Caller, single producer: log() p50 %.0f ns per event in bursts of 8, %.0f ns in bursts "
+                        + "of 4096, %.2f bytes allocated per event; println %.0f ns, %.0f bytes per line%n",
+                payment[0], steady[0], logBytes, printNanos / (double) iterations, printBytes / (double) iterations);
+        if (logBytes > 0) {
+            System.out.println("FAIL log() allocates on the calling thread");
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Median ns per log() call across bursts, and bytes allocated per call
+     */
+    private static double[] logCost(PaymentEventLog log, int burst, int bursts,
+            com.sun.management.ThreadMXBean threads, long threadId, IOException error) throws InterruptedException {
+        long[] nanos = new long[bursts];
+        long bytes = 0;
+        for (int b = 0; b < nanos.length; b++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int j = 0; j < burst; j++) {
+                log.log(PaymentEventLog.Event.RELEASE_FAILED, PAYMENT_ID, j, TRACE_ID, error);
+            }
+            nanos[b] = System.nanoTime() - start;
+            bytes += threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+            log.flush(1000);
+        }
+        Arrays.sort(nanos);
+        return new double[] { nanos[bursts / 2] / (double) burst, bytes / (double) ((long) burst * bursts) };
+    }
+
+    private static int measureTapToRelease(File directory, int payments) throws Exception {
+        try (StubTEurServer stub = new StubTEurServer();
+                PaymentEventLog log = PaymentEventLog.open(directory, PaymentEventLog.Format.NDJSON, 4096);
+                NfcReader reader = new NfcReader(null)) {
+            SumUpTEurIntegration sumUp = new SumUpTEurIntegration("stub-key", "stub-merchant",
+                    new PaymentTracer(), stub.sumUpBaseUrl(), stub.baseUrl());
+            sumUp.setCompletionWaitMillis(0);
+            sumUp.setNfcReader(reader);
+            SimulatedTagSource tags = new SimulatedTagSource(0);
+            tags.start(reader);
+
+            long[][] latencies = new long[2][payments];
+            int[] counts = new int[2];
+            // Warm-up, then alternate disabled/enabled so drift hits both equally
+            for (int i = -200; i < 2 * payments; i++) {
+                boolean enabled = (i & 1) == 1;
+                sumUp.setEventLog(enabled ? log : PaymentEventLog.disabled());
+                String paymentId = String.format("0x%064x", i + 1_000_000);
+                // The tap is read before the clock starts, so tag I/O is not timed
+                long readBefore = reader.getTagsRead();
+                tags.tap(new byte[] { 0x04, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i },
+                        new NfcPaymentData(paymentId, "0x01", null).toTextMessage());
+                while (reader.getTagsRead() == readBefore) {
+                    Thread.yield();
+                }
+
+                long start = System.nanoTime();
+                if (!sumUp.processTEurPayment(0.01, "bench", "rdr_stub")) {
+                    System.out.println("FAIL payment " + i);
+                    return 1;
+                }
+                long elapsed = System.nanoTime() - start;
+                if (i >= 0) {
+                    int mode = enabled ? 1 : 0;
+                    latencies[mode][counts[mode]++] = elapsed;
+                }
+            }
+            log.flush(5000);
+            sumUp.getClient().dispatcher().executorService().shutdown();
+
+            for (long[] values : latencies) {
+                Arrays.sort(values);
+            }
+            System.out.printf("Tap-to-release (n=%d each): log disabled p50 %.3f ms p99 %.3f ms, "
+                            + "enabled p50 %.3f ms p99 %.3f ms, %d events written%n",
+                    payments, latencies[0][payments / 2] / 1e6, latencies[0][payments * 99 / 100] / 1e6,
+                    latencies[1][payments / 2] / 1e6, latencies[1][payments * 99 / 100] / 1e6,
+                    log.getWritten());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,468 @@
+// Fee Engine for tEUR Sales
+// Local port of api/src/services/fee-engine.ts (POST /merchants/calculate-fee)
+//
+// Computes the same fees on the same minor-unit amounts, so a till can show
+// fees and net amounts per sale without a network call. The fee schedule is
+// fetched once from GET /parameters/fees and cached under its version; a
+// background refresh revalidates it with If-None-Match and only swaps the
+// schedule when the version changes. docs/fee-test-vectors.json holds the
+// vectors both implementations are checked against (FeeEngineVectorCheck).
+
+import com.teur.client.PaymentLedger;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+public class FeeEngine {
+
+    private static final long BASIS_POINTS = 10_000L;
+
+    public enum FeeType {
+        TRANSFER("transfer"),
+        MERCHANT_PAYMENT("merchant_payment"),
+        ATM_WITHDRAWAL("atm_withdrawal"),
+        CROSS_BORDER("cross_border"),
+        INSTANT_SETTLEMENT("instant_settlement");
+
+        public final String apiName;
+
+        FeeType(String apiName) {
+            this.apiName = apiName;
+        }
+
+        public static FeeType fromApiName(String apiName) {
+            for (FeeType type : values()) {
+                if (type.apiName.equals(apiName)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown fee type: " + apiName);
+        }
+    }
+
+    public enum MerchantType {
+        RETAIL("retail"),
+        HOSPITALITY("hospitality"),
+        ECOMMERCE("ecommerce"),
+        ATM("atm");
+
+        public final String apiName;
+
+        MerchantType(String apiName) {
+            this.apiName = apiName;
+        }
+
+        public static MerchantType fromApiName(String apiName) {
+            for (MerchantType type : values()) {
+                if (type.apiName.equals(apiName)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown merchant type: " + apiName);
+        }
+    }
+
+    public enum FeeBasis {
+        BASIS_POINTS("basis_points"),
+        FIXED_CENTS("fixed_cents"),
+        PERCENTAGE("percentage");
+
+        public final String apiName;
+
+        FeeBasis(String apiName) {
+            this.apiName = apiName;
+        }
+    }
+
+    /**
+     * Supplies the current schedule; returns null when the cached version is
+     * still current
+     */
+    public interface ScheduleSource {
+        Schedule fetch(String cachedVersion) throws IOException;
+    }
+
+    private final AtomicReference<Schedule> schedule = new AtomicReference<>();
+    private final ScheduleSource source;
+    private ScheduledExecutorService refresher;
+    private ScheduledFuture<?> refreshTask;
+
+    public FeeEngine(ScheduleSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Engine with a fixed schedule and no refresh (e.g. for tests)
+     */
+    public FeeEngine(Schedule schedule) {
+        this.source = cachedVersion -> null;
+        this.schedule.set(schedule);
+    }
+
+    /**
+     * Revalidates the schedule now and then every {@code periodMillis} on a daemon thread
+     */
+    public synchronized void start(long periodMillis) {
+        if (refresher != null) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "teur-fee-schedule");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshTask = refresher.scheduleWithFixedDelay(this::refreshQuietly, 0, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (refresher != null) {
+            refreshTask.cancel(false);
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * Fetches the schedule synchronously; keeps the cached one if unchanged or on failure
+     */
+    public void refresh() throws IOException {
+        Schedule cached = schedule.get();
+        Schedule fetched = source.fetch(cached == null ? null : cached.version);
+        if (fetched != null) {
+            schedule.set(fetched);
+        }
+    }
+
+    /**
+     * The cached schedule, fetched on first use
+     */
+    public Schedule getSchedule() throws IOException {
+        Schedule current = schedule.get();
+        if (current == null) {
+            synchronized (this) {
+                current = schedule.get();
+                if (current == null) {
+                    refresh();
+                    current = schedule.get();
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Fees for one transaction under the cached schedule
+     */
+    public FeeResult calculateFee(FeeCalculation calculation) throws IOException {
+        return calculateFee(getSchedule(), calculation);
+    }
+
+    /**
+     * Fees for each transaction, in order. All results use the same schedule
+     * version even if a refresh lands mid-batch.
+     */
+    public List<FeeResult> calculateAll(List<FeeCalculation> calculations) throws IOException {
+        Schedule snapshot = getSchedule();
+        return calculations.parallelStream()
+                .map(calculation -> calculateFee(snapshot, calculation))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gross, fee and net totals over a batch (e.g. a day's sales); transactions
+     * the API would reject are counted instead of failing the batch
+     */
+    public Totals totals(List<FeeCalculation> calculations) throws IOException {
+        Schedule snapshot = getSchedule();
+        Totals totals = calculations.parallelStream().collect(
+                Totals::new,
+                (accumulator, calculation) -> accumulator.add(snapshot, calculation),
+                Totals::merge);
+        totals.scheduleVersion = snapshot.version;
+        return totals;
+    }
+
+    /**
+     * Totals over the released payments of the ledger day containing
+     * {@code dayMillis}, i.e. the sales in the ledger's own daily totals
+     */
+    public Totals totalsForDay(PaymentLedger ledger, long dayMillis, MerchantType merchantType)
+            throws IOException {
+        List<FeeCalculation> sales = new ArrayList<>();
+        for (PaymentLedger.Entry entry : ledger.salesForDay(dayMillis)) {
+            if (entry.status == PaymentLedger.Status.RELEASED) {
+                sales.add(FeeCalculation.merchantPayment(entry.amountMinor, merchantType));
+            }
+        }
+        return totals(sales);
+    }
+
+    /**
+     * Whether the amount is still positive after fees ({@code validateMinimumAmount})
+     */
+    public boolean validateMinimumAmount(long amountMinor, FeeType type, MerchantType merchantType)
+            throws IOException {
+        try {
+            return calculateFee(new FeeCalculation(type, amountMinor, merchantType, false, false)).netAmount > 0;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Same arithmetic as FeeCalculationEngine.calculateFee: BigInt division
+     * truncates toward zero, as Java's long division does
+     */
+    public static FeeResult calculateFee(Schedule schedule, FeeCalculation calculation) {
+        switch (calculation.type) {
+            case TRANSFER:
+                return transferFee(schedule, calculation);
+            case MERCHANT_PAYMENT:
+                return merchantPaymentFee(schedule, calculation);
+            case ATM_WITHDRAWAL:
+                return atmFee(schedule, calculation);
+            case CROSS_BORDER:
+                return crossBorderFee(schedule, calculation);
+            default:
+                throw new IllegalArgumentException("Unsupported fee type: " + calculation.type.apiName);
+        }
+    }
+
+    private static FeeResult transferFee(Schedule schedule, FeeCalculation calculation) {
+        long interchangeFee = bps(calculation.amountMinor, schedule.transferBps);
+        long schemeFee = interchangeFee / 2; // Scheme takes 50% of interchange
+        long totalFee = interchangeFee + schemeFee;
+        return new FeeResult(calculation.amountMinor, totalFee, interchangeFee, schemeFee, 0, null, null,
+                FeeBasis.BASIS_POINTS, schedule.version);
+    }
+
+    private static FeeResult merchantPaymentFee(Schedule schedule, FeeCalculation calculation) {
+        if (calculation.merchantType == null) {
+            throw new IllegalArgumentException("Merchant type required for merchant payment fee calculation");
+        }
+        long interchangeBps;
+        switch (calculation.merchantType) {
+            case HOSPITALITY:
+                interchangeBps = schedule.merchantHospitalityBps;
+                break;
+            case ECOMMERCE:
+                interchangeBps = schedule.merchantEcommerceBps;
+                break;
+            default:
+                interchangeBps = schedule.merchantRetailBps;
+        }
+
+        long interchangeFee = bps(calculation.amountMinor, interchangeBps);
+        long schemeFee = interchangeFee / 2; // Scheme takes 50%
+        long merchantFee = interchangeFee / 4; // Merchant pays 25% of interchange
+        Long instantSettlementFee = calculation.instantSettlement ? schedule.instantSettlementFixedCents : null;
+        Long crossBorderFee = calculation.crossBorder ? bps(calculation.amountMinor, schedule.crossBorderBps) : null;
+
+        long totalFee = interchangeFee + schemeFee + merchantFee
+                + (instantSettlementFee == null ? 0 : instantSettlementFee)
+                + (crossBorderFee == null ? 0 : crossBorderFee);
+        return new FeeResult(calculation.amountMinor, totalFee, interchangeFee, schemeFee, merchantFee,
+                instantSettlementFee, crossBorderFee, FeeBasis.BASIS_POINTS, schedule.version);
+    }
+
+    private static FeeResult atmFee(Schedule schedule, FeeCalculation calculation) {
+        long fixedFee = schedule.atmFixedCents;
+        long percentageFee = bps(calculation.amountMinor, schedule.atmBps);
+        return new FeeResult(calculation.amountMinor, fixedFee + percentageFee, percentageFee, fixedFee / 2,
+                fixedFee / 2, null, null, FeeBasis.FIXED_CENTS, schedule.version);
+    }
+
+    private static FeeResult crossBorderFee(Schedule schedule, FeeCalculation calculation) {
+        long percentageFee = bps(calculation.amountMinor, schedule.crossBorderBps);
+        long fixedFee = schedule.instantSettlementFixedCents; // The API reuses the instant settlement fee here
+        return new FeeResult(calculation.amountMinor, percentageFee + fixedFee, percentageFee, fixedFee / 2,
+                fixedFee / 2, null, null, FeeBasis.PERCENTAGE, schedule.version);
+    }
+
+    private static long bps(long amountMinor, long basisPoints) {
+        // The API uses BigInt; fail loudly rather than wrap on absurd amounts
+        return Math.multiplyExact(amountMinor, basisPoints) / BASIS_POINTS;
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (IOException | RuntimeException e) {
+            // Keep the cached schedule until the API answers again
+        }
+    }
+
+    /**
+     * Reads the schedule from GET /parameters/fees, revalidating with the
+     * cached version as ETag
+     */
+    public static ScheduleSource httpSource(OkHttpClient client, String url, String apiKey) {
+        return cachedVersion -> {
+            Request.Builder request = new Request.Builder()
+                    .url(url)
+                    .get()
+                    .addHeader("X-API-Key", apiKey);
+            if (cachedVersion != null) {
+                request.addHeader("If-None-Match", "\"" + cachedVersion + "\"");
+            }
+            try (Response response = client.newCall(request.build()).execute()) {
+                if (response.code() == 304) {
+                    return null;
+                }
+                if (!response.isSuccessful()) {
+                    throw new IOException("Failed to fetch fee schedule: " + response.code());
+                }
+                JSONObject json = new JSONObject(response.body().string());
+                return Schedule.fromParameters(json.optJSONObject("data") != null ? json.getJSONObject("data") : json);
+            }
+        };
+    }
+
+    /**
+     * Immutable fee schedule; fee_* rulebook parameters plus a version
+     */
+    public static final class Schedule {
+        public final String version;
+        public final long transferBps;
+        public final long merchantRetailBps;
+        public final long merchantHospitalityBps;
+        public final long merchantEcommerceBps;
+        public final long instantSettlementFixedCents;
+        public final long crossBorderBps;
+        public final long atmFixedCents;
+        public final long atmBps;
+
+        public Schedule(String version, long transferBps, long merchantRetailBps, long merchantHospitalityBps,
+                long merchantEcommerceBps, long instantSettlementFixedCents, long crossBorderBps,
+                long atmFixedCents, long atmBps) {
+            this.version = version;
+            this.transferBps = transferBps;
+            this.merchantRetailBps = merchantRetailBps;
+            this.merchantHospitalityBps = merchantHospitalityBps;
+            this.merchantEcommerceBps = merchantEcommerceBps;
+            this.instantSettlementFixedCents = instantSettlementFixedCents;
+            this.crossBorderBps = crossBorderBps;
+            this.atmFixedCents = atmFixedCents;
+            this.atmBps = atmBps;
+        }
+
+        public static Schedule fromParameters(JSONObject params) {
+            return new Schedule(
+                    params.optString("version", "unversioned"),
+                    params.getLong("fee_transfer_basis_points"),
+                    params.getLong("fee_merchant_retail_bps"),
+                    params.getLong("fee_merchant_hospitality_bps"),
+                    params.getLong("fee_merchant_ecommerce_bps"),
+                    params.getLong("fee_instant_settlement_fixed_cents"),
+                    params.getLong("fee_cross_border_bps"),
+                    params.getLong("fee_atm_fixed_cents"),
+                    params.getLong("fee_atm_bps"));
+        }
+    }
+
+    /**
+     * One transaction to price, amounts in minor units
+     */
+    public static final class FeeCalculation {
+        public final FeeType type;
+        public final long amountMinor;
+        public final MerchantType merchantType; // required for MERCHANT_PAYMENT
+        public final boolean instantSettlement;
+        public final boolean crossBorder;
+
+        public FeeCalculation(FeeType type, long amountMinor, MerchantType merchantType,
+                boolean instantSettlement, boolean crossBorder) {
+            this.type = type;
+            this.amountMinor = amountMinor;
+            this.merchantType = merchantType;
+            this.instantSettlement = instantSettlement;
+            this.crossBorder = crossBorder;
+        }
+
+        public static FeeCalculation merchantPayment(long amountMinor, MerchantType merchantType) {
+            return new FeeCalculation(FeeType.MERCHANT_PAYMENT, amountMinor, merchantType, false, false);
+        }
+    }
+
+    /**
+     * Fee breakdown as returned by the API; the optional fees are null when not applied
+     */
+    public static final class FeeResult {
+        public final long amountMinor;
+        public final long totalFee;
+        public final long interchangeFee;
+        public final long schemeFee;
+        public final long merchantFee;
+        public final Long instantSettlementFee;
+        public final Long crossBorderFee;
+        public final long netAmount;
+        public final FeeBasis feeBasis;
+        public final String scheduleVersion;
+
+        FeeResult(long amountMinor, long totalFee, long interchangeFee, long schemeFee, long merchantFee,
+                Long instantSettlementFee, Long crossBorderFee, FeeBasis feeBasis, String scheduleVersion) {
+            this.amountMinor = amountMinor;
+            this.totalFee = totalFee;
+            this.interchangeFee = interchangeFee;
+            this.schemeFee = schemeFee;
+            this.merchantFee = merchantFee;
+            this.instantSettlementFee = instantSettlementFee;
+            this.crossBorderFee = crossBorderFee;
+            this.netAmount = amountMinor - totalFee;
+            this.feeBasis = feeBasis;
+            this.scheduleVersion = scheduleVersion;
+        }
+
+        /**
+         * Fee as a percentage of the amount, computed like the API's feePercentage
+         */
+        public double feePercentage() {
+            return (double) totalFee / (double) amountMinor * 100;
+        }
+    }
+
+    /**
+     * Batch totals in minor units
+     */
+    public static final class Totals {
+        public long count;
+        public long rejected;
+        public long grossMinor;
+        public long feeMinor;
+        public long netMinor;
+        public String scheduleVersion;
+
+        void add(Schedule schedule, FeeCalculation calculation) {
+            FeeResult result;
+            try {
+                result = calculateFee(schedule, calculation);
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                rejected++;
+                return;
+            }
+            count++;
+            grossMinor += calculation.amountMinor;
+            feeMinor += result.totalFee;
+            netMinor += result.netAmount;
+        }
+
+        void merge(Totals other) {
+            count += other.count;
+            rejected += other.rejected;
+            grossMinor += other.grossMinor;
+            feeMinor += other.feeMinor;
+            netMinor += other.netMinor;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+// Fee Engine Vector Check
+// Verifies FeeEngine against the test vectors shared with the API
+//
+// docs/fee-test-vectors.json is also checked against the TypeScript engine by
+// api/test/fee-engine.test.ts, so passing both means the till and the API
+// agree on every vector. Afterwards, prices a synthetic day of sales
+// sequentially and with FeeEngine.totals (parallel stream) and compares them.
+// Exits with status 1 on any mismatch.
+//
+// Usage: java FeeEngineVectorCheck [path/to/fee-test-vectors.json] [sales]
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FeeEngineVectorCheck {
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : "../docs/fee-test-vectors.json";
+        int sales = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        JSONObject file = new JSONObject(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+        JSONObject scheduleJson = file.getJSONObject("schedule");
+        scheduleJson.put("version", "test-vectors");
+        FeeEngine.Schedule schedule = FeeEngine.Schedule.fromParameters(scheduleJson);
+
+        JSONArray vectors = file.getJSONArray("vectors");
+        int failures = 0;
+        for (int i = 0; i < vectors.length(); i++) {
+            JSONObject vector = vectors.getJSONObject(i);
+            String problem = check(schedule, vector);
+            if (problem != null) {
+                failures++;
+                System.out.println("FAIL " + vector.getString("name") + ": " + problem);
+            }
+        }
+        System.out.println("Vectors: " + (vectors.length() - failures) + "/" + vectors.length() + " match");
+
+        failures += checkBulk(schedule, sales);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String check(FeeEngine.Schedule schedule, JSONObject vector) {
+        JSONObject input = vector.getJSONObject("input");
+        FeeEngine.FeeCalculation calculation = new FeeEngine.FeeCalculation(
+                FeeEngine.FeeType.fromApiName(input.getString("type")),
+                input.getLong("amount"),
+                input.has("merchantType") ? FeeEngine.MerchantType.fromApiName(input.getString("merchantType")) : null,
+                input.optBoolean("isInstantSettlement"),
+                input.optBoolean("isCrossBorder"));
+
+        FeeEngine.FeeResult result;
+        try {
+            result = FeeEngine.calculateFee(schedule, calculation);
+        } catch (IllegalArgumentException e) {
+            return vector.optBoolean("error") ? null : "unexpected error: " + e.getMessage();
+        }
+        if (vector.optBoolean("error")) {
+            return "expected an error, got totalFee " + result.totalFee;
+        }
+
+        JSONObject expected = vector.getJSONObject("expected");
+        JSONObject breakdown = expected.getJSONObject("breakdown");
+        StringBuilder problems = new StringBuilder();
+        compare(problems, "totalFee", expected.getLong("totalFee"), result.totalFee);
+        compare(problems, "netAmount", expected.getLong("netAmount"), result.netAmount);
+        compare(problems, "interchangeFee", breakdown.getLong("interchangeFee"), result.interchangeFee);
+        compare(problems, "schemeFee", breakdown.getLong("schemeFee"), result.schemeFee);
+        compare(problems, "merchantFee", breakdown.getLong("merchantFee"), result.merchantFee);
+        compare(problems, "instantSettlementFee",
+                breakdown.has("instantSettlementFee") ? breakdown.getLong("instantSettlementFee") : null,
+                result.instantSettlementFee);
+        compare(problems, "crossBorderFee",
+                breakdown.has("crossBorderFee") ? breakdown.getLong("crossBorderFee") : null,
+                result.crossBorderFee);
+        if (!expected.getString("feeBasis").equals(result.feeBasis.apiName)) {
+            problems.append(" feeBasis ").append(expected.getString("feeBasis"))
+                    .append(" != ").append(result.feeBasis.apiName);
+        }
+        return problems.length() == 0 ? null : problems.toString().trim();
+    }
+
+    private static void compare(StringBuilder problems, String field, Long expected, Long actual) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            problems.append(' ').append(field).append(' ').append(expected).append(" != ").append(actual);
+        }
+    }
+
+    private static int checkBulk(FeeEngine.Schedule schedule, int sales) throws Exception {
+        Random random = new Random(42);
+        FeeEngine.MerchantType[] merchantTypes = FeeEngine.MerchantType.values();
+        List<FeeEngine.FeeCalculation> day = new ArrayList<>(sales);
+        for (int i = 0; i < sales; i++) {
+            day.add(new FeeEngine.FeeCalculation(FeeEngine.FeeType.MERCHANT_PAYMENT,
+                    1 + random.nextInt(50_000),
+                    merchantTypes[random.nextInt(merchantTypes.length)],
+                    random.nextInt(10) == 0,
+                    random.nextInt(20) == 0));
+        }
+        FeeEngine engine = new FeeEngine(schedule);
+
+        long sequentialFees = 0;
+        long sequentialNanos = Long.MAX_VALUE;
+        long parallelNanos = Long.MAX_VALUE;
+        FeeEngine.Totals totals = null;
+        // A few rounds so both paths are measured JIT-compiled
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long fees = 0;
+            for (FeeEngine.FeeCalculation calculation : day) {
+                fees += FeeEngine.calculateFee(schedule, calculation).totalFee;
+            }
+            sequentialNanos = Math.min(sequentialNanos, System.nanoTime() - start);
+            sequentialFees = fees;
+
+            start = System.nanoTime();
+            totals = engine.totals(day);
+            parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+        }
+
+        System.out.printf("Bulk: %d sales, fees %d (sequential %.1f ms, parallel %.1f ms on %d cores)%n",
+                sales, totals.feeMinor, sequentialNanos / 1e6, parallelNanos / 1e6,
+                Runtime.getRuntime().availableProcessors());
+        if (totals.feeMinor != sequentialFees || totals.count != sales
+                || totals.grossMinor - totals.feeMinor != totals.netMinor) {
+            System.out.println("FAIL bulk totals differ from sequential (" + sequentialFees + ")");
+            return 1;
+        }
+        return 0;
+    }
+}
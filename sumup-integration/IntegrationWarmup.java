@@ -0,0 +1,229 @@
+// Integration Warm-up for Server-side JVM Workers
+// Takes the connection setup and most of the interpreter time off a freshly
+// started worker's first payments
+//
+// JVM only (the JIT priming step runs against StubTEurServer). Three phases,
+// each best effort - a failure is reported but never stops the worker:
+// 1. resolve the SumUp and tEUR API hosts so the first payment skips DNS
+// 2. open pooled (TLS) connections to both APIs through the integration's own
+//    client, so the first payment skips the TCP and TLS handshakes
+// 3. run the checkout / release / status request paths a fixed number of
+//    times (setPrimeIterations) against an in-process stub, so they are
+//    interpreted no longer and usually C1-compiled; this does not wait for
+//    the JIT, and the hottest methods may still reach C2 later
+//
+// The stub speaks plain HTTP/1.1, so phase 3 warms request building, JSON
+// handling and OkHttp's call path but not TLS record encryption, HTTP/2
+// framing or certificate checks. Those run only for the few handshakes of
+// phase 2 and stay mostly interpreted until real traffic compiles them, so
+// the first real payments are still slower than steady state.
+//
+// Note: OkHttp's default pool keeps 5 idle connections for 5 minutes, and the
+// JVM caches DNS answers for 30 s unless networkaddress.cache.ttl says otherwise.
+// The stub answers in two TCP writes and the worker's JVM keeps its default
+// Nagle setting for com.sun.net.httpserver, so each stub round trip can take
+// ~40 ms; priming runs on several threads to overlap that wait.
+
+import com.teur.client.PaymentTracer;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IntegrationWarmup {
+
+    private static final int PRIME_THREADS = 8;
+
+    private final SumUpTEurIntegration sumUp;
+    private int connectionsPerHost = 2;
+    private int primeIterations = 100;
+    private long timeoutMillis = 10_000;
+
+    public IntegrationWarmup(SumUpTEurIntegration sumUp) {
+        this.sumUp = sumUp;
+    }
+
+    /**
+     * Connections opened to each API host (HTTP/2 hosts share one regardless)
+     */
+    public IntegrationWarmup setConnectionsPerHost(int connectionsPerHost) {
+        this.connectionsPerHost = connectionsPerHost;
+        return this;
+    }
+
+    /**
+     * Round trips through the checkout, release and status paths; 0 skips priming
+     */
+    public IntegrationWarmup setPrimeIterations(int primeIterations) {
+        this.primeIterations = primeIterations;
+        return this;
+    }
+
+    /**
+     * Upper bound for the connection phase
+     */
+    public IntegrationWarmup setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Runs all phases; call once before the worker reports itself ready
+     */
+    public Report run() {
+        Report report = new Report();
+        List<HttpUrl> targets = new ArrayList<>();
+        targets.add(HttpUrl.get(sumUp.getSumUpBaseUrl() + "/merchants/" + sumUp.getMerchantCode() + "/readers"));
+        targets.add(HttpUrl.get(sumUp.getTeurBaseUrl() + "/health/live"));
+
+        long start = System.nanoTime();
+        resolveHosts(targets, report);
+        report.dnsMillis = elapsedMillis(start);
+
+        start = System.nanoTime();
+        openConnections(targets, report);
+        report.connectMillis = elapsedMillis(start);
+        report.pooledConnections = sumUp.getClient().connectionPool().idleConnectionCount();
+
+        start = System.nanoTime();
+        prime(report);
+        report.primeMillis = elapsedMillis(start);
+        return report;
+    }
+
+    private void resolveHosts(List<HttpUrl> targets, Report report) {
+        Set<String> hosts = new LinkedHashSet<>();
+        for (HttpUrl target : targets) {
+            hosts.add(target.host());
+        }
+        for (String host : hosts) {
+            try {
+                // Same lookup OkHttp's default Dns makes; fills the JVM's address cache
+                InetAddress.getAllByName(host);
+            } catch (IOException e) {
+                report.failures.add("dns " + host + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void openConnections(List<HttpUrl> targets, Report report) {
+        OkHttpClient client = sumUp.getClient();
+        CountDownLatch done = new CountDownLatch(targets.size() * connectionsPerHost);
+        for (HttpUrl target : targets) {
+            for (int i = 0; i < connectionsPerHost; i++) {
+                // Concurrent calls force separate HTTP/1.1 connections into the pool
+                Request.Builder request = new Request.Builder().url(target).get();
+                if (target.equals(targets.get(0))) {
+                    // Only the SumUp call carries the SumUp key; tEUR health needs none
+                    request.addHeader("Authorization", "Bearer " + sumUp.getApiKey());
+                }
+                client.newCall(request.build()).enqueue(new Callback() {
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        // Any status will do: the connection is what we are after
+                        response.close();
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        synchronized (report) {
+                            report.failures.add("connect " + target.host() + ": " + e.getMessage());
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        try {
+            if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                synchronized (report) {
+                    report.failures.add("connect: timed out after " + timeoutMillis + " ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void prime(Report report) {
+        if (primeIterations <= 0) {
+            return;
+        }
+        try (StubTEurServer stub = new StubTEurServer()) {
+            // A separate integration, so priming never touches the real APIs,
+            // tracer buffer or seen-payment cache; compiled code is shared anyway
+            SumUpTEurIntegration priming = new SumUpTEurIntegration("warmup", "warmup",
+                    new PaymentTracer(256, 1.0), stub.sumUpBaseUrl(), stub.baseUrl());
+            AtomicInteger next = new AtomicInteger();
+            ExecutorService threads = Executors.newFixedThreadPool(PRIME_THREADS, r -> {
+                Thread thread = new Thread(r, "teur-warmup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> runs = new ArrayList<>();
+                for (int t = 0; t < PRIME_THREADS; t++) {
+                    runs.add(threads.submit(() -> {
+                        for (int i = next.getAndIncrement(); i < primeIterations; i = next.getAndIncrement()) {
+                            priming.processWithReader("rdr_warmup", 1.00, "Warm-up");
+                            priming.releaseTEurTokens("warmup-" + i, "warmup-secret");
+                            priming.getReaderStatus("rdr_warmup");
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> run : runs) {
+                    run.get();
+                }
+            } finally {
+                threads.shutdownNow();
+                priming.getClient().dispatcher().executorService().shutdown();
+                priming.getClient().connectionPool().evictAll();
+            }
+        } catch (ExecutionException e) {
+            report.failures.add("prime: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            report.failures.add("prime: " + e.getMessage());
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Time spent per phase and anything that failed
+     */
+    public static final class Report {
+        public long dnsMillis;
+        public long connectMillis;
+        public long primeMillis;
+        public int pooledConnections;
+        public final List<String> failures = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            return "dns " + dnsMillis + " ms, connect " + connectMillis + " ms (" + pooledConnections
+                    + " pooled), prime " + primeMillis + " ms"
+                    + (failures.isEmpty() ? "" : ", failures: " + failures);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+// NFC Payload Benchmark
+// Compares the binary payment record with the text and JSON records
+//
+// For one realistic tap (bytes32 payment ID and secret, payer wallet, amount)
+// reports the NDEF message size, the modelled time to move it over the
+// 106 kbit/s NFC-A link, and the decode time of NfcPaymentData.parse. Also
+// times BinaryPaymentRecord.View on its own (validate and read the amount,
+// no Strings), and checks that damaged or newer binary records fall back to
+// the text record after them. Exits with status 1 on any check failure.
+//
+// Usage: java NfcPayloadBenchmark [iterations]
+
+import com.teur.client.BinaryPaymentRecord;
+import com.teur.client.NfcPaymentData;
+import java.util.Arrays;
+
+public class NfcPayloadBenchmark {
+
+    private static int sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        NfcPaymentData data = new NfcPaymentData(
+                "0x9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08",
+                "0x2c26b46b68ffc68ff99b453c1d30413413422d706483bfa0f98a5e886266e7ae",
+                "0x52908400098527886E0F7030069857D2E4169EE7",
+                1575L);
+        byte[] text = data.toTextMessage();
+        byte[] json = data.toJsonMessage();
+        byte[] binary = data.toBinaryMessage(false);
+        byte[] binaryWithFallback = data.toBinaryMessage(true);
+
+        int failures = checkRoundTrip(data, binary, binaryWithFallback);
+
+        System.out.println("Format             bytes  link time  parse");
+        report("text", text, iterations);
+        report("json", json, iterations);
+        report("binary", binary, iterations);
+        report("binary + text", binaryWithFallback, iterations);
+
+        // Offset of the binary payload inside the message: header, type length,
+        // payload length, then the 8-byte type
+        int payloadOffset = 3 + BinaryPaymentRecord.EXTERNAL_TYPE.length();
+        int payloadLength = binary.length - payloadOffset;
+        BinaryPaymentRecord.View view = new BinaryPaymentRecord.View();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                if (view.wrap(binary, payloadOffset, payloadLength)) {
+                    sink += (int) view.amountMinor();
+                }
+            }
+            if (round == 2) {
+                System.out.printf("binary view only  %5s  %9s  %6.0f ns%n", "", "",
+                        (System.nanoTime() - start) / (double) iterations);
+            }
+        }
+
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void report(String name, byte[] message, int iterations) {
+        long nanos = Long.MAX_VALUE;
+        // Best of three rounds so the parse is measured JIT-compiled
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += NfcPaymentData.parse(message).secret.length();
+            }
+            nanos = Math.min(nanos, System.nanoTime() - start);
+        }
+        double linkMillis = message.length * 8.0 * 1000 / SimulatedTagSource.BASE_RATE_BITS_PER_SECOND;
+        System.out.printf("%-17s  %5d  %6.2f ms  %6.0f ns%n", name, message.length, linkMillis,
+                nanos / (double) iterations);
+    }
+
+    private static int checkRoundTrip(NfcPaymentData data, byte[] binary, byte[] binaryWithFallback) {
+        int failures = 0;
+        NfcPaymentData decoded = NfcPaymentData.parse(binary);
+        if (decoded == null || !data.paymentId.equals(decoded.paymentId) || !data.secret.equals(decoded.secret)
+                || !data.payer.equals(decoded.payer) || !data.amountMinor.equals(decoded.amountMinor)) {
+            System.out.println("FAIL binary round trip");
+            failures++;
+        }
+
+        // Flip a secret byte: the checksum rejects the binary record and the text record is used
+        byte[] damaged = Arrays.copyOf(binaryWithFallback, binaryWithFallback.length);
+        damaged[3 + BinaryPaymentRecord.EXTERNAL_TYPE.length() + 40] ^= 0x01;
+        NfcPaymentData fallback = NfcPaymentData.parse(damaged);
+        if (fallback == null || fallback.amountMinor != null || !data.secret.equals(fallback.secret)) {
+            System.out.println("FAIL damaged binary record did not fall back to text");
+            failures++;
+        }
+
+        // A version this reader doesn't know is skipped the same way
+        byte[] newer = Arrays.copyOf(binaryWithFallback, binaryWithFallback.length);
+        newer[3 + BinaryPaymentRecord.EXTERNAL_TYPE.length()] = BinaryPaymentRecord.VERSION + 1;
+        fallback = NfcPaymentData.parse(newer);
+        if (fallback == null || fallback.amountMinor != null) {
+            System.out.println("FAIL unknown binary version did not fall back to text");
+            failures++;
+        }
+        return failures;
+    }
+}
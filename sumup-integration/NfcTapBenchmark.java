@@ -0,0 +1,86 @@
+// NFC Tap Benchmark
+// Measures the NfcReader pipeline against SimulatedTagSource on a plain JVM
+//
+// Reports, for the text and JSON payment records:
+// - handoff: how long the discovering thread (the binder/UI thread on Android)
+//   is held before it can return
+// - tap-to-data: tag discovery until the payment path has the parsed data
+// and then how quickly the reader recovers from a hung tag, and how a phone
+// held still (rediscovered repeatedly) is debounced.
+//
+// Usage: java NfcTapBenchmark [taps]
+
+import com.teur.client.NfcPaymentData;
+import com.teur.client.NfcReader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class NfcTapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int taps = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        SimulatedTagSource source = new SimulatedTagSource();
+        NfcPaymentData data = new NfcPaymentData("pay_4f1c2d9e8a7b6c5d", "s3cr3t-0123456789abcdef",
+                "0x52908400098527886E0F7030069857D2E4169EE7");
+
+        try (NfcReader reader = new NfcReader(source).setReadTimeoutMillis(500)) {
+            reader.start();
+
+            run(reader, source, "text", data.toTextMessage(), taps);
+            run(reader, source, "json", data.toJsonMessage(), taps);
+
+            // Phone pulled away mid-read, then tapped again
+            long start = System.nanoTime();
+            source.tapHung(tagId(-1));
+            source.tap(tagId(-2), data.toTextMessage());
+            NfcReader.Tap tap = reader.poll(5, TimeUnit.SECONDS);
+            System.out.printf("Hung tag: next tap read after %.0f ms (timeout 500 ms), timeouts %d%n",
+                    (System.nanoTime() - start) / 1e6, reader.getReadTimeouts());
+            if (tap == null) {
+                System.out.println("FAIL no tap after a hung tag");
+                System.exit(1);
+            }
+
+            // Phone held still: Android rediscovers it after each presence check
+            long readBefore = reader.getTagsRead();
+            for (int i = 0; i < 10; i++) {
+                source.tap(tagId(-3), data.toTextMessage());
+                Thread.sleep(25);
+            }
+            reader.poll(1, TimeUnit.SECONDS);
+            Thread.sleep(100);
+            System.out.printf("Held tag: 10 discoveries, %d read, %d ignored%n",
+                    reader.getTagsRead() - readBefore, reader.getTagsIgnored());
+        }
+    }
+
+    private static void run(NfcReader reader, SimulatedTagSource source, String name, byte[] message, int taps)
+            throws InterruptedException {
+        long[] handoff = new long[taps];
+        long[] tapToData = new long[taps];
+        for (int i = 0; i < taps; i++) {
+            long start = System.nanoTime();
+            source.tap(tagId(i), message);
+            handoff[i] = System.nanoTime() - start;
+
+            NfcReader.Tap tap = reader.poll(5, TimeUnit.SECONDS);
+            if (tap == null) {
+                System.out.println("FAIL tap " + i + " not read");
+                System.exit(1);
+            }
+            tapToData[i] = System.nanoTime() - tap.discoveredAtNanos;
+        }
+        Arrays.sort(handoff);
+        Arrays.sort(tapToData);
+        System.out.printf("%-4s (%d B, modelled read %.1f ms): handoff p50 %.1f us p99 %.1f us, "
+                        + "tap-to-data p50 %.1f ms p99 %.1f ms%n",
+                name, message.length, source.readMicros(message.length) / 1e3,
+                handoff[taps / 2] / 1e3, handoff[taps * 99 / 100] / 1e3,
+                tapToData[taps / 2] / 1e6, tapToData[taps * 99 / 100] / 1e6);
+    }
+
+    private static byte[] tagId(int i) {
+        return new byte[] { 0x04, (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i, 0x5a, 0x01 };
+    }
+}
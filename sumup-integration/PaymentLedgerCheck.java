@@ -0,0 +1,254 @@
+// Payment Ledger Check
+// Exercises PaymentLedger recovery, indexes and daily totals on a temp file
+//
+// Covers index rebuild on reopen, a damaged record in the middle of the file,
+// a torn final record, per-day totals across a midnight in the ledger's time
+// zone and rejection of non-ASCII IDs. Some cases rewrite record timestamps in
+// place, so this check knows the record layout: 160-byte records, createdAt
+// at offset 0, updatedAt at 8, CRC-32 of the first 156 bytes at the end.
+// Exits with status 1 on any failure.
+//
+// Usage: java PaymentLedgerCheck
+
+import com.teur.client.PaymentLedger;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class PaymentLedgerCheck {
+
+    private static final int RECORD_SIZE = 160;
+    private static final int OFFSET_CRC = RECORD_SIZE - 4;
+    private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        File directory = Files.createTempDirectory("teur-ledger").toFile();
+        try {
+            checkReopen(new File(directory, "reopen.bin"));
+            checkCorruptRecord(new File(directory, "corrupt.bin"));
+            checkTornRecord(new File(directory, "torn.bin"));
+            checkDailyTotals(new File(directory, "days.bin"));
+            checkNonAsciiIds(new File(directory, "ascii.bin"));
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            Files.deleteIfExists(directory.toPath());
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkReopen(File file) throws IOException {
+        long now = System.currentTimeMillis();
+        PaymentLedger.DailyTotals before;
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            // Enough payments to grow the index past its initial table
+            for (int i = 0; i < 2_000; i++) {
+                ledger.record("pay-" + i, 100 + i, PaymentLedger.Status.PENDING, null);
+            }
+            for (int i = 0; i < 2_000; i += 2) {
+                ledger.updateStatus("pay-" + i, PaymentLedger.Status.RELEASED);
+            }
+            ledger.record("pay-7", 0, PaymentLedger.Status.FAILED, "txn-7");
+            before = ledger.totalsForDay(now);
+        }
+
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            expect("reopen: every payment indexed", ledger.size() == 2_000);
+            PaymentLedger.Entry released = ledger.find("pay-10");
+            expect("reopen: latest status wins",
+                    released != null && released.status == PaymentLedger.Status.RELEASED
+                            && released.amountMinor == 110);
+            PaymentLedger.Entry failed = ledger.find("pay-7");
+            expect("reopen: amount kept and transaction ID added on status change",
+                    failed != null && failed.amountMinor == 107 && "txn-7".equals(failed.sumupTransactionId));
+            expect("reopen: unknown ID is not found", ledger.find("pay-2000") == null);
+            expect("reopen: status index rebuilt",
+                    ledger.byStatus(PaymentLedger.Status.PENDING, Integer.MAX_VALUE).size() == 999
+                            && ledger.byStatus(PaymentLedger.Status.RELEASED, Integer.MAX_VALUE).size() == 1_000);
+            expect("reopen: daily totals rebuilt", sameTotals(before, ledger.totalsForDay(now)));
+            expect("reopen: no records reported damaged", ledger.corruptRecords() == 0);
+        }
+    }
+
+    private static void checkCorruptRecord(File file) throws IOException {
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            ledger.record("a", 100, PaymentLedger.Status.PENDING, null);
+            ledger.record("b", 200, PaymentLedger.Status.PENDING, null);
+            ledger.updateStatus("a", PaymentLedger.Status.RELEASED);
+            ledger.record("c", 300, PaymentLedger.Status.PENDING, null);
+        }
+        long length = file.length();
+        // Damage the third record, the RELEASED update of "a"
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(2L * RECORD_SIZE + 20);
+            raf.write(raf.read() ^ 0xff);
+        }
+
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            expect("corrupt: damaged record counted", ledger.corruptRecords() == 1);
+            expect("corrupt: file not truncated", file.length() == length);
+            PaymentLedger.Entry a = ledger.find("a");
+            expect("corrupt: payment falls back to its previous record",
+                    a != null && a.status == PaymentLedger.Status.PENDING);
+            PaymentLedger.Entry c = ledger.find("c");
+            expect("corrupt: records after the damage are kept", c != null && c.amountMinor == 300);
+            expect("corrupt: damaged record left out of the totals",
+                    ledger.totalsForDay(System.currentTimeMillis()).count(PaymentLedger.Status.PENDING) == 3);
+            ledger.updateStatus("a", PaymentLedger.Status.RELEASED);
+        }
+
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            PaymentLedger.Entry a = ledger.find("a");
+            expect("corrupt: appends after the damage survive a reopen",
+                    a != null && a.status == PaymentLedger.Status.RELEASED && ledger.size() == 3);
+        }
+    }
+
+    private static void checkTornRecord(File file) throws IOException {
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            ledger.record("a", 100, PaymentLedger.Status.PENDING, null);
+            ledger.record("b", 200, PaymentLedger.Status.PENDING, null);
+        }
+        // A crash part-way through the next append
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(2L * RECORD_SIZE + 57);
+        }
+
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            expect("torn: partial record truncated", file.length() == 2L * RECORD_SIZE);
+            expect("torn: not counted as damage", ledger.corruptRecords() == 0);
+            ledger.record("c", 300, PaymentLedger.Status.PENDING, null);
+        }
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            expect("torn: next append lands on a record boundary", ledger.size() == 3 && ledger.find("c") != null);
+        }
+    }
+
+    private static void checkDailyTotals(File file) throws IOException {
+        ZonedDateTime evening = ZonedDateTime.of(2026, 3, 14, 23, 30, 0, 0, BERLIN);
+        long lateSale = evening.toInstant().toEpochMilli();
+        long afterMidnight = evening.plusHours(1).toInstant().toEpochMilli();
+        long nextDaySale = evening.plusMinutes(75).toInstant().toEpochMilli();
+
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            ledger.record("late", 1_000, PaymentLedger.Status.PENDING, null);
+            ledger.updateStatus("late", PaymentLedger.Status.RELEASED);
+            ledger.record("next", 2_000, PaymentLedger.Status.PENDING, null);
+        }
+        // 23:30 sale released at 00:30, then a new sale at 00:45 (Berlin time)
+        setTimestamps(file, 0, lateSale, lateSale);
+        setTimestamps(file, 1, lateSale, afterMidnight);
+        setTimestamps(file, 2, nextDaySale, nextDaySale);
+
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            PaymentLedger.DailyTotals saturday = ledger.totalsForDay(lateSale);
+            PaymentLedger.DailyTotals sunday = ledger.totalsForDay(nextDaySale);
+            expect("days: sale released after midnight counts on the day it was made",
+                    saturday.count(PaymentLedger.Status.RELEASED) == 1
+                            && saturday.amountMinor(PaymentLedger.Status.RELEASED) == 1_000
+                            && saturday.count(PaymentLedger.Status.PENDING) == 0);
+            expect("days: next day holds only its own sale",
+                    sunday.count(PaymentLedger.Status.PENDING) == 1
+                            && sunday.amountMinor(PaymentLedger.Status.PENDING) == 2_000
+                            && sunday.count(PaymentLedger.Status.RELEASED) == 0);
+
+            List<PaymentLedger.Entry> sales = ledger.salesForDay(lateSale);
+            expect("days: salesForDay agrees with the totals", sales.size() == 1
+                    && "late".equals(sales.get(0).paymentId) && sales.get(0).status == PaymentLedger.Status.RELEASED);
+            expect("days: next day's sales", ledger.salesForDay(nextDaySale).size() == 1);
+            expect("days: empty day has no totals",
+                    ledger.totalsForDay(evening.minusDays(1).toInstant().toEpochMilli())
+                            .count(PaymentLedger.Status.PENDING) == 0);
+        }
+
+        // In UTC (22:30, 23:30, 23:45) all three records fall on the same day
+        try (PaymentLedger ledger = PaymentLedger.open(file, ZoneId.of("UTC"))) {
+            PaymentLedger.DailyTotals utc = ledger.totalsForDay(lateSale);
+            expect("days: zone decides the day boundary", utc.count(PaymentLedger.Status.RELEASED) == 1
+                    && utc.count(PaymentLedger.Status.PENDING) == 1 && ledger.salesForDay(lateSale).size() == 2);
+        }
+    }
+
+    private static void checkNonAsciiIds(File file) throws IOException {
+        try (PaymentLedger ledger = PaymentLedger.open(file, BERLIN)) {
+            ledger.record("caf?", 100, PaymentLedger.Status.PENDING, null);
+            expect("ascii: non-ASCII payment ID rejected",
+                    rejects(() -> ledger.record("café", 200, PaymentLedger.Status.PENDING, null)));
+            expect("ascii: non-ASCII transaction ID rejected",
+                    rejects(() -> ledger.record("cafe", 200, PaymentLedger.Status.PENDING, "txn-é")));
+            PaymentLedger.Entry existing = ledger.find("caf?");
+            expect("ascii: rejected IDs leave other payments alone",
+                    ledger.size() == 1 && existing != null && existing.amountMinor == 100);
+        }
+    }
+
+    /**
+     * Rewrites the timestamps of record {@code seq} and its checksum
+     */
+    private static void setTimestamps(File file, int seq, long createdAt, long updatedAt) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] record = new byte[RECORD_SIZE];
+            raf.seek((long) seq * RECORD_SIZE);
+            raf.readFully(record);
+            putLong(record, 0, createdAt);
+            putLong(record, 8, updatedAt);
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, OFFSET_CRC);
+            int value = (int) crc.getValue();
+            for (int i = 0; i < 4; i++) {
+                record[OFFSET_CRC + i] = (byte) (value >>> (24 - 8 * i));
+            }
+            raf.seek((long) seq * RECORD_SIZE);
+            raf.write(record);
+        }
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static boolean sameTotals(PaymentLedger.DailyTotals a, PaymentLedger.DailyTotals b) {
+        for (PaymentLedger.Status status : PaymentLedger.Status.values()) {
+            if (a.count(status) != b.count(status) || a.amountMinor(status) != b.amountMinor(status)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean rejects(IoAction action) throws IOException {
+        try {
+            action.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    private static void expect(String name, boolean passed) {
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+// Payment State Cache for tEUR Clients
+// Read-through cache of conditional-payment and wallet-balance state
+//
+// Entries live in a bounded LRU map with a short TTL. When an invalidation
+// stream is connected (Server-Sent Events carrying {"type","id"} objects),
+// changed entries are evicted as soon as the server reports them, so the TTL
+// only bounds staleness while the stream is down. Entries hold the response
+// JSON as text and every caller gets its own parsed copy, so one caller
+// modifying a result can't change what others see.
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PaymentStateCache implements AutoCloseable {
+
+    private static final String PAYMENT_PREFIX = "payment:";
+    private static final String WALLET_PREFIX = "wallet:";
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000L;
+
+    private final OkHttpClient client;
+    private final String baseUrl;
+    private final String apiKey;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CachedValue> entries;
+
+    // Bumped on every invalidation; a fetch racing with one is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong malformedEvents = new AtomicLong();
+
+    private volatile Thread streamThread;
+    private volatile Call streamCall;
+    private volatile boolean streamConnected;
+
+    /**
+     * @param baseUrl    tEUR API base URL, e.g. https://host/api/v1
+     * @param maxEntries LRU capacity across payments and wallets
+     * @param ttlMillis  how long an entry is served without revalidation
+     */
+    public PaymentStateCache(OkHttpClient client, String baseUrl, String apiKey, int maxEntries, long ttlMillis) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Conditional payment state as returned in the {@code data} field of
+     * GET /payments/{id}; a new copy on every call
+     */
+    public JSONObject getPayment(String paymentId) throws IOException {
+        return get(PAYMENT_PREFIX + paymentId, baseUrl + "/payments/" + paymentId);
+    }
+
+    /**
+     * Wallet balance as returned in the {@code data} field of
+     * GET /wallets/{address}/balance; a new copy on every call
+     */
+    public JSONObject getWalletBalance(String address) throws IOException {
+        return get(walletKey(address), baseUrl + "/wallets/" + address + "/balance");
+    }
+
+    /**
+     * Evicts a payment and, if it is cached, the balances of its payer and
+     * payee, which a release or refund changes too
+     */
+    public void invalidatePayment(String paymentId) {
+        invalidations.incrementAndGet();
+        synchronized (entries) {
+            CachedValue payment = entries.remove(PAYMENT_PREFIX + paymentId);
+            if (payment != null) {
+                JSONObject value = new JSONObject(payment.json);
+                for (String party : new String[] { "payer", "payee" }) {
+                    String address = value.optString(party, null);
+                    if (address != null) {
+                        entries.remove(walletKey(address));
+                    }
+                }
+            }
+        }
+    }
+
+    public void invalidateWallet(String address) {
+        invalidate(walletKey(address));
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Stream events that were not valid invalidations and were skipped
+     */
+    public long getMalformedEventCount() {
+        return malformedEvents.get();
+    }
+
+    public boolean isStreamConnected() {
+        return streamConnected;
+    }
+
+    /**
+     * Connects to a Server-Sent Events endpoint on a daemon thread and evicts
+     * entries named by its events. Reconnects with backoff; everything cached is
+     * dropped on reconnect because events may have been missed meanwhile.
+     */
+    public synchronized void startInvalidationStream(String eventsUrl) {
+        if (streamThread != null) {
+            return;
+        }
+        OkHttpClient streamClient = client.newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        Thread thread = new Thread(() -> runStream(streamClient, eventsUrl), "teur-state-invalidation");
+        thread.setDaemon(true);
+        streamThread = thread;
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        Thread thread = streamThread;
+        streamThread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        Call call = streamCall;
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    private JSONObject get(String key, String url) throws IOException {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            CachedValue cached = entries.get(key);
+            if (cached != null && now - cached.loadedAtNanos < ttlNanos) {
+                hits.incrementAndGet();
+                return new JSONObject(cached.json);
+            }
+        }
+
+        misses.incrementAndGet();
+        long generation = invalidations.get();
+        JSONObject value = fetch(url);
+
+        synchronized (entries) {
+            if (invalidations.get() == generation) {
+                entries.put(key, new CachedValue(value.toString(), now));
+            }
+        }
+        return value;
+    }
+
+    private JSONObject fetch(String url) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .get()
+                .addHeader("X-API-Key", apiKey)
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                JSONObject responseJson = new JSONObject(response.body().string());
+                return responseJson.getJSONObject("data");
+            } else {
+                throw new IOException("Failed to fetch " + url + ": " + response.code());
+            }
+        }
+    }
+
+    private void invalidate(String key) {
+        invalidations.incrementAndGet();
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    private void runStream(OkHttpClient streamClient, String eventsUrl) {
+        long delayMillis = 500;
+        while (streamThread == Thread.currentThread()) {
+            Request request = new Request.Builder()
+                    .url(eventsUrl)
+                    .get()
+                    .addHeader("X-API-Key", apiKey)
+                    .addHeader("Accept", "text/event-stream")
+                    .build();
+
+            Call call = streamClient.newCall(request);
+            streamCall = call;
+            try (Response response = call.execute()) {
+                if (response.isSuccessful()) {
+                    invalidateAll();
+                    streamConnected = true;
+                    delayMillis = 500;
+                    readEvents(response.body().source());
+                }
+            } catch (IOException | RuntimeException e) {
+                // Fall through to reconnect
+            } finally {
+                streamConnected = false;
+            }
+
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            delayMillis = Math.min(delayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+        }
+    }
+
+    private void readEvents(BufferedSource source) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String line;
+        while (streamThread == Thread.currentThread() && (line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                // Blank line terminates an event
+                if (data.length() > 0) {
+                    handleEvent(data.toString());
+                    data.setLength(0);
+                }
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line.substring(5).trim());
+            }
+        }
+    }
+
+    private void handleEvent(String data) {
+        JSONObject event;
+        try {
+            event = new JSONObject(data);
+        } catch (RuntimeException e) {
+            // Skip it rather than reconnect and drop everything; the TTL
+            // bounds staleness if it named a real change
+            malformedEvents.incrementAndGet();
+            return;
+        }
+        String id = event.optString("id", null);
+        String type = event.optString("type");
+        if (id == null) {
+            invalidateAll();
+        } else if ("payment".equals(type)) {
+            invalidatePayment(id);
+        } else if ("wallet".equals(type)) {
+            invalidateWallet(id);
+        } else {
+            invalidateAll();
+        }
+    }
+
+    private static String walletKey(String address) {
+        // Addresses arrive both checksummed and lowercase
+        return WALLET_PREFIX + address.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class CachedValue {
+        final String json;
+        final long loadedAtNanos;
+
+        CachedValue(String json, long loadedAtNanos) {
+            this.json = json;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+// Payment State Cache Check
+// Exercises PaymentStateCache against StubTEurServer
+//
+// Covers TTL expiry, LRU eviction, copies handed to callers, invalidation over
+// the event stream, a malformed event, wallet eviction on payment changes and
+// an invalidation that lands while a load is in flight. Exits with status 1
+// on any failure.
+//
+// Usage: java PaymentStateCacheCheck
+
+import okhttp3.OkHttpClient;
+import org.json.JSONObject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+public class PaymentStateCacheCheck {
+
+    private static final String PAYER = "0xAbCdEf0000000000000000000000000000000001";
+    private static final String PAYEE = "0x0000000000000000000000000000000000000002";
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        OkHttpClient client = new OkHttpClient();
+        try (StubTEurServer stub = new StubTEurServer()) {
+            checkTtl(stub, client);
+            checkLru(stub, client);
+            checkCopies(stub, client);
+            checkWalletEviction(stub, client);
+            checkStream(stub, client);
+            checkInvalidateDuringLoad(stub, client);
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkTtl(StubTEurServer stub, OkHttpClient client) throws Exception {
+        stub.putPayment("ttl", 100, "pending");
+        // Entries age from the start of their load, so leave room for a cold first request
+        try (PaymentStateCache cache = new PaymentStateCache(client, stub.baseUrl(), "key", 16, 1_000)) {
+            cache.getPayment("ttl");
+            int requests = stub.requestCount();
+            cache.getPayment("ttl");
+            expect("ttl: second read is served from the cache", stub.requestCount() == requests);
+            Thread.sleep(1_100);
+            cache.getPayment("ttl");
+            expect("ttl: expired entry is fetched again", stub.requestCount() == requests + 1);
+        }
+    }
+
+    private static void checkLru(StubTEurServer stub, OkHttpClient client) throws Exception {
+        for (String id : new String[] { "lru-a", "lru-b", "lru-c" }) {
+            stub.putPayment(id, 100, "pending");
+        }
+        try (PaymentStateCache cache = new PaymentStateCache(client, stub.baseUrl(), "key", 2, 60_000)) {
+            cache.getPayment("lru-a");
+            cache.getPayment("lru-b");
+            cache.getPayment("lru-a");
+            cache.getPayment("lru-c");
+            long misses = cache.getMissCount();
+            cache.getPayment("lru-a");
+            expect("lru: recently used entry survives", cache.getMissCount() == misses);
+            cache.getPayment("lru-b");
+            expect("lru: least recently used entry is evicted", cache.getMissCount() == misses + 1);
+        }
+    }
+
+    private static void checkCopies(StubTEurServer stub, OkHttpClient client) throws Exception {
+        stub.putPayment("copy", 100, "pending");
+        try (PaymentStateCache cache = new PaymentStateCache(client, stub.baseUrl(), "key", 16, 60_000)) {
+            cache.getPayment("copy").put("status", "tampered");
+            JSONObject first = cache.getPayment("copy");
+            expect("copies: loaded value is not shared", "pending".equals(first.getString("status")));
+            first.put("status", "tampered");
+            expect("copies: cached value is not shared",
+                    "pending".equals(cache.getPayment("copy").getString("status")));
+        }
+    }
+
+    private static void checkWalletEviction(StubTEurServer stub, OkHttpClient client) throws Exception {
+        stub.putPayment("wallet", 100, "pending", PAYER, PAYEE);
+        stub.putBalance(PAYER, 5_000);
+        stub.putBalance(PAYEE, 0);
+        try (PaymentStateCache cache = new PaymentStateCache(client, stub.baseUrl(), "key", 16, 60_000)) {
+            cache.getPayment("wallet");
+            cache.getWalletBalance(PAYER);
+            cache.getWalletBalance(PAYEE);
+            cache.invalidatePayment("wallet");
+            long misses = cache.getMissCount();
+            cache.getWalletBalance(PAYER);
+            cache.getWalletBalance(PAYEE);
+            expect("wallets: payment invalidation evicts payer and payee", cache.getMissCount() == misses + 2);
+
+            cache.getWalletBalance(PAYER);
+            cache.invalidateWallet(PAYER.toLowerCase());
+            misses = cache.getMissCount();
+            cache.getWalletBalance(PAYER);
+            expect("wallets: address case does not matter", cache.getMissCount() == misses + 1);
+        }
+    }
+
+    private static void checkStream(StubTEurServer stub, OkHttpClient client) throws Exception {
+        stub.putPayment("stream", 100, "pending");
+        stub.putPayment("bystander", 100, "pending");
+        try (PaymentStateCache cache = new PaymentStateCache(client, stub.baseUrl(), "key", 16, 60_000)) {
+            cache.startInvalidationStream(stub.baseUrl() + "/events");
+            expect("stream: connects", waitFor(cache::isStreamConnected));
+
+            cache.getPayment("stream");
+            cache.getPayment("bystander");
+            stub.putPayment("stream", 100, "released");
+            expect("stream: event evicts the entry", waitFor(() -> {
+                try {
+                    return "released".equals(cache.getPayment("stream").getString("status"));
+                } catch (Exception e) {
+                    return false;
+                }
+            }));
+
+            stub.publishRaw("{not json");
+            expect("stream: malformed event is counted", waitFor(() -> cache.getMalformedEventCount() == 1));
+            expect("stream: still connected after malformed event", cache.isStreamConnected());
+            long misses = cache.getMissCount();
+            cache.getPayment("bystander");
+            expect("stream: malformed event keeps other entries", cache.getMissCount() == misses);
+        }
+    }
+
+    private static void checkInvalidateDuringLoad(StubTEurServer stub, OkHttpClient client) throws Exception {
+        stub.putPayment("race", 100, "pending");
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try (PaymentStateCache cache = new PaymentStateCache(client, stub.baseUrl(), "key", 16, 60_000)) {
+            stub.setResponseDelayMillis(300);
+            // The stub reads the pending state, then waits before responding
+            Future<JSONObject> load = loader.submit(() -> cache.getPayment("race"));
+            Thread.sleep(100);
+            stub.putPayment("race", 100, "released");
+            cache.invalidatePayment("race");
+            JSONObject stale = load.get();
+            stub.setResponseDelayMillis(0);
+
+            expect("race: in-flight load returns the old state", "pending".equals(stale.getString("status")));
+            long misses = cache.getMissCount();
+            JSONObject fresh = cache.getPayment("race");
+            expect("race: stale load was not cached",
+                    cache.getMissCount() == misses + 1 && "released".equals(fresh.getString("status")));
+        } finally {
+            stub.setResponseDelayMillis(0);
+            loader.shutdown();
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private static void expect(String name, boolean passed) {
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,650 @@
+// Payment Workflow Engine for SumUp/tEUR Payments
+// Runs checkout -> wait -> NFC extraction -> release as resumable, checkpointed steps
+//
+// Every completed step is appended to a compact binary log (length-prefixed,
+// CRC-checked records) before the next step starts. Every `snapshotEvery`
+// records the live workflows are written to a snapshot and the log is reset,
+// so recovery reads one snapshot plus a short log tail. After a restart,
+// resume() continues each unfinished workflow from its last completed step.
+// The checkout is the one step that must not run twice: a reference is logged
+// before SumUp is called and sent with the checkout, and a workflow that
+// stopped after that record looks its checkout up by reference instead of
+// creating another. Steps run as tasks on a small worker pool and waits
+// (card completion, the customer's tap) are polled on a schedule rather than
+// blocked on, so thousands of workflows share a few threads.
+//
+// The log holds payment secrets until a workflow finishes: keep the directory
+// in app-private storage.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+public class PaymentWorkflowEngine implements AutoCloseable {
+
+    /**
+     * Last completed step of a workflow. Logged by ordinal: add new steps at the end.
+     */
+    public enum Step {
+        CREATED,
+        /** Checkout reference logged; SumUp may or may not have the checkout */
+        CHECKOUT_STARTED,
+        CHECKED_OUT, CHECKOUT_COMPLETE, NFC_READ, RELEASED, FAILED
+    }
+
+    /**
+     * The side effects of each step. Every step except checkout() may run again
+     * for the step that was in progress when the process died.
+     */
+    public interface Steps {
+        /**
+         * Starts the reader checkout and returns the SumUp transaction ID. Must
+         * send {@link Workflow#getCheckoutReference()} so findCheckout() can
+         * find it; never called twice for a checkout findCheckout() reports.
+         */
+        String checkout(Workflow workflow) throws Exception;
+
+        /**
+         * Transaction ID of the checkout created with the workflow's checkout
+         * reference, or null if SumUp has none. Called before checkout() is
+         * retried or resumed.
+         */
+        String findCheckout(Workflow workflow) throws Exception;
+
+        /** Whether the card payment has completed; polled until true */
+        boolean isCheckoutComplete(Workflow workflow) throws Exception;
+
+        /**
+         * Reads the tEUR payment data as {paymentId, secret} without blocking;
+         * null while the customer has not tapped (polled until the tap timeout)
+         */
+        String[] extractPaymentData(Workflow workflow) throws Exception;
+
+        /** Releases the tEUR tokens; false means the release was rejected */
+        boolean release(Workflow workflow) throws Exception;
+    }
+
+    /**
+     * Thrown by a step that can never succeed for this workflow (e.g. the tap
+     * is for a different amount); the workflow fails without further attempts
+     */
+    public static class RejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private static final String LOG_FILE = "workflows.log";
+    private static final String SNAPSHOT_FILE = "workflows.snap";
+    private static final int SNAPSHOT_MAGIC = 0x5457464c; // "TWFL"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private static final byte RECORD_CREATED = 1;
+    private static final byte RECORD_STEP = 2;
+    private static final byte RECORD_ATTEMPT = 3;
+
+    private static final Step[] STEPS = Step.values();
+
+    private final File directory;
+    private final Steps steps;
+    private final ScheduledExecutorService workers;
+    private final Map<Long, Workflow> live = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Boolean>> outcomes = new ConcurrentHashMap<>();
+    // Workflows with a step scheduled or running; each has exactly one
+    private final Set<Long> driven = ConcurrentHashMap.newKeySet();
+    private final CRC32 crc = new CRC32();
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+
+    private FileChannel log;
+    private long nextId = 1;
+    private int recordsSinceSnapshot;
+    private volatile boolean closed;
+
+    private long pollIntervalMillis = 500;
+    private long tapTimeoutMillis = 30_000;
+    private int maxAttempts = 5;
+    private int snapshotEvery = 1000;
+    private boolean syncEachRecord = true;
+
+    private PaymentWorkflowEngine(File directory, Steps steps, int workerThreads) {
+        this.directory = directory;
+        this.steps = steps;
+        this.workers = Executors.newScheduledThreadPool(workerThreads, r -> {
+            Thread thread = new Thread(r, "teur-workflow");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the engine's state directory and recovers unfinished workflows.
+     * Call {@link #resume()} to start driving them again.
+     */
+    public static PaymentWorkflowEngine open(File directory, Steps steps, int workerThreads) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create workflow directory " + directory);
+        }
+        PaymentWorkflowEngine engine = new PaymentWorkflowEngine(directory, steps, workerThreads);
+        try {
+            engine.recover();
+        } catch (IOException | RuntimeException e) {
+            engine.workers.shutdownNow();
+            if (engine.log != null) {
+                engine.log.close();
+            }
+            throw e;
+        }
+        return engine;
+    }
+
+    public PaymentWorkflowEngine setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+        return this;
+    }
+
+    /**
+     * How long a workflow waits for the customer's tap once the card payment
+     * has completed before it fails (default 30000 ms; restarts on resume)
+     */
+    public PaymentWorkflowEngine setTapTimeoutMillis(long tapTimeoutMillis) {
+        this.tapTimeoutMillis = tapTimeoutMillis;
+        return this;
+    }
+
+    public PaymentWorkflowEngine setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public PaymentWorkflowEngine setSnapshotEvery(int snapshotEvery) {
+        this.snapshotEvery = snapshotEvery;
+        return this;
+    }
+
+    /**
+     * fsync the log after every record (default). Disabling trades crash
+     * durability of the last few steps for throughput.
+     */
+    public PaymentWorkflowEngine setSyncEachRecord(boolean syncEachRecord) {
+        this.syncEachRecord = syncEachRecord;
+        return this;
+    }
+
+    /**
+     * Starts a new payment workflow; the future completes with true once the
+     * tokens are released
+     */
+    public CompletableFuture<Boolean> submit(long amountMinor, String description, String readerId)
+            throws IOException {
+        Workflow workflow;
+        synchronized (this) {
+            workflow = new Workflow(nextId++, amountMinor, description, readerId, System.currentTimeMillis());
+            appendCreated(workflow);
+            live.put(workflow.id, workflow);
+        }
+        CompletableFuture<Boolean> outcome = outcomeFor(workflow.id);
+        driven.add(workflow.id);
+        schedule(workflow, 0);
+        return outcome;
+    }
+
+    /**
+     * Schedules every unfinished workflow that is not already being driven,
+     * from its last completed step. Safe to call more than once.
+     *
+     * @return number of workflows resumed
+     */
+    public int resume() {
+        int resumed = 0;
+        for (Workflow workflow : new ArrayList<>(live.values())) {
+            if (driven.add(workflow.id)) {
+                outcomeFor(workflow.id);
+                schedule(workflow, 0);
+                resumed++;
+            }
+        }
+        return resumed;
+    }
+
+    /**
+     * Unfinished workflows (recovered or running)
+     */
+    public List<Workflow> inFlight() {
+        return new ArrayList<>(live.values());
+    }
+
+    public CompletableFuture<Boolean> outcome(long workflowId) {
+        return outcomes.get(workflowId);
+    }
+
+    /**
+     * Stops the workers; unfinished workflows stay in the log for the next open()
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            log.force(false);
+            log.close();
+        }
+    }
+
+    private CompletableFuture<Boolean> outcomeFor(long id) {
+        CompletableFuture<Boolean> created = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = outcomes.putIfAbsent(id, created);
+        return existing != null ? existing : created;
+    }
+
+    private void schedule(Workflow workflow, long delayMillis) {
+        if (!closed) {
+            workers.schedule(() -> advance(workflow), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void advance(Workflow workflow) {
+        if (closed) {
+            return;
+        }
+        try {
+            switch (workflow.step) {
+                case CREATED: {
+                    // Durable before SumUp hears of it; nothing can have been charged yet
+                    completeStep(workflow, Step.CHECKOUT_STARTED, UUID.randomUUID().toString(), null);
+                    startCheckout(workflow);
+                    return;
+                }
+                case CHECKOUT_STARTED: {
+                    // An earlier attempt may have reached SumUp before failing or crashing
+                    String transactionId = steps.findCheckout(workflow);
+                    if (transactionId == null) {
+                        startCheckout(workflow);
+                    } else {
+                        completeStep(workflow, Step.CHECKED_OUT, transactionId, null);
+                        schedule(workflow, pollIntervalMillis);
+                    }
+                    return;
+                }
+                case CHECKED_OUT: {
+                    if (steps.isCheckoutComplete(workflow)) {
+                        completeStep(workflow, Step.CHECKOUT_COMPLETE, null, null);
+                        schedule(workflow, 0);
+                    } else {
+                        schedule(workflow, pollIntervalMillis);
+                    }
+                    return;
+                }
+                case CHECKOUT_COMPLETE: {
+                    long now = System.currentTimeMillis();
+                    if (workflow.tapWaitStartedMillis == 0) {
+                        workflow.tapWaitStartedMillis = now;
+                    }
+                    String[] data = steps.extractPaymentData(workflow);
+                    if (data != null) {
+                        completeStep(workflow, Step.NFC_READ, data[0], data[1]);
+                        schedule(workflow, 0);
+                    } else if (now - workflow.tapWaitStartedMillis >= tapTimeoutMillis) {
+                        completeStep(workflow, Step.FAILED, null, null);
+                    } else {
+                        schedule(workflow, pollIntervalMillis);
+                    }
+                    return;
+                }
+                case NFC_READ: {
+                    boolean released = steps.release(workflow);
+                    completeStep(workflow, released ? Step.RELEASED : Step.FAILED, null, null);
+                    return;
+                }
+                default:
+                    return;
+            }
+        } catch (RejectedException e) {
+            try {
+                completeStep(workflow, Step.FAILED, null, null);
+            } catch (IOException logFailure) {
+                // Unwritable log; the step runs again after the next start and is rejected again
+                driven.remove(workflow.id);
+            }
+        } catch (Exception e) {
+            retryOrFail(workflow);
+        }
+    }
+
+    private void startCheckout(Workflow workflow) throws Exception {
+        String transactionId = steps.checkout(workflow);
+        completeStep(workflow, Step.CHECKED_OUT, transactionId, null);
+        schedule(workflow, pollIntervalMillis);
+    }
+
+    private void retryOrFail(Workflow workflow) {
+        try {
+            int attempts;
+            synchronized (this) {
+                appendAttempt(workflow);
+                attempts = ++workflow.attempts;
+            }
+            if (attempts >= maxAttempts) {
+                completeStep(workflow, Step.FAILED, null, null);
+            } else {
+                // Exponential backoff capped at 30 s
+                schedule(workflow, Math.min(pollIntervalMillis << Math.min(attempts, 6), 30_000L));
+            }
+        } catch (IOException e) {
+            // The log is unwritable; leave the workflow for the next start
+            driven.remove(workflow.id);
+        }
+    }
+
+    private void completeStep(Workflow workflow, Step step, String value1, String value2) throws IOException {
+        synchronized (this) {
+            appendStep(workflow.id, step, value1, value2);
+            workflow.apply(step, value1, value2);
+            if (step == Step.RELEASED || step == Step.FAILED) {
+                live.remove(workflow.id);
+            }
+            try {
+                maybeSnapshot();
+            } catch (IOException e) {
+                // The step is already in the log, which is only truncated after a
+                // snapshot succeeds; the snapshot is tried again after the next record
+            }
+        }
+        if (step == Step.RELEASED || step == Step.FAILED) {
+            driven.remove(workflow.id);
+            CompletableFuture<Boolean> outcome = outcomes.remove(workflow.id);
+            if (outcome != null) {
+                outcome.complete(step == Step.RELEASED);
+            }
+        }
+    }
+
+    // Log records: int length | payload | int crc32(payload)
+
+    private void appendCreated(Workflow workflow) throws IOException {
+        DataOutputStream out = beginRecord(RECORD_CREATED, workflow.id);
+        out.writeLong(workflow.amountMinor);
+        out.writeUTF(workflow.description);
+        out.writeUTF(workflow.readerId);
+        out.writeLong(workflow.createdAtMillis);
+        writeRecord();
+    }
+
+    private void appendStep(long id, Step step, String value1, String value2) throws IOException {
+        DataOutputStream out = beginRecord(RECORD_STEP, id);
+        out.writeByte(step.ordinal());
+        writeNullable(out, value1);
+        writeNullable(out, value2);
+        writeRecord();
+    }
+
+    private void appendAttempt(Workflow workflow) throws IOException {
+        beginRecord(RECORD_ATTEMPT, workflow.id);
+        writeRecord();
+    }
+
+    private DataOutputStream beginRecord(byte type, long id) throws IOException {
+        recordBytes.reset();
+        DataOutputStream out = new DataOutputStream(recordBytes);
+        out.writeByte(type);
+        out.writeLong(id);
+        return out;
+    }
+
+    private void writeRecord() throws IOException {
+        byte[] payload = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(payload.length + 8);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+        if (syncEachRecord) {
+            log.force(false);
+        }
+        recordsSinceSnapshot++;
+    }
+
+    private void maybeSnapshot() throws IOException {
+        if (recordsSinceSnapshot < snapshotEvery) {
+            return;
+        }
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        File temp = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(nextId);
+            out.writeInt(live.size());
+            for (Workflow workflow : live.values()) {
+                out.writeLong(workflow.id);
+                out.writeLong(workflow.amountMinor);
+                out.writeUTF(workflow.description);
+                out.writeUTF(workflow.readerId);
+                out.writeLong(workflow.createdAtMillis);
+                out.writeByte(workflow.step.ordinal());
+                writeNullable(out, workflow.transactionId);
+                writeNullable(out, workflow.paymentId);
+                writeNullable(out, workflow.secret);
+                out.writeInt(workflow.attempts);
+                writeNullable(out, workflow.checkoutReference);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        if (!temp.renameTo(snapshot) && !(snapshot.delete() && temp.renameTo(snapshot))) {
+            throw new IOException("Failed to replace workflow snapshot");
+        }
+        // Everything in the log is now covered by the snapshot
+        log.truncate(0);
+        log.position(0);
+        log.force(true);
+        recordsSinceSnapshot = 0;
+    }
+
+    private void recover() throws IOException {
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        if (snapshot.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Unrecognized workflow snapshot " + snapshot);
+                }
+                nextId = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Workflow workflow = new Workflow(in.readLong(), in.readLong(), in.readUTF(), in.readUTF(),
+                            in.readLong());
+                    workflow.step = STEPS[in.readUnsignedByte()];
+                    workflow.transactionId = readNullable(in);
+                    workflow.paymentId = readNullable(in);
+                    workflow.secret = readNullable(in);
+                    workflow.attempts = in.readInt();
+                    workflow.checkoutReference = readNullable(in);
+                    live.put(workflow.id, workflow);
+                }
+            }
+        }
+
+        log = new RandomAccessFile(new File(directory, LOG_FILE), "rw").getChannel();
+        long validEnd = replayLog();
+        if (validEnd != log.size()) {
+            // Torn record from a crash mid-append
+            log.truncate(validEnd);
+        }
+        log.position(validEnd);
+    }
+
+    private long replayLog() throws IOException {
+        long position = 0;
+        long size = log.size();
+        ByteBuffer header = ByteBuffer.allocate(4);
+
+        while (position + 4 <= size) {
+            header.clear();
+            log.read(header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + 8 + length > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length + 4);
+            while (record.hasRemaining()) {
+                if (log.read(record, position + 4 + record.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            crc.reset();
+            crc.update(record.array(), 0, length);
+            if (record.getInt(length) != (int) crc.getValue()) {
+                break;
+            }
+            applyRecord(new DataInputStream(new ByteArrayInputStream(record.array(), 0, length)));
+            position += 8 + length;
+            recordsSinceSnapshot++;
+        }
+        return position;
+    }
+
+    private void applyRecord(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long id = in.readLong();
+        switch (type) {
+            case RECORD_CREATED:
+                live.put(id, new Workflow(id, in.readLong(), in.readUTF(), in.readUTF(), in.readLong()));
+                nextId = Math.max(nextId, id + 1);
+                break;
+            case RECORD_STEP: {
+                Workflow workflow = live.get(id);
+                Step step = STEPS[in.readUnsignedByte()];
+                String value1 = readNullable(in);
+                String value2 = readNullable(in);
+                if (workflow != null) {
+                    workflow.apply(step, value1, value2);
+                    if (step == Step.RELEASED || step == Step.FAILED) {
+                        live.remove(id);
+                    }
+                }
+                break;
+            }
+            case RECORD_ATTEMPT: {
+                Workflow workflow = live.get(id);
+                if (workflow != null) {
+                    workflow.attempts++;
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown workflow record type " + type);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * State of one payment workflow
+     */
+    public static final class Workflow {
+        public final long id;
+        public final long amountMinor;
+        public final String description;
+        public final String readerId;
+        public final long createdAtMillis;
+        volatile Step step = Step.CREATED;
+        volatile String checkoutReference;
+        volatile String transactionId;
+        volatile String paymentId;
+        volatile String secret;
+        volatile int attempts;
+        // Not logged: a resumed workflow gets a fresh tap timeout
+        volatile long tapWaitStartedMillis;
+
+        Workflow(long id, long amountMinor, String description, String readerId, long createdAtMillis) {
+            this.id = id;
+            this.amountMinor = amountMinor;
+            this.description = description;
+            this.readerId = readerId;
+            this.createdAtMillis = createdAtMillis;
+        }
+
+        public Step getStep() {
+            return step;
+        }
+
+        /**
+         * Client-generated reference sent with the checkout; null before CHECKOUT_STARTED
+         */
+        public String getCheckoutReference() {
+            return checkoutReference;
+        }
+
+        public String getTransactionId() {
+            return transactionId;
+        }
+
+        public String getPaymentId() {
+            return paymentId;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        void apply(Step completed, String value1, String value2) {
+            step = completed;
+            attempts = 0;
+            if (completed == Step.CHECKOUT_STARTED) {
+                checkoutReference = value1;
+            } else if (completed == Step.CHECKED_OUT) {
+                transactionId = value1;
+            } else if (completed == Step.NFC_READ) {
+                paymentId = value1;
+                secret = value2;
+            } else if (completed == Step.RELEASED || completed == Step.FAILED) {
+                secret = null;
+            }
+        }
+    }
+}
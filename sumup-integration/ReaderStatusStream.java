@@ -0,0 +1,345 @@
+// Reader Status Stream for SumUp Readers
+// Shares one poll loop (or webhook feed) across any number of status subscribers
+//
+// Publishers follow java.util.concurrent.Flow (Android API 30+ or any JVM 9+).
+// Each subscription keeps at most one undelivered status per reader: when a
+// subscriber falls behind, intermediate states are conflated and only the
+// latest one is delivered once it requests more, readers in the order they
+// became pending. Polling runs only while at least one subscription is active
+// and stops when the last one cancels. Statuses are immutable snapshots, so
+// subscribers can't see or cause each other's changes.
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ReaderStatusStream implements AutoCloseable {
+
+    // Re-list the merchant's readers at most this often for merchant-wide streams
+    private static final long READER_LIST_REFRESH_MILLIS = 60_000L;
+
+    private final SumUpTEurIntegration sumUp;
+    private final long pollIntervalMillis;
+    private final Executor deliveryExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Set<StatusSubscription> subscriptions = new CopyOnWriteArraySet<>();
+    private final Map<String, ReaderStatus> latest = new ConcurrentHashMap<>();
+    private final AtomicLong pollCount = new AtomicLong();
+
+    private ScheduledFuture<?> pollTask;
+    private List<String> merchantReaders = new ArrayList<>();
+    private long merchantReadersListedAt;
+    private boolean closed;
+
+    public ReaderStatusStream(SumUpTEurIntegration sumUp, long pollIntervalMillis) {
+        this(sumUp, pollIntervalMillis, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param deliveryExecutor runs subscriber callbacks, off the poll thread
+     */
+    public ReaderStatusStream(SumUpTEurIntegration sumUp, long pollIntervalMillis, Executor deliveryExecutor) {
+        this.sumUp = sumUp;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.deliveryExecutor = deliveryExecutor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sumup-reader-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Status changes of a single reader
+     */
+    public Flow.Publisher<ReaderStatus> reader(String readerId) {
+        return subscriber -> subscribe(subscriber, readerId);
+    }
+
+    /**
+     * Status changes of every reader of the merchant
+     */
+    public Flow.Publisher<ReaderStatus> merchant() {
+        return subscriber -> subscribe(subscriber, null);
+    }
+
+    /**
+     * Feeds a status received out of band (e.g. from a SumUp webhook) to
+     * subscribers. Unchanged statuses are dropped.
+     */
+    public void publish(String readerId, JSONObject status) {
+        ReaderStatus event = new ReaderStatus(readerId, status.toString(), System.currentTimeMillis());
+        ReaderStatus previous = latest.put(readerId, event);
+        if (previous != null && previous.statusJson.equals(event.statusJson)) {
+            return;
+        }
+        for (StatusSubscription subscription : subscriptions) {
+            if (subscription.matches(readerId)) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Number of poll rounds run so far
+     */
+    public long getPollCount() {
+        return pollCount.get();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Stops polling and completes every subscription
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (pollTask != null) {
+                pollTask.cancel(false);
+                pollTask = null;
+            }
+        }
+        scheduler.shutdownNow();
+        for (StatusSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    private void subscribe(Flow.Subscriber<? super ReaderStatus> subscriber, String readerId) {
+        StatusSubscription subscription = new StatusSubscription(subscriber, readerId);
+        synchronized (this) {
+            if (closed) {
+                subscriber.onSubscribe(subscription);
+                subscription.complete();
+                return;
+            }
+            subscriptions.add(subscription);
+        }
+        subscriber.onSubscribe(subscription);
+
+        // Late subscribers start from the last known state instead of waiting a full poll
+        for (ReaderStatus status : latest.values()) {
+            if (subscription.matches(status.readerId)) {
+                subscription.offer(status);
+            }
+        }
+        resumeIfNeeded();
+    }
+
+    private synchronized void resumeIfNeeded() {
+        if (!closed && pollTask == null && !subscriptions.isEmpty()) {
+            pollTask = scheduler.scheduleWithFixedDelay(this::poll, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void pauseIfIdle() {
+        if (pollTask != null && subscriptions.isEmpty()) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+
+    private void poll() {
+        pollCount.incrementAndGet();
+        Set<String> readerIds = new LinkedHashSet<>();
+        boolean merchantWide = false;
+        for (StatusSubscription subscription : subscriptions) {
+            if (subscription.readerId == null) {
+                merchantWide = true;
+            } else {
+                readerIds.add(subscription.readerId);
+            }
+        }
+        if (merchantWide) {
+            readerIds.addAll(merchantReaders());
+        }
+
+        for (String readerId : readerIds) {
+            try {
+                publish(readerId, sumUp.getReaderStatus(readerId));
+            } catch (IOException | RuntimeException e) {
+                // Transient failure; the next poll retries
+            }
+        }
+    }
+
+    private List<String> merchantReaders() {
+        long now = System.currentTimeMillis();
+        if (now - merchantReadersListedAt >= READER_LIST_REFRESH_MILLIS) {
+            try {
+                JSONArray readers = sumUp.listReaders();
+                List<String> ids = new ArrayList<>(readers.length());
+                for (int i = 0; i < readers.length(); i++) {
+                    ids.add(readers.getJSONObject(i).getString("id"));
+                }
+                merchantReaders = ids;
+                merchantReadersListedAt = now;
+            } catch (IOException | RuntimeException e) {
+                // Keep the previous list until the API answers again
+            }
+        }
+        return merchantReaders;
+    }
+
+    /**
+     * A reader's status as reported by GET /merchants/{code}/readers/{id}/status.
+     * One instance goes to every matching subscriber, so it only holds the
+     * JSON text; {@link #status()} parses a private copy.
+     */
+    public static final class ReaderStatus {
+        public final String readerId;
+        public final String statusJson;
+        public final long receivedAtMillis;
+
+        ReaderStatus(String readerId, String statusJson, long receivedAtMillis) {
+            this.readerId = readerId;
+            this.statusJson = statusJson;
+            this.receivedAtMillis = receivedAtMillis;
+        }
+
+        /**
+         * The status as a new JSONObject on every call
+         */
+        public JSONObject status() {
+            return new JSONObject(statusJson);
+        }
+    }
+
+    private final class StatusSubscription implements Flow.Subscription {
+
+        final Flow.Subscriber<? super ReaderStatus> subscriber;
+        final String readerId; // null for merchant-wide
+        final AtomicLong demand = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+        // Undelivered state per reader, oldest pending reader first; a newer
+        // status replaces an older one in place, so a busy reader can't push
+        // the others back. Guarded by itself.
+        final Map<String, ReaderStatus> pending = new LinkedHashMap<>();
+        volatile boolean cancelled;
+        volatile boolean completing;
+        // Signalled from the drain loop so it never overlaps onNext (Flow spec 1.3)
+        volatile Throwable error;
+
+        StatusSubscription(Flow.Subscriber<? super ReaderStatus> subscriber, String readerId) {
+            this.subscriber = subscriber;
+            this.readerId = readerId;
+        }
+
+        boolean matches(String id) {
+            return readerId == null || readerId.equals(id);
+        }
+
+        void offer(ReaderStatus status) {
+            synchronized (pending) {
+                pending.put(status.readerId, status);
+            }
+            drain();
+        }
+
+        private ReaderStatus takePending() {
+            synchronized (pending) {
+                Iterator<ReaderStatus> oldest = pending.values().iterator();
+                if (!oldest.hasNext()) {
+                    return null;
+                }
+                ReaderStatus next = oldest.next();
+                oldest.remove();
+                return next;
+            }
+        }
+
+        void complete() {
+            completing = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (error == null) {
+                    error = new IllegalArgumentException("request must be positive (Flow spec 3.9)");
+                }
+                drain();
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                synchronized (pending) {
+                    pending.clear();
+                }
+                subscriptions.remove(this);
+                pauseIfIdle();
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                deliveryExecutor.execute(this::drainLoop);
+            }
+        }
+
+        private void drainLoop() {
+            int missed = 1;
+            do {
+                Throwable failure = error;
+                if (failure != null && !cancelled) {
+                    cancel();
+                    subscriber.onError(failure);
+                }
+                while (!cancelled && error == null && demand.get() > 0) {
+                    ReaderStatus next = takePending();
+                    if (next == null) {
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    try {
+                        subscriber.onNext(next);
+                    } catch (Throwable t) {
+                        cancel();
+                    }
+                }
+                if (completing && !cancelled) {
+                    cancelled = true;
+                    subscriptions.remove(this);
+                    subscriber.onComplete();
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
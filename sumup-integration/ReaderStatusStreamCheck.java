@@ -0,0 +1,235 @@
+// Reader Status Stream Check
+// Exercises ReaderStatusStream fan-out, conflation and backpressure
+//
+// Most cases publish statuses directly, with polling pointed at a closed port
+// and deliveries run on the publishing thread, so every step is deterministic:
+// conflation to the latest status per reader, no delivery beyond demand,
+// readers served in the order they became pending even while one of them
+// keeps changing, and statuses that subscribers can't modify for each other.
+// The last case polls StubTEurServer and checks that polling stops when the
+// last subscriber cancels and resumes on the next subscription. Exits with
+// status 1 on any failure.
+//
+// Usage: java ReaderStatusStreamCheck
+
+import com.teur.client.PaymentTracer;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.function.BooleanSupplier;
+
+public class ReaderStatusStreamCheck {
+
+    private static final long NO_POLLING = 3_600_000L;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        // Nothing listens on port 1, so polls fail fast and publish nothing
+        SumUpTEurIntegration offline = new SumUpTEurIntegration("sumup-key", "MERCHANT", new PaymentTracer(),
+                "http://127.0.0.1:1/v0.1", "http://127.0.0.1:1/api/v1");
+        checkConflation(offline);
+        checkBackpressure(offline);
+        checkFairness(offline);
+        checkSnapshots(offline);
+        try (StubTEurServer stub = new StubTEurServer()) {
+            checkPausing(new SumUpTEurIntegration("sumup-key", "MERCHANT", new PaymentTracer(),
+                    stub.sumUpBaseUrl(), stub.baseUrl()));
+        }
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkConflation(SumUpTEurIntegration sumUp) {
+        try (ReaderStatusStream stream = new ReaderStatusStream(sumUp, NO_POLLING, Runnable::run)) {
+            Recorder recorder = new Recorder();
+            stream.reader("rdr_a").subscribe(recorder);
+            for (int i = 1; i <= 5; i++) {
+                stream.publish("rdr_a", state("step-" + i));
+            }
+            stream.publish("rdr_b", state("other reader"));
+            expect("conflation: nothing delivered without demand", recorder.states().isEmpty());
+            recorder.request(10);
+            expect("conflation: only the latest status is delivered", recorder.states().equals(list("step-5")));
+
+            stream.publish("rdr_a", state("step-5"));
+            expect("conflation: unchanged status dropped", recorder.states().size() == 1);
+            stream.publish("rdr_a", state("step-6"));
+            expect("conflation: changes flow while demand remains", recorder.states().equals(list("step-5", "step-6")));
+        }
+    }
+
+    private static void checkBackpressure(SumUpTEurIntegration sumUp) {
+        try (ReaderStatusStream stream = new ReaderStatusStream(sumUp, NO_POLLING, Runnable::run)) {
+            Recorder recorder = new Recorder();
+            stream.merchant().subscribe(recorder);
+            recorder.request(2);
+            for (int reader = 0; reader < 5; reader++) {
+                stream.publish("rdr_" + reader, state("on"));
+            }
+            expect("backpressure: delivers exactly the requested count", recorder.states().size() == 2);
+            recorder.request(1);
+            expect("backpressure: one more per request", recorder.states().size() == 3);
+            recorder.request(Long.MAX_VALUE);
+            expect("backpressure: unbounded demand drains the rest", recorder.states().size() == 5);
+            stream.publish("rdr_9", state("on"));
+            expect("backpressure: unbounded demand stays unbounded", recorder.states().size() == 6);
+        }
+    }
+
+    /**
+     * One reader keeps changing while the subscriber takes a status at a
+     * time; every other pending reader must still be delivered in turn
+     */
+    private static void checkFairness(SumUpTEurIntegration sumUp) {
+        try (ReaderStatusStream stream = new ReaderStatusStream(sumUp, NO_POLLING, Runnable::run)) {
+            Recorder recorder = new Recorder();
+            stream.merchant().subscribe(recorder);
+            int readers = 16;
+            for (int reader = 0; reader < readers; reader++) {
+                stream.publish("rdr_" + reader, state("on"));
+            }
+            for (int i = 0; i < readers; i++) {
+                recorder.request(1);
+                stream.publish("rdr_0", state("busy-" + i));
+            }
+            Set<String> served = new HashSet<>(recorder.readers());
+            expect("fairness: every pending reader served before a busy one repeats",
+                    served.size() == readers && recorder.readers().get(readers - 1).equals("rdr_" + (readers - 1)));
+            recorder.request(1);
+            expect("fairness: the busy reader's latest status follows",
+                    recorder.states().get(readers).equals("busy-" + (readers - 1)));
+        }
+    }
+
+    private static void checkSnapshots(SumUpTEurIntegration sumUp) {
+        try (ReaderStatusStream stream = new ReaderStatusStream(sumUp, NO_POLLING, Runnable::run)) {
+            Recorder first = new Recorder();
+            Recorder second = new Recorder();
+            stream.reader("rdr_a").subscribe(first);
+            stream.reader("rdr_a").subscribe(second);
+            first.request(1);
+            second.request(1);
+            JSONObject published = state("ready");
+            stream.publish("rdr_a", published);
+            published.put("state", "changed by the publisher");
+            first.received.get(0).status().put("state", "changed by a subscriber");
+            expect("snapshots: same event to both subscribers", first.received.get(0) == second.received.get(0));
+            expect("snapshots: neither publisher nor subscriber changes what others see",
+                    "ready".equals(second.received.get(0).status().getString("state")));
+        }
+    }
+
+    private static void checkPausing(SumUpTEurIntegration sumUp) throws InterruptedException {
+        try (ReaderStatusStream stream = new ReaderStatusStream(sumUp, 20)) {
+            Recorder recorder = new Recorder();
+            stream.reader("rdr_stub").subscribe(recorder);
+            recorder.request(Long.MAX_VALUE);
+            expect("pausing: polled status delivered", waitFor(() -> recorder.states().size() == 1));
+
+            recorder.cancel();
+            expect("pausing: subscriber removed", stream.getSubscriberCount() == 0);
+            // A poll already running when the subscriber left may still finish
+            Thread.sleep(100);
+            long polls = stream.getPollCount();
+            Thread.sleep(300);
+            expect("pausing: no polls after the last subscriber cancelled", stream.getPollCount() == polls);
+
+            Recorder again = new Recorder();
+            stream.reader("rdr_stub").subscribe(again);
+            again.request(Long.MAX_VALUE);
+            expect("pausing: next subscriber resumes polling", waitFor(() -> stream.getPollCount() > polls + 2));
+            expect("pausing: late subscriber starts from the last known status",
+                    waitFor(() -> again.states().size() == 1));
+            expect("pausing: cancelled subscriber got nothing more", recorder.states().size() == 1);
+        }
+    }
+
+    private static JSONObject state(String state) {
+        return new JSONObject().put("state", state);
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return condition.getAsBoolean();
+    }
+
+    /**
+     * Records deliveries; demand only comes from {@link #request}
+     */
+    private static final class Recorder implements Flow.Subscriber<ReaderStatusStream.ReaderStatus> {
+        final List<ReaderStatusStream.ReaderStatus> received = new ArrayList<>();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public synchronized void onNext(ReaderStatusStream.ReaderStatus status) {
+            received.add(status);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            expect("no onError: " + throwable, false);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        void request(long n) {
+            subscription.request(n);
+        }
+
+        void cancel() {
+            subscription.cancel();
+        }
+
+        synchronized List<String> states() {
+            List<String> states = new ArrayList<>();
+            for (ReaderStatusStream.ReaderStatus status : received) {
+                JSONObject json = status.status();
+                states.add(json.has("state") ? json.getString("state") : json.toString());
+            }
+            return states;
+        }
+
+        synchronized List<String> readers() {
+            List<String> readers = new ArrayList<>();
+            for (ReaderStatusStream.ReaderStatus status : received) {
+                readers.add(status.readerId);
+            }
+            return readers;
+        }
+    }
+
+    private static void expect(String name, boolean passed) {
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+// Simulated NFC Tag Source
+// Presents taps to an NfcReader on a plain JVM, with realistic tag read timing
+//
+// A read takes a fixed connect/select overhead plus the NDEF bytes at the
+// ISO 14443-A base rate (106 kbit/s). A hung tag (phone pulled away mid-read)
+// blocks until the reader cancels it. Used by NfcTapBenchmark.
+
+import com.teur.client.NfcTagSource;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SimulatedTagSource implements NfcTagSource {
+
+    public static final int BASE_RATE_BITS_PER_SECOND = 106_000;
+
+    private final long overheadMicros;
+    private volatile Listener listener;
+
+    /**
+     * @param overheadMicros connect, select and NDEF detection time per read
+     */
+    public SimulatedTagSource(long overheadMicros) {
+        this.overheadMicros = overheadMicros;
+    }
+
+    public SimulatedTagSource() {
+        this(15_000);
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void stop() {
+        this.listener = null;
+    }
+
+    /**
+     * Presents a tag holding {@code ndefMessage}; returns false if stopped
+     */
+    public boolean tap(byte[] id, byte[] ndefMessage) {
+        return present(new SimulatedTag(id, ndefMessage, readMicros(ndefMessage.length)));
+    }
+
+    /**
+     * Presents a tag whose read never completes on its own
+     */
+    public boolean tapHung(byte[] id) {
+        return present(new SimulatedTag(id, null, -1));
+    }
+
+    /**
+     * Simulated time to read a message of {@code bytes} bytes
+     */
+    public long readMicros(int bytes) {
+        return overheadMicros + bytes * 8L * 1_000_000L / BASE_RATE_BITS_PER_SECOND;
+    }
+
+    private boolean present(SimulatedTag tag) {
+        Listener current = listener;
+        if (current == null) {
+            return false;
+        }
+        current.onTagDiscovered(tag);
+        return true;
+    }
+
+    private static final class SimulatedTag implements TagHandle {
+        private final byte[] id;
+        private final byte[] message;
+        private final long readMicros;
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+
+        SimulatedTag(byte[] id, byte[] message, long readMicros) {
+            this.id = id;
+            this.message = message;
+            this.readMicros = readMicros;
+        }
+
+        @Override
+        public byte[] id() {
+            return id;
+        }
+
+        @Override
+        public byte[] readNdefMessage() throws IOException {
+            try {
+                boolean wasCancelled = readMicros < 0
+                        ? cancelled.await(Long.MAX_VALUE, TimeUnit.DAYS)
+                        : cancelled.await(readMicros, TimeUnit.MICROSECONDS);
+                if (wasCancelled) {
+                    throw new IOException("Tag read cancelled");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Tag read interrupted", e);
+            }
+            return message;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.countDown();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+// Startup Benchmark
+// Measures time-to-first-payment of a fresh JVM worker against a local stub
+//
+// Both the SumUp and the tEUR API are served by StubTEurServer on localhost,
+// so the numbers isolate JVM startup, class loading and JIT warm-up from the
+// network. Calls are plain HTTP, so TLS and HTTP/2 costs are not included.
+// Run it once per configuration in a new JVM, e.g.:
+//   java -Xshare:off ...                      (no class-data sharing)
+//   java ...                                  (JDK default CDS archive)
+//   java -XX:SharedArchiveFile=teur.jsa ...   (AppCDS archive from build-jvm.sh)
+// and add --no-warmup to see what IntegrationWarmup buys.
+//
+// Usage: java StartupBenchmark [--no-warmup] [--payments N]
+
+import com.teur.client.PaymentTracer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long mainMillis = System.currentTimeMillis();
+        long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        // The stub answers in two writes (headers, body); without this, Nagle plus
+        // delayed ACKs add ~40 ms per response. JVM-wide, so set only here.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        boolean warmUp = true;
+        int payments = 200;
+        for (int i = 0; i < args.length; i++) {
+            if ("--no-warmup".equals(args[i])) {
+                warmUp = false;
+            } else if ("--payments".equals(args[i]) && i + 1 < args.length) {
+                payments = Integer.parseInt(args[++i]);
+            }
+        }
+
+        // Stands in for the remote APIs; its own startup is reported separately
+        long start = System.nanoTime();
+        StubTEurServer stub = new StubTEurServer();
+        long stubNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SumUpTEurIntegration sumUp = new SumUpTEurIntegration("stub-key", "stub-merchant",
+                new PaymentTracer(), stub.sumUpBaseUrl(), stub.baseUrl());
+        sumUp.setCompletionWaitMillis(0);
+        IntegrationWarmup.Report warmupReport = warmUp ? new IntegrationWarmup(sumUp).run() : null;
+        long readyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        boolean paid = sumUp.processTEurPayment(10.00, "Startup benchmark", "rdr_stub");
+        long firstPaymentNanos = System.nanoTime() - start;
+        long firstPaymentDoneMillis = System.currentTimeMillis();
+        if (!paid) {
+            throw new IllegalStateException("First payment against the stub failed");
+        }
+
+        // Steady state: the same checkout + release round trips, new payment IDs
+        long[] latencies = new long[payments];
+        for (int i = 0; i < payments; i++) {
+            start = System.nanoTime();
+            sumUp.processWithReader("rdr_stub", 10.00, "Startup benchmark");
+            sumUp.releaseTEurTokens("bench-" + i, "bench-secret");
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("warm-up=%s cds=%s%n", warmUp ? "on" : "off", cdsMode());
+        System.out.printf("  JVM start -> main:          %6d ms%n", mainMillis - jvmStartMillis);
+        System.out.printf("  stub server start:          %6.1f ms%n", stubNanos / 1e6);
+        System.out.printf("  integration ready:          %6.1f ms%s%n", readyNanos / 1e6,
+                warmupReport == null ? "" : " (" + warmupReport + ")");
+        System.out.printf("  first payment:              %6.1f ms%n", firstPaymentNanos / 1e6);
+        System.out.printf("  time to first payment:      %6.1f ms (JVM start to first release, excluding stub)%n",
+                firstPaymentDoneMillis - jvmStartMillis - stubNanos / 1e6);
+        if (payments > 0) {
+            System.out.printf("  steady-state payment p50:   %6.2f ms (p99 %.2f ms, n=%d)%n",
+                    latencies[payments / 2] / 1e6, latencies[payments * 99 / 100] / 1e6, payments);
+        }
+
+        sumUp.getClient().dispatcher().executorService().shutdown();
+        sumUp.getClient().connectionPool().evictAll();
+        stub.close();
+    }
+
+    private static String cdsMode() {
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-XX:SharedArchiveFile=")) {
+                return "app archive";
+            }
+            if (arg.equals("-Xshare:off")) {
+                return "off";
+            }
+        }
+        return "default";
+    }
+}
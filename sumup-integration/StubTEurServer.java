@@ -0,0 +1,313 @@
+// Local stub of the tEUR API for tests and benchmarks
+// Serves a small in-memory subset of the /api/v1 routes on localhost
+//
+// JVM only: uses the JDK's built-in com.sun.net.httpserver, which is not
+// available on Android. Responses go out as two writes, so with Nagle enabled
+// each one can wait ~40 ms for a delayed ACK. Checks and benchmarks set
+// -Dsun.net.httpserver.nodelay=true (JVM-wide) in main; the stub itself does
+// not, because IntegrationWarmup also runs it inside production workers. Routes:
+// - GET  /api/v1/health/live
+// - GET  /api/v1/payments/{id}
+// - POST /api/v1/payments/{id}/release
+// - GET  /api/v1/wallets/{address}/balance
+// - GET  /api/v1/events                (Server-Sent Events invalidation stream)
+//
+// plus the SumUp reader routes used by SumUpTEurIntegration:
+// - GET  /v0.1/merchants/{code}/readers
+// - GET  /v0.1/merchants/{code}/readers/{id}/status
+// - POST /v0.1/merchants/{code}/readers/{id}/checkout  (idempotent per Idempotency-Key)
+// - GET  /v0.1/me/transactions?foreign_transaction_id={reference}
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StubTEurServer implements AutoCloseable {
+
+    private static final String API_PREFIX = "/api/v1";
+    private static final String SUMUP_PREFIX = "/v0.1";
+    private static final String STUB_READER_ID = "rdr_stub";
+    private static final String POISON = "";
+
+    private final HttpServer server;
+    private final Map<String, JSONObject> payments = new ConcurrentHashMap<>();
+    private final Map<String, Long> balances = new ConcurrentHashMap<>();
+    // Reader checkouts by foreign_transaction_id -> client_transaction_id
+    private final Map<String, String> checkouts = new ConcurrentHashMap<>();
+    private final Set<BlockingQueue<String>> subscribers = new CopyOnWriteArraySet<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile long responseDelayMillis;
+
+    public StubTEurServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(API_PREFIX + "/payments/", this::handlePayments);
+        server.createContext(API_PREFIX + "/wallets/", this::handleWallets);
+        server.createContext(API_PREFIX + "/events", this::handleEvents);
+        server.createContext(API_PREFIX + "/health/live", this::handleHealth);
+        server.createContext(SUMUP_PREFIX + "/merchants/", this::handleReaders);
+        server.createContext(SUMUP_PREFIX + "/me/transactions", this::handleTransactions);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "stub-teur-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    /**
+     * Base URL to pass to clients, e.g. http://127.0.0.1:54321/api/v1
+     */
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PREFIX;
+    }
+
+    /**
+     * SumUp base URL to pass to SumUpTEurIntegration, e.g. http://127.0.0.1:54321/v0.1
+     */
+    public String sumUpBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + SUMUP_PREFIX;
+    }
+
+    /**
+     * Number of API requests served (excluding the event stream)
+     */
+    public int requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Delays every payment and wallet response, to widen load races in tests
+     */
+    public void setResponseDelayMillis(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+    }
+
+    public void putPayment(String paymentId, long amountMinor, String status) {
+        putPayment(paymentId, amountMinor, status, null, null);
+    }
+
+    public void putPayment(String paymentId, long amountMinor, String status, String payer, String payee) {
+        payments.put(paymentId, new JSONObject()
+                .put("paymentId", paymentId)
+                .put("payer", payer)
+                .put("payee", payee)
+                .put("amount", amountMinor)
+                .put("status", status));
+        publish("payment", paymentId);
+    }
+
+    /**
+     * Number of distinct reader checkouts created
+     */
+    public int checkoutCount() {
+        return checkouts.size();
+    }
+
+    public void putBalance(String address, long balanceMinor) {
+        balances.put(address, balanceMinor);
+        publish("wallet", address);
+    }
+
+    /**
+     * Pushes an invalidation event to every connected event-stream client
+     */
+    public void publish(String type, String id) {
+        publishRaw(new JSONObject().put("type", type).put("id", id).toString());
+    }
+
+    /**
+     * Pushes {@code data} verbatim as one event, e.g. to send a malformed one
+     */
+    public void publishRaw(String data) {
+        for (BlockingQueue<String> queue : subscribers) {
+            queue.offer(data);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (BlockingQueue<String> queue : subscribers) {
+            queue.offer(POISON);
+        }
+        server.stop(0);
+    }
+
+    private void handlePayments(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        String[] path = exchange.getRequestURI().getPath().substring(API_PREFIX.length()).split("/");
+        // ["", "payments", "{id}", ("release")]
+        String paymentId = path.length > 2 ? path[2] : "";
+        JSONObject payment = payments.get(paymentId);
+        delayResponse();
+
+        if ("GET".equals(exchange.getRequestMethod()) && path.length == 3) {
+            if (payment == null) {
+                respond(exchange, 404, error("Payment not found"));
+            } else {
+                respond(exchange, 200, new JSONObject().put("success", true).put("data", payment));
+            }
+        } else if ("POST".equals(exchange.getRequestMethod()) && path.length == 4 && "release".equals(path[3])) {
+            if (payment == null) {
+                // Releases of unknown payments succeed so benchmarks need no setup
+                respond(exchange, 200, new JSONObject().put("success", true));
+            } else if ("released".equals(payment.optString("status"))) {
+                respond(exchange, 409, error("Payment already released"));
+            } else {
+                payment.put("status", "released");
+                publish("payment", paymentId);
+                respond(exchange, 200, new JSONObject().put("success", true).put("data", payment));
+            }
+        } else {
+            respond(exchange, 404, error("Not found"));
+        }
+    }
+
+    private void handleWallets(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        String[] path = exchange.getRequestURI().getPath().substring(API_PREFIX.length()).split("/");
+        // ["", "wallets", "{address}", "balance"]
+        delayResponse();
+        Long balance = path.length == 4 && "balance".equals(path[3]) ? balances.get(path[2]) : null;
+        if (balance == null) {
+            respond(exchange, 404, error("Wallet not found"));
+            return;
+        }
+        respond(exchange, 200, new JSONObject().put("success", true).put("data", new JSONObject()
+                .put("address", path[2])
+                .put("balance", balance.toString())));
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        respond(exchange, 200, new JSONObject().put("status", "ok"));
+    }
+
+    private void handleReaders(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        String[] path = exchange.getRequestURI().getPath().substring(SUMUP_PREFIX.length()).split("/");
+        // ["", "merchants", "{code}", "readers", ("{id}", "status" | "checkout")]
+        if (path.length < 4 || !"readers".equals(path[3])) {
+            respond(exchange, 404, error("Not found"));
+            return;
+        }
+        String method = exchange.getRequestMethod();
+        if ("GET".equals(method) && path.length == 4) {
+            respond(exchange, 200, new JSONObject().put("items", new JSONArray()
+                    .put(new JSONObject().put("id", STUB_READER_ID).put("status", "paired"))));
+        } else if ("GET".equals(method) && path.length == 6 && "status".equals(path[5])) {
+            respond(exchange, 200, new JSONObject().put("data", new JSONObject()
+                    .put("status", "ONLINE")
+                    .put("state", "IDLE")));
+        } else if ("POST".equals(method) && path.length == 6 && "checkout".equals(path[5])) {
+            String reference = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+            if (reference == null) {
+                reference = new JSONObject(readBody(exchange)).optString("foreign_transaction_id",
+                        UUID.randomUUID().toString());
+            }
+            String transactionId = checkouts.computeIfAbsent(reference, key -> UUID.randomUUID().toString());
+            respond(exchange, 201, new JSONObject().put("data", new JSONObject()
+                    .put("client_transaction_id", transactionId)));
+        } else {
+            respond(exchange, 404, error("Not found"));
+        }
+    }
+
+    private void handleTransactions(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        String query = exchange.getRequestURI().getQuery();
+        String prefix = "foreign_transaction_id=";
+        String transactionId = query != null && query.startsWith(prefix)
+                ? checkouts.get(query.substring(prefix.length()))
+                : null;
+        if (transactionId == null) {
+            respond(exchange, 404, error("Transaction not found"));
+        } else {
+            // Stub card payments complete as soon as the checkout exists
+            respond(exchange, 200, new JSONObject().put("client_transaction_id", transactionId)
+                    .put("status", "SUCCESSFUL"));
+        }
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        subscribers.add(queue);
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            // Comment line so clients see the stream is open
+            out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            while (true) {
+                String event = queue.poll(15, TimeUnit.SECONDS);
+                if (event == POISON) {
+                    break;
+                }
+                String frame = event == null ? ": keep-alive\n\n" : "event: invalidate\ndata: " + event + "\n\n";
+                out.write(frame.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Client disconnected
+        } finally {
+            subscribers.remove(queue);
+        }
+    }
+
+    private void delayResponse() {
+        long delay = responseDelayMillis;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                body.write(buffer, 0, n);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static JSONObject error(String message) {
+        return new JSONObject().put("success", false).put("error", message);
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -1,25 +1,34 @@
 // SumUp tEUR Payment Activity
 // Android activity demonstrating SumUp integration for tEUR payments
 
+import android.content.Intent;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.nfc.NdefMessage;
-import android.nfc.NdefRecord;
 import android.os.Bundle;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
+import com.teur.client.AndroidNfcTagSource;
+import com.teur.client.NfcReader;
+import com.teur.client.PaymentEventLog;
+import com.teur.client.PaymentLedger;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import java.io.File;
+import java.io.IOException;
 
 public class SumUpPaymentActivity extends AppCompatActivity {
 
     private SumUpTEurIntegration sumUpIntegration;
+    private PaymentEventLog eventLog;
     private TextView statusText;
     private Button payButton;
-    private NfcAdapter nfcAdapter;
+    private AndroidNfcTagSource nfcSource;
+    private NfcReader nfcReader;
+    private volatile PaymentLedger ledger;
+    private File seenPaymentsFile;
 
     // SumUp configuration - replace with your actual credentials
     private static final String SUMUP_API_KEY = "your-sumup-api-key";
@@ -37,11 +46,36 @@ public class SumUpPaymentActivity extends AppCompatActivity {
         // Initialize SumUp integration
         sumUpIntegration = new SumUpTEurIntegration(SUMUP_API_KEY, SUMUP_MERCHANT_CODE);
 
-        // Initialize NFC
-        nfcAdapter = NfcAdapter.getDefaultAdapter(this);
-        if (nfcAdapter == null) {
+        // Open the on-device payment ledger; it scans the whole file, so not
+        // on the UI thread
+        new Thread(this::openLedger, "teur-ledger-open").start();
+
+        // Structured tap/release events, written off the payment path
+        try {
+            eventLog = PaymentEventLog.open(new File(getFilesDir(), "events"), PaymentEventLog.Format.NDJSON, 4096);
+        } catch (IOException e) {
+            eventLog = PaymentEventLog.disabled();
+        }
+        sumUpIntegration.setEventLog(eventLog);
+
+        // Restore recently released payment IDs so replays are rejected after a restart
+        seenPaymentsFile = new File(getFilesDir(), "teur-seen-payments.bin");
+        try {
+            sumUpIntegration.getSeenPayments().loadSnapshot(seenPaymentsFile);
+        } catch (IOException e) {
+            // Start with an empty cache; the server still rejects duplicates
+        }
+
+        // Initialize NFC: taps are read on the reader's own I/O thread and
+        // picked up by processTEurPayment
+        nfcSource = new AndroidNfcTagSource(this);
+        nfcReader = new NfcReader(nfcSource);
+        sumUpIntegration.setNfcReader(nfcReader);
+        if (!nfcSource.isAvailable()) {
             Toast.makeText(this, "NFC not available on this device", Toast.LENGTH_LONG).show();
         }
+        // The activity may have been launched by a tap
+        handleNfcIntent(getIntent());
 
         // Set up payment button
         payButton.setOnClickListener(v -> processPayment());
@@ -88,9 +122,12 @@ public class SumUpPaymentActivity extends AppCompatActivity {
                         readerId // Reader ID
                 );
 
+                saveSeenPayments();
+                String todaySummary = ledger == null ? "" : formatTodayTotals();
+
                 runOnUiThread(() -> {
                     if (success) {
-                        statusText.setText("Payment successful! tEUR tokens released.");
+                        statusText.setText("Payment successful! tEUR tokens released." + todaySummary);
                         Toast.makeText(this, "tEUR tokens released!", Toast.LENGTH_LONG).show();
                     } else {
                         statusText.setText("Payment failed");
@@ -109,58 +146,94 @@ public class SumUpPaymentActivity extends AppCompatActivity {
         }).start();
     }
 
+    private void openLedger() {
+        PaymentLedger opened;
+        try {
+            opened = PaymentLedger.open(new File(getFilesDir(), "teur-ledger.bin"));
+        } catch (IOException e) {
+            runOnUiThread(() -> Toast.makeText(this, "Local ledger unavailable: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show());
+            return;
+        }
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                try {
+                    opened.close();
+                } catch (IOException e) {
+                    // Nothing was written through this instance
+                }
+                return;
+            }
+            ledger = opened;
+            sumUpIntegration.setLedger(opened);
+            if (opened.corruptRecords() > 0) {
+                Toast.makeText(this, "Local ledger: " + opened.corruptRecords() + " damaged records skipped",
+                        Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    private void saveSeenPayments() {
+        try {
+            sumUpIntegration.getSeenPayments().writeSnapshot(seenPaymentsFile);
+        } catch (IOException e) {
+            // Best effort; the next payment writes it again
+        }
+    }
+
+    private String formatTodayTotals() {
+        PaymentLedger.DailyTotals today = ledger.totalsForDay(System.currentTimeMillis());
+        long released = today.amountMinor(PaymentLedger.Status.RELEASED);
+        return String.format("\nToday: %d payments, €%d.%02d",
+                today.count(PaymentLedger.Status.RELEASED), released / 100, released % 100);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        nfcReader.close();
+        eventLog.close();
+        saveSeenPayments();
+        if (ledger != null) {
+            try {
+                ledger.close();
+            } catch (IOException e) {
+                // Records are already on disk; nothing else to do on shutdown
+            }
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
-        // Enable NFC foreground dispatch for reading NFC tags
-        if (nfcAdapter != null) {
-            // Set up NFC intent filters (implementation depends on your NFC requirements)
-        }
+        // Reader mode while in the foreground; tags no longer go through intents
+        nfcReader.start();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        // Disable NFC foreground dispatch
-        if (nfcAdapter != null) {
-            // Clean up NFC handling
-        }
+        nfcReader.stop();
     }
 
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
+        handleNfcIntent(intent);
+    }
 
-        // Handle NFC tag discovery
-        if (NfcAdapter.ACTION_TAG_DISCOVERED.equals(intent.getAction())) {
+    private void handleNfcIntent(Intent intent) {
+        String action = intent == null ? null : intent.getAction();
+        if (NfcAdapter.ACTION_NDEF_DISCOVERED.equals(action)
+                || NfcAdapter.ACTION_TECH_DISCOVERED.equals(action)
+                || NfcAdapter.ACTION_TAG_DISCOVERED.equals(action)) {
             Tag tag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
             if (tag != null) {
-                // Process NFC tag for payment data
-                processNFCTag(tag);
-            }
-        }
-    }
-
-    private void processNFCTag(Tag tag) {
-        // Read NDEF message from NFC tag
-        NdefMessage[] messages = getNdefMessages(intent);
-        if (messages != null && messages.length > 0) {
-            for (NdefMessage message : messages) {
-                for (NdefRecord record : message.getRecords()) {
-                    // Extract payment data from NDEF record
-                    String payload = new String(record.getPayload());
-                    // Parse payment ID and secret from payload
-                    // Update the integration with extracted data
-                }
+                // Read on the NFC I/O thread, not here on the UI thread
+                nfcReader.submit(AndroidNfcTagSource.handle(tag));
             }
         }
     }
-
-    private NdefMessage[] getNdefMessages(Intent intent) {
-        // Helper method to extract NDEF messages from NFC intent
-        // Implementation depends on your NFC tag format
-        return null;
-    }
 }
 
 /*
@@ -10,26 +10,173 @@
 // implementation 'com.squareup.okhttp3:okhttp:latest-version'
 // implementation 'org.json:json:latest-version'
 
+import com.teur.client.PaymentTracer;
+import com.teur.client.NfcPaymentData;
+import com.teur.client.NfcReader;
+import com.teur.client.PaymentEventLog;
+import com.teur.client.PaymentLedger;
+import com.teur.client.SeenPaymentCache;
 import okhttp3.*;
 import org.json.JSONObject;
 import org.json.JSONArray;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SumUpTEurIntegration {
 
+    private static final String SERVICE_NAME = "teur-sumup-integration";
     private static final String SUMUP_API_BASE_URL = "https://api.sumup.com/v0.1";
     private static final String TEUR_API_BASE_URL = "http://your-api-url/api/v1"; // Replace with actual API URL
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    // Longest a duplicate release waits for the one in flight (OkHttp connect + write + read)
+    private static final long JOINED_RELEASE_WAIT_MILLIS = 30_000L;
 
     private final OkHttpClient client;
     private final String apiKey;
     private final String merchantCode;
+    private final PaymentTracer tracer;
+    private final String sumUpBaseUrl;
+    private final String teurBaseUrl;
+    private volatile long completionWaitMillis = 2000;
+    private volatile NfcReader nfcReader;
+    private volatile long nfcTapTimeoutMillis = 30000;
+    private volatile PaymentEventLog eventLog = PaymentEventLog.disabled();
+    private volatile PaymentLedger ledger;
+    private volatile PaymentStateCache stateCache;
+    private final SeenPaymentCache seenPayments = new SeenPaymentCache();
 
     public SumUpTEurIntegration(String apiKey, String merchantCode) {
-        this.client = new OkHttpClient();
+        this(apiKey, merchantCode, new PaymentTracer(SERVICE_NAME));
+    }
+
+    public SumUpTEurIntegration(String apiKey, String merchantCode, PaymentTracer tracer) {
+        this(apiKey, merchantCode, tracer, SUMUP_API_BASE_URL, TEUR_API_BASE_URL);
+    }
+
+    /**
+     * @param sumUpBaseUrl SumUp API base URL, e.g. https://api.sumup.com/v0.1
+     * @param teurBaseUrl  tEUR API base URL, e.g. https://host/api/v1
+     */
+    public SumUpTEurIntegration(String apiKey, String merchantCode, PaymentTracer tracer,
+            String sumUpBaseUrl, String teurBaseUrl) {
+        this.tracer = tracer;
+        this.client = new OkHttpClient.Builder()
+                .addInterceptor(tracer.interceptor())
+                .build();
         this.apiKey = apiKey;
         this.merchantCode = merchantCode;
+        this.sumUpBaseUrl = sumUpBaseUrl;
+        this.teurBaseUrl = teurBaseUrl;
+    }
+
+    /**
+     * Tracer recording spans for payments processed by this integration
+     */
+    public PaymentTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * How long processTEurPayment waits for the card payment to complete
+     * before reading the tEUR payment data (default 2000 ms)
+     */
+    public void setCompletionWaitMillis(long completionWaitMillis) {
+        this.completionWaitMillis = completionWaitMillis;
+    }
+
+    /**
+     * Attaches the NFC reader the customer taps on; processTEurPayment takes
+     * the payment ID and secret from its newest tap
+     */
+    public void setNfcReader(NfcReader nfcReader) {
+        this.nfcReader = nfcReader;
+    }
+
+    /**
+     * How long processTEurPayment waits for a tap when none is queued (default 30000 ms)
+     */
+    public void setNfcTapTimeoutMillis(long nfcTapTimeoutMillis) {
+        this.nfcTapTimeoutMillis = nfcTapTimeoutMillis;
+    }
+
+    /**
+     * Attaches a structured event log for payment and NFC events (none by default)
+     */
+    public void setEventLog(PaymentEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    String getSumUpBaseUrl() {
+        return sumUpBaseUrl;
+    }
+
+    String getTeurBaseUrl() {
+        return teurBaseUrl;
+    }
+
+    String getApiKey() {
+        return apiKey;
+    }
+
+    String getMerchantCode() {
+        return merchantCode;
+    }
+
+    OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Attaches a local ledger; processed payments are recorded in it
+     */
+    public void setLedger(PaymentLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    public PaymentLedger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Recently released and in-flight payment IDs; snapshot it across restarts
+     */
+    public SeenPaymentCache getSeenPayments() {
+        return seenPayments;
+    }
+
+    /**
+     * Attaches a payment state cache; entries are evicted after local releases
+     */
+    public void setStateCache(PaymentStateCache stateCache) {
+        this.stateCache = stateCache;
+    }
+
+    /**
+     * Creates a state cache against the tEUR API sharing this integration's
+     * connection pool and tracing
+     */
+    public PaymentStateCache newStateCache(String teurApiKey, int maxEntries, long ttlMillis) {
+        return new PaymentStateCache(client, teurBaseUrl, teurApiKey, maxEntries, ttlMillis);
+    }
+
+    /**
+     * Creates a fee engine whose schedule comes from the tEUR API, sharing this
+     * integration's connection pool; call start() to keep it refreshed
+     */
+    public FeeEngine newFeeEngine(String teurApiKey) {
+        return new FeeEngine(FeeEngine.httpSource(client, teurBaseUrl + "/parameters/fees", teurApiKey));
+    }
+
+    /**
+     * Euro amount in minor units, rounded to the nearest cent; used for every
+     * amount this integration traces, records or sends
+     */
+    static long toMinorUnits(double amount) {
+        return Math.round(amount * 100);
     }
 
     /**
@@ -45,7 +192,7 @@ public class SumUpTEurIntegration {
 
         RequestBody body = RequestBody.create(checkoutData.toString(), JSON);
         Request request = new Request.Builder()
-                .url(SUMUP_API_BASE_URL + "/checkouts")
+                .url(sumUpBaseUrl + "/checkouts")
                 .post(body)
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .build();
@@ -73,7 +220,7 @@ public class SumUpTEurIntegration {
 
         RequestBody body = RequestBody.create(paymentData.toString(), JSON);
         Request request = new Request.Builder()
-                .url(SUMUP_API_BASE_URL + "/checkouts/" + checkoutId)
+                .url(sumUpBaseUrl + "/checkouts/" + checkoutId)
                 .put(body)
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .build();
@@ -93,21 +240,41 @@ public class SumUpTEurIntegration {
      * Processes payment with physical SumUp reader
      */
     public String processWithReader(String readerId, double amount, String description) throws IOException {
+        return processWithReaderMinor(readerId, toMinorUnits(amount), description);
+    }
+
+    /**
+     * Processes payment with physical SumUp reader; the amount is in minor
+     * units and sent unchanged
+     */
+    public String processWithReaderMinor(String readerId, long amountMinor, String description) throws IOException {
+        return processWithReaderMinor(readerId, amountMinor, description, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Processes payment with physical SumUp reader under a caller-chosen
+     * reference, sent as the idempotency key and as foreign_transaction_id so
+     * the checkout can be found again with {@link #findReaderCheckout(String)}
+     */
+    public String processWithReaderMinor(String readerId, long amountMinor, String description, String reference)
+            throws IOException {
         JSONObject checkoutData = new JSONObject();
 
         JSONObject amountData = new JSONObject();
         amountData.put("currency", "EUR");
         amountData.put("minor_unit", 2);
-        amountData.put("value", (int) (amount * 100)); // Convert to minor units
+        amountData.put("value", amountMinor);
 
         checkoutData.put("total_amount", amountData);
         checkoutData.put("description", description);
+        checkoutData.put("foreign_transaction_id", reference);
 
         RequestBody body = RequestBody.create(checkoutData.toString(), JSON);
         Request request = new Request.Builder()
-                .url(SUMUP_API_BASE_URL + "/merchants/" + merchantCode + "/readers/" + readerId + "/checkout")
+                .url(sumUpBaseUrl + "/merchants/" + merchantCode + "/readers/" + readerId + "/checkout")
                 .post(body)
                 .addHeader("Authorization", "Bearer " + apiKey)
+                .addHeader("Idempotency-Key", reference)
                 .build();
 
         try (Response response = client.newCall(request).execute()) {
@@ -121,12 +288,51 @@ public class SumUpTEurIntegration {
         }
     }
 
+    /**
+     * Client transaction ID of the reader checkout created with
+     * {@code reference}, or null if SumUp has none
+     */
+    public String findReaderCheckout(String reference) throws IOException {
+        JSONObject transaction = lookUpReaderCheckout(reference);
+        return transaction != null ? transaction.getString("client_transaction_id") : null;
+    }
+
+    /**
+     * Status of the reader checkout created with {@code reference} (e.g.
+     * PENDING, SUCCESSFUL, FAILED, CANCELLED), or null if SumUp has none
+     */
+    public String getReaderCheckoutStatus(String reference) throws IOException {
+        JSONObject transaction = lookUpReaderCheckout(reference);
+        return transaction != null ? transaction.optString("status", "PENDING") : null;
+    }
+
+    private JSONObject lookUpReaderCheckout(String reference) throws IOException {
+        HttpUrl url = HttpUrl.get(sumUpBaseUrl + "/me/transactions").newBuilder()
+                .addQueryParameter("foreign_transaction_id", reference)
+                .build();
+        Request request = new Request.Builder()
+                .url(url)
+                .get()
+                .addHeader("Authorization", "Bearer " + apiKey)
+                .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 404) {
+                return null;
+            } else if (response.isSuccessful()) {
+                return new JSONObject(response.body().string());
+            } else {
+                throw new IOException("Failed to look up reader checkout: " + response.body().string());
+            }
+        }
+    }
+
     /**
      * Retrieves checkout status
      */
     public String getCheckoutStatus(String checkoutId) throws IOException {
         Request request = new Request.Builder()
-                .url(SUMUP_API_BASE_URL + "/checkouts/" + checkoutId)
+                .url(sumUpBaseUrl + "/checkouts/" + checkoutId)
                 .get()
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .build();
@@ -142,22 +348,100 @@ public class SumUpTEurIntegration {
     }
 
     /**
-     * Releases tEUR tokens after successful payment
+     * Releases tEUR tokens after successful payment.
+     * A payment already released from this client returns false without a
+     * request. A release of an ID already in flight waits for that call to
+     * finish (up to JOINED_RELEASE_WAIT_MILLIS) and then returns false: the
+     * tokens went to whoever started it, not to this caller.
      */
     public boolean releaseTEurTokens(String paymentId, String secret) throws IOException {
-        JSONObject releaseData = new JSONObject();
-        releaseData.put("paymentId", paymentId);
-        releaseData.put("secret", secret);
+        return releaseAndRecord(paymentId, secret, null, null);
+    }
 
-        RequestBody body = RequestBody.create(releaseData.toString(), JSON);
-        Request request = new Request.Builder()
-                .url(TEUR_API_BASE_URL + "/payments/" + paymentId + "/release")
-                .post(body)
-                .addHeader("X-API-Key", "your-api-key") // Replace with actual key
-                .build();
+    /**
+     * @param ledgerAmountMinor amount to record in the ledger, or null to leave
+     *                          it alone. Recorded only once this call owns the
+     *                          release, so a duplicate never overwrites the
+     *                          entry of the original.
+     */
+    private boolean releaseAndRecord(String paymentId, String secret, Long ledgerAmountMinor, String transactionId)
+            throws IOException {
+        PaymentTracer.Span span = tracer.currentSpan();
+        String traceId = span == null ? null : span.getTraceId();
+        SeenPaymentCache.Attempt attempt = null;
+        boolean recorded = false;
+        boolean released = false;
+        try {
+            attempt = seenPayments.begin(paymentId);
+            if (attempt.alreadyReleased) {
+                eventLog.log(PaymentEventLog.Event.RELEASE_DUPLICATE, paymentId, 0, traceId);
+                return false;
+            }
+            if (!attempt.owner) {
+                eventLog.log(PaymentEventLog.Event.RELEASE_JOINED, paymentId, 0, traceId);
+                awaitInFlight(attempt);
+                return false;
+            }
+            if (ledgerAmountMinor != null) {
+                if (releasedBy(paymentId, null)) {
+                    // Released before a restart emptied the seen-payment cache; keep that entry intact
+                    eventLog.log(PaymentEventLog.Event.REPLAY_REJECTED, paymentId, 0, traceId);
+                    seenPayments.markReleased(paymentId);
+                    return false;
+                }
+                recordInLedger(paymentId, ledgerAmountMinor, PaymentLedger.Status.PENDING, transactionId);
+                recorded = true;
+            }
 
-        try (Response response = client.newCall(request).execute()) {
-            return response.isSuccessful();
+            JSONObject releaseData = new JSONObject();
+            releaseData.put("paymentId", paymentId);
+            releaseData.put("secret", secret);
+
+            RequestBody body = RequestBody.create(releaseData.toString(), JSON);
+            Request request = new Request.Builder()
+                    .url(teurBaseUrl + "/payments/" + paymentId + "/release")
+                    .post(body)
+                    .addHeader("X-API-Key", "your-api-key") // Replace with actual key
+                    .build();
+
+            long startNanos = System.nanoTime();
+            eventLog.log(PaymentEventLog.Event.RELEASE_SENT, paymentId, 0, traceId);
+            try (Response response = client.newCall(request).execute()) {
+                PaymentStateCache cache = stateCache;
+                if (cache != null) {
+                    cache.invalidatePayment(paymentId);
+                }
+                released = response.isSuccessful();
+                if (released) {
+                    eventLog.log(PaymentEventLog.Event.RELEASE_SUCCEEDED, paymentId,
+                            (System.nanoTime() - startNanos) / 1_000_000L, traceId);
+                } else {
+                    eventLog.log(PaymentEventLog.Event.RELEASE_REJECTED, paymentId, response.code(), traceId);
+                }
+                return released;
+            } catch (IOException e) {
+                eventLog.log(PaymentEventLog.Event.RELEASE_FAILED, paymentId, 0, traceId, e);
+                throw e;
+            }
+        } finally {
+            if (attempt != null && attempt.owner) {
+                if (recorded) {
+                    recordInLedger(paymentId, ledgerAmountMinor,
+                            released ? PaymentLedger.Status.RELEASED : PaymentLedger.Status.FAILED, transactionId);
+                }
+                seenPayments.finish(paymentId, released);
+            }
+        }
+    }
+
+    private static void awaitInFlight(SeenPaymentCache.Attempt attempt) throws IOException {
+        try {
+            attempt.outcome.get(JOINED_RELEASE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for in-flight release");
+        } catch (ExecutionException | TimeoutException e) {
+            // Same answer either way: this caller did not release anything
         }
     }
 
@@ -166,7 +450,7 @@ public class SumUpTEurIntegration {
      */
     public JSONArray listReaders() throws IOException {
         Request request = new Request.Builder()
-                .url(SUMUP_API_BASE_URL + "/merchants/" + merchantCode + "/readers")
+                .url(sumUpBaseUrl + "/merchants/" + merchantCode + "/readers")
                 .get()
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .build();
@@ -186,7 +470,7 @@ public class SumUpTEurIntegration {
      */
     public JSONObject getReaderStatus(String readerId) throws IOException {
         Request request = new Request.Builder()
-                .url(SUMUP_API_BASE_URL + "/merchants/" + merchantCode + "/readers/" + readerId + "/status")
+                .url(sumUpBaseUrl + "/merchants/" + merchantCode + "/readers/" + readerId + "/status")
                 .get()
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .build();
@@ -204,38 +488,213 @@ public class SumUpTEurIntegration {
      * Main payment flow for tEUR using SumUp
      */
     public boolean processTEurPayment(double amount, String description, String readerId) {
-        try {
-            // Step 1: Process payment with SumUp reader
-            String transactionId = processWithReader(readerId, amount, description);
+        try (PaymentTracer.Span payment = tracer.startSpan("processTEurPayment")) {
+            long amountMinor = toMinorUnits(amount);
+            payment.setAttribute("payment.amount_minor", amountMinor);
+            try {
+                // Step 1: Process payment with SumUp reader
+                String transactionId;
+                try (PaymentTracer.Span step = tracer.startSpan("sumup.reader_checkout")) {
+                    transactionId = processWithReader(readerId, amount, description);
+                    step.setAttribute("sumup.client_transaction_id", transactionId);
+                }
+                payment.setAttribute("sumup.client_transaction_id", transactionId);
+
+                // Step 2: Wait for payment completion (in real implementation, use webhooks)
+                try (PaymentTracer.Span step = tracer.startSpan("sumup.await_completion")) {
+                    step.setAttribute("sumup.wait_ms", completionWaitMillis);
+                    Thread.sleep(completionWaitMillis); // Simple delay for demo
+                }
+
+                // Step 3: Verify payment status
+                // In real implementation, check transaction status via API
+
+                // Step 4: Take the payment data from the customer's NFC tap
+                String paymentId;
+                String secret;
+                String payer;
+                try (PaymentTracer.Span step = tracer.startSpan("nfc.extract")) {
+                    NfcPaymentData tap = awaitNfcPaymentData();
+                    paymentId = tap.paymentId;
+                    secret = tap.secret;
+                    payer = tap.payer;
+                    step.setAttribute("nfc.amount_present", tap.amountMinor != null);
+                    // Binary taps may carry the amount the customer's wallet authorized
+                    if (tap.amountMinor != null && tap.amountMinor != amountMinor) {
+                        eventLog.log(PaymentEventLog.Event.TAP_AMOUNT_MISMATCH, paymentId, tap.amountMinor,
+                                payment.getTraceId());
+                        return false;
+                    }
+                }
+
+                // A replayed tag must not touch the ledger entry of the original release
+                if (seenPayments.isReleased(paymentId)) {
+                    eventLog.log(PaymentEventLog.Event.REPLAY_REJECTED, paymentId, 0, payment.getTraceId());
+                    return false;
+                }
+
+                // Step 5: Release tEUR tokens
+                try (PaymentTracer.Span step = tracer.startSpan("teur.release")) {
+                    boolean released = releaseAndRecord(paymentId, secret, amountMinor, transactionId);
+                    step.setAttribute("payment.released", released);
+                    payment.setAttribute("payment.released", released);
+                    PaymentStateCache cache = stateCache;
+                    if (cache != null && payer != null) {
+                        // The payment may not be cached, so its payer can't be found from it
+                        cache.invalidateWallet(payer);
+                    }
+                    return released;
+                }
+
+            } catch (Exception e) {
+                payment.setError(e.getClass().getSimpleName());
+                eventLog.log(PaymentEventLog.Event.PAYMENT_FAILED, null, 0, payment.getTraceId(), e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The steps of processTEurPayment for use with a PaymentWorkflowEngine, so
+     * a payment interrupted by a restart resumes from its last completed step
+     */
+    public PaymentWorkflowEngine.Steps workflowSteps() {
+        return new PaymentWorkflowEngine.Steps() {
+            @Override
+            public String checkout(PaymentWorkflowEngine.Workflow workflow) throws IOException {
+                try (PaymentTracer.Span step = tracer.startSpan("sumup.reader_checkout")) {
+                    String transactionId = processWithReaderMinor(workflow.readerId, workflow.amountMinor,
+                            workflow.description, workflow.getCheckoutReference());
+                    step.setAttribute("sumup.client_transaction_id", transactionId);
+                    return transactionId;
+                }
+            }
 
-            // Step 2: Wait for payment completion (in real implementation, use webhooks)
-            Thread.sleep(2000); // Simple delay for demo
+            @Override
+            public String findCheckout(PaymentWorkflowEngine.Workflow workflow) throws IOException {
+                return findReaderCheckout(workflow.getCheckoutReference());
+            }
 
-            // Step 3: Verify payment status
-            // In real implementation, check transaction status via API
+            @Override
+            public boolean isCheckoutComplete(PaymentWorkflowEngine.Workflow workflow)
+                    throws IOException, PaymentWorkflowEngine.RejectedException {
+                // Polled by the engine until the card payment settles either way
+                String status = getReaderCheckoutStatus(workflow.getCheckoutReference());
+                if ("FAILED".equals(status) || "CANCELLED".equals(status)) {
+                    throw new PaymentWorkflowEngine.RejectedException("Card payment ended as " + status);
+                }
+                return "SUCCESSFUL".equals(status);
+            }
 
-            // Step 4: Extract payment data from NFC/QR (placeholder)
-            String paymentId = extractPaymentIdFromNFC();
-            String secret = extractSecretFromNFC();
+            @Override
+            public String[] extractPaymentData(PaymentWorkflowEngine.Workflow workflow)
+                    throws PaymentWorkflowEngine.RejectedException {
+                // Polled by the engine; never holds a worker waiting for the customer
+                NfcPaymentData tap = takeNfcPaymentData();
+                if (tap == null) {
+                    return null;
+                }
+                try (PaymentTracer.Span step = tracer.startSpan("nfc.extract")) {
+                    step.setAttribute("nfc.amount_present", tap.amountMinor != null);
+                    if (tap.amountMinor != null && tap.amountMinor != workflow.amountMinor) {
+                        eventLog.log(PaymentEventLog.Event.TAP_AMOUNT_MISMATCH, tap.paymentId, tap.amountMinor,
+                                step.getTraceId());
+                        throw new PaymentWorkflowEngine.RejectedException("Tapped amount does not match the payment");
+                    }
+                    return new String[] { tap.paymentId, tap.secret };
+                }
+            }
 
-            // Step 5: Release tEUR tokens
-            return releaseTEurTokens(paymentId, secret);
+            @Override
+            public boolean release(PaymentWorkflowEngine.Workflow workflow) throws IOException {
+                String paymentId = workflow.getPaymentId();
+                if (releasedBy(paymentId, workflow.getTransactionId())) {
+                    // Released before a restart; the workflow log just missed the final step
+                    return true;
+                }
+                if (seenPayments.isReleased(paymentId)) {
+                    // Released for another payment: a replayed tag
+                    eventLog.log(PaymentEventLog.Event.REPLAY_REJECTED, paymentId, 0, null);
+                    return false;
+                }
+                try (PaymentTracer.Span step = tracer.startSpan("teur.release")) {
+                    boolean released = releaseAndRecord(paymentId, workflow.getSecret(), workflow.amountMinor,
+                            workflow.getTransactionId());
+                    step.setAttribute("payment.released", released);
+                    return released;
+                }
+            }
+        };
+    }
 
-        } catch (Exception e) {
-            System.err.println("Payment processing failed: " + e.getMessage());
+    /**
+     * Whether the ledger shows the payment released, for the given SumUp
+     * transaction or, if {@code transactionId} is null, for any
+     */
+    private boolean releasedBy(String paymentId, String transactionId) {
+        PaymentLedger ledger = this.ledger;
+        if (ledger == null) {
             return false;
         }
+        try {
+            PaymentLedger.Entry entry = ledger.find(paymentId);
+            return entry != null && entry.status == PaymentLedger.Status.RELEASED
+                    && (transactionId == null || transactionId.equals(entry.sumupTransactionId));
+        } catch (IOException | RuntimeException e) {
+            // Unreadable ledger: no proof of a release
+            return false;
+        }
+    }
+
+    private void recordInLedger(String paymentId, long amountMinor, PaymentLedger.Status status,
+            String transactionId) {
+        PaymentLedger ledger = this.ledger;
+        if (ledger == null) {
+            return;
+        }
+        try {
+            ledger.record(paymentId, amountMinor, status, transactionId);
+        } catch (IOException | RuntimeException e) {
+            // The ledger is a local convenience; never fail a payment because of it
+            eventLog.log(PaymentEventLog.Event.LEDGER_WRITE_FAILED, paymentId, 0, null, e);
+        }
     }
 
-    // Placeholder methods for NFC reading (implement with Android NFC APIs)
-    private String extractPaymentIdFromNFC() {
-        // Implement NFC NDEF reading to extract payment ID
-        return "payment-id-from-nfc";
+    /**
+     * Newest tap from the attached NFC reader, waiting for one if none is queued
+     */
+    private NfcPaymentData awaitNfcPaymentData() throws IOException, InterruptedException {
+        NfcReader reader = nfcReader;
+        if (reader == null) {
+            // No reader attached (demo and server-side use)
+            return new NfcPaymentData("payment-id-from-nfc", "secret-from-nfc", null);
+        }
+        NfcReader.Tap tap = reader.latest();
+        if (tap == null) {
+            tap = reader.poll(nfcTapTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (tap == null) {
+            eventLog.log(PaymentEventLog.Event.TAP_MISSING, null, nfcTapTimeoutMillis);
+            throw new IOException("No NFC tap within " + nfcTapTimeoutMillis + " ms");
+        }
+        eventLog.log(PaymentEventLog.Event.TAP_READ, tap.data.paymentId, tap.readNanos() / 1000);
+        return tap.data;
     }
 
-    private String extractSecretFromNFC() {
-        // Implement NFC NDEF reading to extract secret
-        return "secret-from-nfc";
+    /**
+     * Newest tap from the attached NFC reader without waiting; null if none is queued
+     */
+    private NfcPaymentData takeNfcPaymentData() {
+        NfcReader reader = nfcReader;
+        if (reader == null) {
+            return new NfcPaymentData("payment-id-from-nfc", "secret-from-nfc", null);
+        }
+        NfcReader.Tap tap = reader.latest();
+        if (tap == null) {
+            return null;
+        }
+        eventLog.log(PaymentEventLog.Event.TAP_READ, tap.data.paymentId, tap.readNanos() / 1000);
+        return tap.data;
     }
 }
 
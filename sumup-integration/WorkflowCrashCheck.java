@@ -0,0 +1,236 @@
+// Workflow Crash Check
+// Kills a PaymentWorkflowEngine mid-step and checks what the next start does
+//
+// Each scenario starts a child JVM that runs one workflow through
+// SumUpTEurIntegration.workflowSteps() against StubTEurServer and is killed
+// (no shutdown hooks, no close) at a chosen point:
+// - before-checkout: CHECKOUT_STARTED logged, SumUp not called yet
+// - after-checkout:  SumUp has the checkout, CHECKED_OUT not logged yet
+// - after-release:   tokens released and in the ledger, RELEASED not logged
+// The parent then reopens the directory, resumes, and checks that the card was
+// charged exactly once and the tokens released exactly once. It also checks
+// that a second resume() does not drive a workflow twice and that a replayed
+// tag after the restart is rejected. Exits with status 1 on any failure.
+//
+// Usage: java WorkflowCrashCheck
+
+import com.teur.client.PaymentTracer;
+import com.teur.client.PaymentLedger;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkflowCrashCheck {
+
+    private static final long AMOUNT_MINOR = 1250;
+    // Payment ID of the built-in tap used when no NFC reader is attached
+    private static final String DEMO_PAYMENT_ID = "payment-id-from-nfc";
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "child".equals(args[0])) {
+            runChild(new File(args[1]), args[2], args[3], args[4]);
+            return;
+        }
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        checkCheckoutCrash("before-checkout", 1);
+        checkCheckoutCrash("after-checkout", 0);
+        checkReleaseCrash();
+        System.out.println(failures == 0 ? "All checks passed" : failures + " check(s) failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkCheckoutCrash(String crashPoint, int expectedCheckoutCalls) throws Exception {
+        File directory = Files.createTempDirectory("teur-crash").toFile();
+        try (StubTEurServer stub = new StubTEurServer()) {
+            killChildAt(directory, stub, crashPoint);
+
+            SumUpTEurIntegration sumUp = newIntegration(stub);
+            CountingSteps steps = new CountingSteps(sumUp.workflowSteps());
+            try (PaymentWorkflowEngine engine = PaymentWorkflowEngine.open(directory, steps, 2)) {
+                engine.setPollIntervalMillis(10);
+                expect(crashPoint + ": workflow recovered", engine.inFlight().size() == 1);
+                long id = engine.inFlight().get(0).id;
+                int resumed = engine.resume();
+                int resumedAgain = engine.resume();
+                expect(crashPoint + ": second resume() schedules nothing", resumed == 1 && resumedAgain == 0);
+                expect(crashPoint + ": workflow released", await(engine.outcome(id)));
+            }
+            expect(crashPoint + ": checkout() called " + expectedCheckoutCalls + " time(s) after restart",
+                    steps.checkouts.get() == expectedCheckoutCalls);
+            expect(crashPoint + ": card charged once", stub.checkoutCount() == 1);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static void checkReleaseCrash() throws Exception {
+        File directory = Files.createTempDirectory("teur-crash").toFile();
+        try (StubTEurServer stub = new StubTEurServer()) {
+            // Known to the stub, so a second release is refused with 409
+            stub.putPayment(DEMO_PAYMENT_ID, AMOUNT_MINOR, "pending");
+            killChildAt(directory, stub, "after-release");
+
+            SumUpTEurIntegration sumUp = newIntegration(stub);
+            CountingSteps steps = new CountingSteps(sumUp.workflowSteps());
+            try (PaymentLedger ledger = PaymentLedger.open(new File(directory, "ledger.bin"));
+                    PaymentWorkflowEngine engine = PaymentWorkflowEngine.open(directory, steps, 2)) {
+                sumUp.setLedger(ledger);
+                engine.setPollIntervalMillis(10);
+                long id = engine.inFlight().get(0).id;
+                engine.resume();
+                expect("after-release: workflow released", await(engine.outcome(id)));
+                int requests = stub.requestCount();
+
+                // The same tag again, now for a new sale
+                CompletableFuture<Boolean> replay = engine.submit(AMOUNT_MINOR, "Replay", "rdr_stub");
+                expect("after-release: replayed tag fails the new workflow", !await(replay));
+                PaymentLedger.Entry entry = ledger.find(DEMO_PAYMENT_ID);
+                expect("after-release: ledger keeps the original release",
+                        entry != null && entry.status == PaymentLedger.Status.RELEASED);
+                // Only the new sale's reader checkout and its status lookup
+                expect("after-release: replay sent no release", stub.requestCount() - requests == 2);
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Runs one workflow in a child JVM and kills it once it reaches {@code crashPoint}
+     */
+    private static void killChildAt(File directory, StubTEurServer stub, String crashPoint) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(WorkflowCrashCheck.class.getName());
+        command.add("child");
+        command.add(directory.getPath());
+        command.add(stub.sumUpBaseUrl());
+        command.add(stub.baseUrl());
+        command.add(crashPoint);
+        Process child = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader out = new BufferedReader(
+                new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = out.readLine()) != null && !line.equals(crashPoint)) {
+                System.out.println("  child: " + line);
+            }
+            if (line == null) {
+                throw new IOException("Child exited before " + crashPoint);
+            }
+        } finally {
+            child.destroyForcibly();
+            child.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void runChild(File directory, String sumUpBaseUrl, String teurBaseUrl, String crashPoint)
+            throws Exception {
+        SumUpTEurIntegration sumUp = new SumUpTEurIntegration("key", "MERCHANT", new PaymentTracer(),
+                sumUpBaseUrl, teurBaseUrl);
+        sumUp.setLedger(PaymentLedger.open(new File(directory, "ledger.bin")));
+        PaymentWorkflowEngine.Steps delegate = sumUp.workflowSteps();
+        PaymentWorkflowEngine.Steps steps = new CountingSteps(delegate) {
+            @Override
+            public String checkout(PaymentWorkflowEngine.Workflow workflow) throws Exception {
+                haltIf("before-checkout", crashPoint);
+                String transactionId = delegate.checkout(workflow);
+                haltIf("after-checkout", crashPoint);
+                return transactionId;
+            }
+
+            @Override
+            public boolean release(PaymentWorkflowEngine.Workflow workflow) throws Exception {
+                boolean released = delegate.release(workflow);
+                haltIf("after-release", crashPoint);
+                return released;
+            }
+        };
+        PaymentWorkflowEngine engine = PaymentWorkflowEngine.open(directory, steps, 1);
+        engine.setPollIntervalMillis(10);
+        engine.submit(AMOUNT_MINOR, "Crash check", "rdr_stub").get(30, TimeUnit.SECONDS);
+        System.out.println("finished without reaching " + crashPoint);
+    }
+
+    private static void haltIf(String point, String crashPoint) throws InterruptedException {
+        if (point.equals(crashPoint)) {
+            // The parent kills this process as soon as it reads the line
+            System.out.println(point);
+            System.out.flush();
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+
+    private static SumUpTEurIntegration newIntegration(StubTEurServer stub) {
+        return new SumUpTEurIntegration("key", "MERCHANT", new PaymentTracer(), stub.sumUpBaseUrl(), stub.baseUrl());
+    }
+
+    private static boolean await(CompletableFuture<Boolean> outcome) throws Exception {
+        return outcome != null && outcome.get(30, TimeUnit.SECONDS);
+    }
+
+    private static void expect(String name, boolean passed) {
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static class CountingSteps implements PaymentWorkflowEngine.Steps {
+        final PaymentWorkflowEngine.Steps delegate;
+        final AtomicInteger checkouts = new AtomicInteger();
+
+        CountingSteps(PaymentWorkflowEngine.Steps delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String checkout(PaymentWorkflowEngine.Workflow workflow) throws Exception {
+            checkouts.incrementAndGet();
+            return delegate.checkout(workflow);
+        }
+
+        @Override
+        public String findCheckout(PaymentWorkflowEngine.Workflow workflow) throws Exception {
+            return delegate.findCheckout(workflow);
+        }
+
+        @Override
+        public boolean isCheckoutComplete(PaymentWorkflowEngine.Workflow workflow) throws Exception {
+            return delegate.isCheckoutComplete(workflow);
+        }
+
+        @Override
+        public String[] extractPaymentData(PaymentWorkflowEngine.Workflow workflow) throws Exception {
+            return delegate.extractPaymentData(workflow);
+        }
+
+        @Override
+        public boolean release(PaymentWorkflowEngine.Workflow workflow) throws Exception {
+            return delegate.release(workflow);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+// Workflow Recovery Benchmark
+// Measures how long PaymentWorkflowEngine takes to recover and finish in-flight payments
+//
+// Runs on a plain JVM with fake steps (no network). Each round:
+// 1. submits N workflows whose checkout completes but whose card payment never
+//    does, so all N are left in flight, then stops the engine with close()
+// 2. reopens the directory and times recovery (snapshot + log replay)
+// 3. resumes all N on a small worker pool and times until every one is released
+//
+// The stop is orderly, so this measures recovery cost only; WorkflowCrashCheck
+// kills an engine mid-step to check what a real crash leaves behind.
+//
+// Usage: java WorkflowRecoveryBenchmark [workflows] [workerThreads]
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WorkflowRecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int workflows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int workerThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        System.out.println("Workflows: " + workflows + ", worker threads: " + workerThreads);
+        // Log only (no snapshot during the run) vs. periodic snapshots
+        runRound(workflows, workerThreads, Integer.MAX_VALUE);
+        runRound(workflows, workerThreads, 1000);
+    }
+
+    private static void runRound(int workflows, int workerThreads, int snapshotEvery) throws Exception {
+        File directory = Files.createTempDirectory("teur-workflows").toFile();
+        FakeSteps steps = new FakeSteps();
+
+        // Phase 1: leave every workflow waiting for card completion, then stop
+        steps.cardCompletes = false;
+        try (PaymentWorkflowEngine engine = PaymentWorkflowEngine.open(directory, steps, workerThreads)) {
+            engine.setSnapshotEvery(snapshotEvery).setSyncEachRecord(false).setPollIntervalMillis(50);
+            for (int i = 0; i < workflows; i++) {
+                engine.submit(250 + i % 1000, "Benchmark sale", "rdr_bench");
+            }
+            while (steps.checkouts.get() < workflows) {
+                Thread.sleep(10);
+            }
+            // Let the last CHECKED_OUT records reach the log
+            Thread.sleep(200);
+        }
+
+        long logKiB = sizeKiB(new File(directory, "workflows.log"));
+        long snapshotKiB = sizeKiB(new File(directory, "workflows.snap"));
+
+        // Phase 2: recovery
+        steps.cardCompletes = true;
+        long start = System.nanoTime();
+        PaymentWorkflowEngine engine = PaymentWorkflowEngine.open(directory, steps, workerThreads);
+        long recoveredNanos = System.nanoTime() - start;
+        int recovered = engine.inFlight().size();
+
+        // Phase 3: drive everything to completion
+        engine.setSnapshotEvery(snapshotEvery).setSyncEachRecord(false).setPollIntervalMillis(1);
+        start = System.nanoTime();
+        engine.resume();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        while (!engine.inFlight().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long drainedNanos = System.nanoTime() - start;
+        engine.close();
+
+        System.out.printf("snapshotEvery=%s: recovered %d in %.1f ms (log %d KiB, snapshot %d KiB), "
+                + "completed in %.1f ms, checkouts repeated: %d%n",
+                snapshotEvery == Integer.MAX_VALUE ? "never" : Integer.toString(snapshotEvery),
+                recovered, recoveredNanos / 1e6, logKiB, snapshotKiB, drainedNanos / 1e6,
+                steps.checkouts.get() - workflows);
+        deleteRecursively(directory);
+    }
+
+    private static long sizeKiB(File file) {
+        return file.exists() ? file.length() / 1024 : 0;
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static final class FakeSteps implements PaymentWorkflowEngine.Steps {
+        final AtomicLong checkouts = new AtomicLong();
+        final Map<String, String> checkoutsByReference = new ConcurrentHashMap<>();
+        volatile boolean cardCompletes;
+
+        @Override
+        public String checkout(PaymentWorkflowEngine.Workflow workflow) {
+            checkouts.incrementAndGet();
+            String transactionId = "txn-" + workflow.id;
+            checkoutsByReference.put(workflow.getCheckoutReference(), transactionId);
+            return transactionId;
+        }
+
+        @Override
+        public String findCheckout(PaymentWorkflowEngine.Workflow workflow) {
+            return checkoutsByReference.get(workflow.getCheckoutReference());
+        }
+
+        @Override
+        public boolean isCheckoutComplete(PaymentWorkflowEngine.Workflow workflow) {
+            return cardCompletes;
+        }
+
+        @Override
+        public String[] extractPaymentData(PaymentWorkflowEngine.Workflow workflow) {
+            return new String[] { "0xpayment" + workflow.id, "secret-" + workflow.id };
+        }
+
+        @Override
+        public boolean release(PaymentWorkflowEngine.Workflow workflow) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+#!/bin/bash
+# SumUp tEUR Integration - JVM Build Script
+# Packages the integration for server-side JVM workers with an AppCDS archive
+#
+# Produces build/jvm/:
+#   lib/        teur-sumup.jar plus OkHttp, Okio, Kotlin stdlib and org.json
+#   teur.jsa    dynamic AppCDS archive recorded from a StartupBenchmark run
+#   jvm.args    java options (class path + archive) for `java @build/jvm/jvm.args <MainClass>`
+#
+# The archive is only used when the runtime class path starts with the same
+# jars, at the same absolute paths and in the same order, which jvm.args
+# guarantees - build where you run (OUT_DIR=/app in Dockerfile.jvm). Append
+# worker jars after it. Requires JDK 13+ (-XX:ArchiveClassesAtExit).
+#
+# Usage: ./build-jvm.sh [--bench]
+
+set -euo pipefail
+
+SCRIPT_DIR="$(cd "$(dirname "${BASH_SOURCE[0]}")" && pwd)"
+CORE_DIR="${CORE_DIR:-$SCRIPT_DIR/../teur-client-core/src/main/java}"
+OUT_DIR="${OUT_DIR:-$SCRIPT_DIR/build/jvm}"
+MAVEN_REPO="${MAVEN_REPO:-https://repo1.maven.org/maven2}"
+
+# Keep in step with build.gradle
+declare -a DEPENDENCIES=(
+    "com/squareup/okhttp3/okhttp/4.12.0/okhttp-4.12.0.jar"
+    "com/squareup/okio/okio-jvm/3.6.0/okio-jvm-3.6.0.jar"
+    "org/jetbrains/kotlin/kotlin-stdlib/1.8.21/kotlin-stdlib-1.8.21.jar"
+    "org/json/json/20231013/json-20231013.jar"
+)
+
+# Android-only sources, here and in the shared client classes
+EXCLUDED="SumUpPaymentActivity.java|AndroidNfcTagSource.java|NfcTagWriter.java|SumUpIntegrationTest.java"
+
+echo "Fetching dependencies..."
+mkdir -p "$OUT_DIR/lib"
+CLASS_PATH=""
+RUNTIME_CLASS_PATH="$OUT_DIR/lib/teur-sumup.jar"
+for dependency in "${DEPENDENCIES[@]}"; do
+    jar_name="$(basename "$dependency")"
+    if [ ! -f "$OUT_DIR/lib/$jar_name" ]; then
+        curl -fsSL -o "$OUT_DIR/lib/$jar_name" "$MAVEN_REPO/$dependency"
+    fi
+    CLASS_PATH="$CLASS_PATH:$OUT_DIR/lib/$jar_name"
+    RUNTIME_CLASS_PATH="$RUNTIME_CLASS_PATH:$OUT_DIR/lib/$jar_name"
+done
+CLASS_PATH="${CLASS_PATH#:}"
+
+echo "Compiling..."
+rm -rf "$OUT_DIR/classes"
+mkdir -p "$OUT_DIR/classes"
+javac -encoding UTF-8 --release 11 -d "$OUT_DIR/classes" -cp "$CLASS_PATH" \
+    $(ls "$SCRIPT_DIR"/*.java "$CORE_DIR"/com/teur/client/*.java | grep -Ev "$EXCLUDED")
+jar --create --file "$OUT_DIR/lib/teur-sumup.jar" -C "$OUT_DIR/classes" .
+
+# Record every class loaded on the way to and through the first payments.
+# The archive stores the class path as given, so dump with the runtime one.
+echo "Creating AppCDS archive..."
+rm -f "$OUT_DIR/teur.jsa"
+java -XX:ArchiveClassesAtExit="$OUT_DIR/teur.jsa" -cp "$RUNTIME_CLASS_PATH" StartupBenchmark > /dev/null
+
+cat > "$OUT_DIR/jvm.args" <<EOF
+-cp $RUNTIME_CLASS_PATH
+-XX:SharedArchiveFile=$OUT_DIR/teur.jsa
+EOF
+
+if [ "${1:-}" = "--bench" ]; then
+    java -Xshare:off -cp "$RUNTIME_CLASS_PATH" StartupBenchmark --no-warmup
+    java -cp "$RUNTIME_CLASS_PATH" StartupBenchmark --no-warmup
+    java @"$OUT_DIR/jvm.args" StartupBenchmark --no-warmup
+    java @"$OUT_DIR/jvm.args" StartupBenchmark
+fi
+
+echo "Done: $OUT_DIR"
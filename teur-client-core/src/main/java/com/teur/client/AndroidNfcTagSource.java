@@ -0,0 +1,147 @@
+package com.teur.client;
+
+// Android NFC Tag Source
+// Feeds NfcReader from NFC reader mode instead of intent-based foreground dispatch
+//
+// Reader mode delivers tags straight to a binder thread (no activity
+// relaunch or onNewIntent round trip through the UI thread), already holding
+// the NDEF message read during discovery, and lets us set the presence-check delay:
+// the interval at which Android pings a held tag to see whether it left.
+// A short delay notices a removed phone quickly so the next tap is
+// discovered sooner; too short and the pings compete with our own reads.
+
+import android.app.Activity;
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.NfcAdapter;
+import android.nfc.Tag;
+import android.nfc.tech.Ndef;
+import android.os.Bundle;
+import java.io.IOException;
+
+public class AndroidNfcTagSource implements NfcTagSource, NfcAdapter.ReaderCallback {
+
+    private static final int READER_FLAGS = NfcAdapter.FLAG_READER_NFC_A
+            | NfcAdapter.FLAG_READER_NFC_B
+            | NfcAdapter.FLAG_READER_NFC_F
+            | NfcAdapter.FLAG_READER_NFC_V
+            | NfcAdapter.FLAG_READER_NO_PLATFORM_SOUNDS;
+
+    private final Activity activity;
+    private final NfcAdapter adapter;
+    private final int presenceCheckDelayMillis;
+    private volatile Listener listener;
+
+    /**
+     * @param presenceCheckDelayMillis how often a held tag is checked for removal
+     */
+    public AndroidNfcTagSource(Activity activity, int presenceCheckDelayMillis) {
+        this.activity = activity;
+        this.adapter = NfcAdapter.getDefaultAdapter(activity);
+        this.presenceCheckDelayMillis = presenceCheckDelayMillis;
+    }
+
+    public AndroidNfcTagSource(Activity activity) {
+        this(activity, 250);
+    }
+
+    public boolean isAvailable() {
+        return adapter != null;
+    }
+
+    /**
+     * Enables reader mode; call from onResume (reader mode only works while
+     * the activity is in the foreground)
+     */
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        if (adapter == null) {
+            return;
+        }
+        Bundle options = new Bundle();
+        options.putInt(NfcAdapter.EXTRA_READER_PRESENCE_CHECK_DELAY, presenceCheckDelayMillis);
+        adapter.enableReaderMode(activity, this, READER_FLAGS, options);
+    }
+
+    /**
+     * Disables reader mode; call from onPause
+     */
+    @Override
+    public void stop() {
+        listener = null;
+        if (adapter != null) {
+            adapter.disableReaderMode(activity);
+        }
+    }
+
+    @Override
+    public void onTagDiscovered(Tag tag) {
+        Listener current = listener;
+        if (current != null) {
+            current.onTagDiscovered(handle(tag));
+        }
+    }
+
+    /**
+     * Wraps a tag from reader mode or an ACTION_*_DISCOVERED intent. Reads
+     * are bounded by NfcReader's watchdog, which calls cancel().
+     */
+    public static TagHandle handle(Tag tag) {
+        return new AndroidTag(tag);
+    }
+
+    private static final class AndroidTag implements TagHandle {
+        private final Tag tag;
+        private volatile Ndef ndef;
+
+        AndroidTag(Tag tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public byte[] id() {
+            return tag.getId();
+        }
+
+        @Override
+        public byte[] readNdefMessage() throws IOException {
+            Ndef ndef = Ndef.get(tag);
+            if (ndef == null) {
+                return null;
+            }
+            // Read by the platform's NDEF check during discovery; no tag I/O needed
+            NdefMessage cached = ndef.getCachedNdefMessage();
+            if (cached != null) {
+                return cached.toByteArray();
+            }
+            this.ndef = ndef;
+            try {
+                ndef.connect();
+                NdefMessage message = ndef.getNdefMessage();
+                return message == null ? null : message.toByteArray();
+            } catch (FormatException e) {
+                return null;
+            } finally {
+                closeQuietly(ndef);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            // Closing from another thread aborts a blocked connect or read
+            Ndef current = ndef;
+            if (current != null) {
+                closeQuietly(current);
+            }
+        }
+
+        private static void closeQuietly(Ndef ndef) {
+            try {
+                ndef.close();
+            } catch (IOException e) {
+                // Tag already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.teur.client;
+
+// tEUR Payment Data from NFC Taps
+// Parses (and builds) the NDEF messages a customer device presents at the till
+//
+// Works on raw NDEF message bytes (NdefMessage.toByteArray() on Android) so it
+// runs off the main thread and on a plain JVM. Accepted records, first usable
+// one wins:
+// - "teur:pay" external record in the compact BinaryPaymentRecord format
+// - well-known text record "paymentId:secret[:payerWallet]"
+// - "application/vnd.teur.payment" JSON record {"paymentId","secret","payer",
+//   "amount","voucher"} (as a MIME record, or as an external-type record as
+//   older wallets wrote it)
+// Only the binary and JSON records can carry the amount and the API's offline
+// voucher (OfflineVoucher), which terminals need to approve a tap offline.
+// Hex payment IDs and payers are kept in lowercase, whatever case a wallet
+// wrote (e.g. an EIP-55 checksummed address), so every format yields the
+// same strings and the binary record round-trips them exactly.
+
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+public final class NfcPaymentData {
+
+    public static final String JSON_MIME_TYPE = "application/vnd.teur.payment";
+
+    private static final int TNF_WELL_KNOWN = 0x01;
+    private static final int TNF_MIME_MEDIA = 0x02;
+    private static final int TNF_EXTERNAL_TYPE = 0x04;
+    private static final byte[] RTD_TEXT = { 'T' };
+    private static final byte[] JSON_TYPE = JSON_MIME_TYPE.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY_TYPE = BinaryPaymentRecord.EXTERNAL_TYPE.getBytes(StandardCharsets.US_ASCII);
+
+    private static final int FLAG_MB = 0x80;
+    private static final int FLAG_ME = 0x40;
+    private static final int FLAG_CF = 0x20;
+    private static final int FLAG_SR = 0x10;
+    private static final int FLAG_IL = 0x08;
+
+    public final String paymentId;
+    public final String secret;
+    public final String payer; // payer wallet, or null
+    public final Long amountMinor; // amount the wallet authorized, or null
+    public final OfflineVoucher voucher; // API's signature over payment, payer and amount, or null
+
+    public NfcPaymentData(String paymentId, String secret, String payer) {
+        this(paymentId, secret, payer, null);
+    }
+
+    public NfcPaymentData(String paymentId, String secret, String payer, Long amountMinor) {
+        this(paymentId, secret, payer, amountMinor, null);
+    }
+
+    public NfcPaymentData(String paymentId, String secret, String payer, Long amountMinor, OfflineVoucher voucher) {
+        this.paymentId = lowerHex(paymentId);
+        this.secret = secret;
+        this.payer = lowerHex(payer);
+        this.amountMinor = amountMinor;
+        this.voucher = voucher;
+    }
+
+    /**
+     * Payment data from the first usable record of an NDEF message, or null
+     * if it holds none (or is malformed)
+     */
+    public static NfcPaymentData parse(byte[] message) {
+        if (message == null) {
+            return null;
+        }
+        int offset = 0;
+        try {
+            while (offset < message.length) {
+                int header = message[offset++] & 0xff;
+                int typeLength = message[offset++] & 0xff;
+                long payloadLength;
+                if ((header & FLAG_SR) != 0) {
+                    payloadLength = message[offset++] & 0xff;
+                } else {
+                    payloadLength = ((message[offset] & 0xffL) << 24) | ((message[offset + 1] & 0xff) << 16)
+                            | ((message[offset + 2] & 0xff) << 8) | (message[offset + 3] & 0xff);
+                    offset += 4;
+                }
+                int idLength = (header & FLAG_IL) != 0 ? message[offset++] & 0xff : 0;
+                int typeOffset = offset;
+                int payloadOffset = typeOffset + typeLength + idLength;
+                if (payloadLength > message.length - payloadOffset) {
+                    return null;
+                }
+                offset = payloadOffset + (int) payloadLength;
+
+                // Chunked records are not used by tEUR wallets; skip them
+                if ((header & FLAG_CF) == 0) {
+                    NfcPaymentData data = parseRecord(header & 0x07, message, typeOffset, typeLength,
+                            payloadOffset, (int) payloadLength);
+                    if (data != null) {
+                        return data;
+                    }
+                }
+                if ((header & FLAG_ME) != 0) {
+                    break;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Truncated header
+        }
+        return null;
+    }
+
+    /**
+     * Parses "paymentId:secret[:payerWallet]"
+     */
+    public static NfcPaymentData fromText(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] parts = text.split(":");
+        if (parts.length < 2) {
+            return null;
+        }
+        return new NfcPaymentData(parts[0].trim(), parts[1].trim(), parts.length >= 3 ? parts[2].trim() : null);
+    }
+
+    public static NfcPaymentData fromJson(String json) {
+        try {
+            JSONObject object = new JSONObject(json);
+            String paymentId = object.optString("paymentId");
+            String secret = object.optString("secret");
+            if (paymentId.isEmpty() || secret.isEmpty()) {
+                return null;
+            }
+            Long amountMinor = object.has("amount") ? object.getLong("amount") : null;
+            JSONObject voucher = object.optJSONObject("voucher");
+            return new NfcPaymentData(paymentId, secret, object.optString("payer", null), amountMinor, voucher == null
+                    ? null : OfflineVoucher.fromJson(voucher.optLong("expiresAt"), voucher.optString("signature", null)));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * NDEF message with a single text record ("en", UTF-8)
+     */
+    public byte[] toTextMessage() {
+        String text = paymentId + ":" + secret + (payer == null ? "" : ":" + payer);
+        byte[] language = { 'e', 'n' };
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[1 + language.length + textBytes.length];
+        payload[0] = (byte) language.length;
+        System.arraycopy(language, 0, payload, 1, language.length);
+        System.arraycopy(textBytes, 0, payload, 1 + language.length, textBytes.length);
+        return message(record(TNF_WELL_KNOWN, RTD_TEXT, payload));
+    }
+
+    /**
+     * NDEF message with a single application/vnd.teur.payment MIME record
+     */
+    public byte[] toJsonMessage() {
+        JSONObject json = new JSONObject()
+                .put("paymentId", paymentId)
+                .put("secret", secret);
+        if (payer != null) {
+            json.put("payer", payer);
+        }
+        if (amountMinor != null) {
+            json.put("amount", amountMinor.longValue());
+        }
+        if (voucher != null) {
+            json.put("voucher", new JSONObject()
+                    .put("expiresAt", voucher.expiresAtSeconds)
+                    .put("signature", voucher.signatureHex()));
+        }
+        return message(record(TNF_MIME_MEDIA, JSON_TYPE, json.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * NDEF message with a single "teur:pay" binary record, optionally followed
+     * by a text record for terminals that predate the binary format
+     *
+     * @throws IllegalArgumentException if {@link BinaryPaymentRecord#canEncode} is false
+     */
+    public byte[] toBinaryMessage(boolean textFallback) {
+        byte[] binary = record(TNF_EXTERNAL_TYPE, BINARY_TYPE, BinaryPaymentRecord.encode(this));
+        if (!textFallback) {
+            return message(binary);
+        }
+        // Reuse the text record from toTextMessage() as the second record
+        return message(binary, toTextMessage());
+    }
+
+    /** Lowercase form of a "0x" hex string; anything else is returned unchanged */
+    private static String lowerHex(String value) {
+        if (value == null || value.length() <= 2 || value.charAt(0) != '0') {
+            return value;
+        }
+        boolean lower = value.charAt(1) == 'x';
+        if (!lower && value.charAt(1) != 'X') {
+            return value;
+        }
+        for (int i = 2; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'F') {
+                lower = false;
+            } else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return value;
+            }
+        }
+        // Decoded and API-issued IDs are already lowercase; only copy the rest
+        return lower ? value : value.toLowerCase(Locale.ROOT);
+    }
+
+    private static NfcPaymentData parseRecord(int tnf, byte[] message, int typeOffset, int typeLength,
+            int payloadOffset, int payloadLength) {
+        if (tnf == TNF_EXTERNAL_TYPE && matches(message, typeOffset, typeLength, BINARY_TYPE)) {
+            // Decoded in place; an unknown version or bad checksum falls through to the next record
+            BinaryPaymentRecord.View view = new BinaryPaymentRecord.View();
+            return view.wrap(message, payloadOffset, payloadLength) ? view.toPaymentData() : null;
+        }
+        if (tnf == TNF_WELL_KNOWN && matches(message, typeOffset, typeLength, RTD_TEXT)) {
+            return fromText(textOf(message, payloadOffset, payloadLength));
+        }
+        if ((tnf == TNF_MIME_MEDIA || tnf == TNF_EXTERNAL_TYPE)
+                && matches(message, typeOffset, typeLength, JSON_TYPE)) {
+            return fromJson(new String(message, payloadOffset, payloadLength, StandardCharsets.UTF_8));
+        }
+        return null;
+    }
+
+    private static String textOf(byte[] message, int payloadOffset, int payloadLength) {
+        if (payloadLength < 1) {
+            return null;
+        }
+        int status = message[payloadOffset] & 0xff;
+        int languageCodeLength = status & 0x3f;
+        if (languageCodeLength + 1 > payloadLength) {
+            return null;
+        }
+        return new String(message, payloadOffset + 1 + languageCodeLength, payloadLength - 1 - languageCodeLength,
+                (status & 0x80) == 0 ? StandardCharsets.UTF_8 : StandardCharsets.UTF_16);
+    }
+
+    private static boolean matches(byte[] message, int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (message[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Single record with MB and ME set; message() clears them as needed
+     */
+    private static byte[] record(int tnf, byte[] type, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(6 + type.length + payload.length);
+        boolean shortRecord = payload.length < 256;
+        out.write(FLAG_MB | FLAG_ME | (shortRecord ? FLAG_SR : 0) | tnf);
+        out.write(type.length);
+        if (shortRecord) {
+            out.write(payload.length);
+        } else {
+            out.write(payload.length >>> 24);
+            out.write(payload.length >>> 16);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        }
+        out.write(type, 0, type.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Concatenates single-record messages, keeping MB on the first record and
+     * ME on the last
+     */
+    private static byte[] message(byte[]... records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < records.length; i++) {
+            byte[] record = records[i];
+            int header = record[0] & ~(FLAG_MB | FLAG_ME);
+            if (i == 0) {
+                header |= FLAG_MB;
+            }
+            if (i == records.length - 1) {
+                header |= FLAG_ME;
+            }
+            out.write(header);
+            out.write(record, 1, record.length - 1);
+        }
+        return out.toByteArray();
+    }
+}
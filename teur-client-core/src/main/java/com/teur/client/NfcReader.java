@@ -0,0 +1,265 @@
+package com.teur.client;
+
+// NFC Reader
+// Reads customer taps on one dedicated I/O thread and hands parsed payment
+// data to the payment path through a small bounded queue
+//
+// Tag I/O is blocking and can hang when the customer's phone leaves the field
+// mid-read, so it never runs on the UI thread or the payment path:
+// - the source (Android reader mode, or SimulatedTagSource) only enqueues
+// - the "teur-nfc-io" thread connects, reads and parses, one tag at a time
+// - a watchdog cancels any read that exceeds the read timeout
+// - the same tag rediscovered within the debounce window is ignored
+// - when nobody consumes, the oldest tap is dropped; the newest always wins
+// - a tap is handed out once, and never when older than the max tap age, so a
+//   tap left behind by one customer cannot pay the next sale
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NfcReader implements NfcTagSource.Listener, AutoCloseable {
+
+    /**
+     * A successfully read tap
+     */
+    public static final class Tap {
+        public final NfcPaymentData data;
+        public final long discoveredAtNanos;
+        public final long readAtNanos;
+
+        Tap(NfcPaymentData data, long discoveredAtNanos, long readAtNanos) {
+            this.data = data;
+            this.discoveredAtNanos = discoveredAtNanos;
+            this.readAtNanos = readAtNanos;
+        }
+
+        /** Time from tag discovery until its payment data was ready */
+        public long readNanos() {
+            return readAtNanos - discoveredAtNanos;
+        }
+    }
+
+    private static final int PENDING_TAGS = 4;
+
+    private final NfcTagSource source;
+    private final ThreadPoolExecutor io;
+    private final ScheduledExecutorService watchdog;
+    private final BlockingQueue<Tap> taps;
+
+    private volatile long readTimeoutMillis = 1000;
+    private volatile long debounceMillis = 1500;
+    private volatile long maxTapAgeMillis = 30_000;
+
+    // Only touched on the I/O thread
+    private byte[] lastTagId;
+    private long lastTagAtNanos;
+
+    private final AtomicLong tagsRead = new AtomicLong();
+    private final AtomicLong readFailures = new AtomicLong();
+    private final AtomicLong readTimeouts = new AtomicLong();
+    private final AtomicLong tagsIgnored = new AtomicLong();
+    private final AtomicLong tapsDropped = new AtomicLong();
+    private final AtomicLong tapsExpired = new AtomicLong();
+
+    /**
+     * @param source where tags come from, or null to only accept {@link #submit} calls
+     * @param tapCapacity taps kept for the payment path before the oldest is dropped
+     */
+    public NfcReader(NfcTagSource source, int tapCapacity) {
+        this.source = source;
+        this.taps = new ArrayBlockingQueue<>(tapCapacity);
+        // A tag that queues behind a slow read is usually gone by the time it
+        // runs, so only a few are kept and the oldest go first
+        this.io = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PENDING_TAGS), r -> {
+                    Thread thread = new Thread(r, "teur-nfc-io");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        this.io.prestartCoreThread();
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "teur-nfc-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public NfcReader(NfcTagSource source) {
+        this(source, 4);
+    }
+
+    public NfcReader setReadTimeoutMillis(long readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    public NfcReader setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+        return this;
+    }
+
+    /**
+     * Taps discovered longer ago than this are discarded instead of handed
+     * out (default 30000 ms)
+     */
+    public NfcReader setMaxTapAgeMillis(long maxTapAgeMillis) {
+        this.maxTapAgeMillis = maxTapAgeMillis;
+        return this;
+    }
+
+    /**
+     * Starts listening to the source (call from onResume on Android)
+     */
+    public void start() {
+        if (source != null) {
+            source.start(this);
+        }
+    }
+
+    /**
+     * Stops listening to the source (call from onPause on Android)
+     */
+    public void stop() {
+        if (source != null) {
+            source.stop();
+        }
+    }
+
+    @Override
+    public void onTagDiscovered(NfcTagSource.TagHandle tag) {
+        submit(tag);
+    }
+
+    /**
+     * Queues a tag for reading; returns immediately
+     */
+    public void submit(NfcTagSource.TagHandle tag) {
+        long discoveredAtNanos = System.nanoTime();
+        try {
+            io.execute(() -> read(tag, discoveredAtNanos));
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Waits up to {@code timeout} for the next tap that is not too old and
+     * takes it; null on timeout
+     */
+    public Tap poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            Tap tap = taps.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (tap == null || isFresh(tap)) {
+                return tap;
+            }
+        }
+    }
+
+    /**
+     * Newest tap without waiting, taking it and discarding older ones; null
+     * if there is none that is not too old
+     */
+    public Tap latest() {
+        Tap latest = null;
+        Tap tap;
+        while ((tap = taps.poll()) != null) {
+            latest = tap;
+        }
+        return latest != null && isFresh(latest) ? latest : null;
+    }
+
+    public void clear() {
+        taps.clear();
+    }
+
+    public long getTagsRead() {
+        return tagsRead.get();
+    }
+
+    public long getReadFailures() {
+        return readFailures.get();
+    }
+
+    public long getReadTimeouts() {
+        return readTimeouts.get();
+    }
+
+    public long getTagsIgnored() {
+        return tagsIgnored.get();
+    }
+
+    public long getTapsDropped() {
+        return tapsDropped.get();
+    }
+
+    /**
+     * Taps discarded for exceeding the max tap age
+     */
+    public long getTapsExpired() {
+        return tapsExpired.get();
+    }
+
+    @Override
+    public void close() {
+        stop();
+        io.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    private boolean isFresh(Tap tap) {
+        if (System.nanoTime() - tap.discoveredAtNanos <= TimeUnit.MILLISECONDS.toNanos(maxTapAgeMillis)) {
+            return true;
+        }
+        tapsExpired.incrementAndGet();
+        return false;
+    }
+
+    private void read(NfcTagSource.TagHandle tag, long discoveredAtNanos) {
+        byte[] id = tag.id();
+        if (id != null && Arrays.equals(id, lastTagId)
+                && discoveredAtNanos - lastTagAtNanos < TimeUnit.MILLISECONDS.toNanos(debounceMillis)) {
+            tagsIgnored.incrementAndGet();
+            return;
+        }
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            timedOut.set(true);
+            tag.cancel();
+        }, readTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        NfcPaymentData data;
+        try {
+            data = NfcPaymentData.parse(tag.readNdefMessage());
+        } catch (Exception e) {
+            (timedOut.get() ? readTimeouts : readFailures).incrementAndGet();
+            return;
+        } finally {
+            timeout.cancel(false);
+        }
+        if (data == null) {
+            readFailures.incrementAndGet();
+            return;
+        }
+
+        lastTagId = id;
+        lastTagAtNanos = discoveredAtNanos;
+        tagsRead.incrementAndGet();
+        Tap tap = new Tap(data, discoveredAtNanos, System.nanoTime());
+        while (!taps.offer(tap)) {
+            if (taps.poll() != null) {
+                tapsDropped.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.teur.client;
+
+// NFC Tag Source
+// Where NfcReader gets tags from: Android reader mode (AndroidNfcTagSource) or,
+// on a plain JVM, SimulatedTagSource (in sumup-integration)
+
+import java.io.IOException;
+
+public interface NfcTagSource {
+
+    /**
+     * Receives discovered tags. Called on the source's own thread (a binder
+     * thread on Android), so implementations must hand off and return quickly.
+     */
+    interface Listener {
+        void onTagDiscovered(TagHandle tag);
+    }
+
+    /**
+     * A tag in the field
+     */
+    interface TagHandle {
+        /** Tag UID (used to ignore a tag that is rediscovered while held still) */
+        byte[] id();
+
+        /** Blocking read of the raw NDEF message; null if the tag holds none */
+        byte[] readNdefMessage() throws IOException;
+
+        /** Aborts a blocked read from another thread; the read throws IOException */
+        void cancel();
+    }
+
+    void start(Listener listener);
+
+    void stop();
+}
@@ -0,0 +1,72 @@
+package com.teur.client;
+
+// NFC Tag Writer
+// Writes tEUR payment data to NFC tags (test cards, stickers, provisioning)
+//
+// Prefers the compact binary record followed by a text record for older
+// terminals; payment data the binary format can't hold is written as text.
+
+import android.nfc.FormatException;
+import android.nfc.NdefMessage;
+import android.nfc.Tag;
+import android.nfc.tech.Ndef;
+import android.nfc.tech.NdefFormatable;
+import java.io.IOException;
+
+public final class NfcTagWriter {
+
+    private NfcTagWriter() {
+    }
+
+    /**
+     * Blocking; call off the UI thread while the tag is in the field
+     */
+    public static void writePayment(Tag tag, NfcPaymentData data) throws IOException {
+        write(tag, BinaryPaymentRecord.canEncode(data) ? data.toBinaryMessage(true) : data.toTextMessage());
+    }
+
+    /**
+     * Writes raw NDEF message bytes, formatting the tag first if it is blank
+     */
+    public static void write(Tag tag, byte[] ndefMessage) throws IOException {
+        NdefMessage message;
+        try {
+            message = new NdefMessage(ndefMessage);
+        } catch (FormatException e) {
+            throw new IOException("Invalid NDEF message", e);
+        }
+
+        Ndef ndef = Ndef.get(tag);
+        if (ndef != null) {
+            try {
+                ndef.connect();
+                if (!ndef.isWritable()) {
+                    throw new IOException("Tag is read-only");
+                }
+                if (ndefMessage.length > ndef.getMaxSize()) {
+                    throw new IOException("Message of " + ndefMessage.length + " bytes exceeds tag capacity of "
+                            + ndef.getMaxSize());
+                }
+                ndef.writeNdefMessage(message);
+            } catch (FormatException e) {
+                throw new IOException("Tag rejected the NDEF message", e);
+            } finally {
+                ndef.close();
+            }
+            return;
+        }
+
+        NdefFormatable formatable = NdefFormatable.get(tag);
+        if (formatable == null) {
+            throw new IOException("Tag does not support NDEF");
+        }
+        try {
+            formatable.connect();
+            formatable.format(message);
+        } catch (FormatException e) {
+            throw new IOException("Tag could not be formatted", e);
+        } finally {
+            formatable.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.teur.client;
+
+// Offline Approval Voucher
+// The tEUR API's signature over a payment it has just escrowed, carried on
+// the tag so a terminal can trust the payer and amount without a round trip
+//
+// Signed message (UTF-8):
+//   teur-offline-voucher:1:<paymentId>:<payer>:<amountMinor>:<expiresAt>
+// with lowercase "0x..." IDs and expiresAt in Unix seconds. The signature is
+// ECDSA over P-256 with SHA-256, DER encoded; terminals get the API's public
+// key (hex X.509 SubjectPublicKeyInfo) with the offline limits.
+// docs/offline-voucher-test-vectors.json is verified by the API tests and by
+// OfflineRiskEngineCheck in the Clover app, so both sides agree on the bytes.
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Locale;
+
+public final class OfflineVoucher {
+
+    public static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    private static final String MESSAGE_PREFIX = "teur-offline-voucher:1:";
+
+    public final long expiresAtSeconds;
+    private final byte[] signature;
+
+    public OfflineVoucher(long expiresAtSeconds, byte[] signature) {
+        this.expiresAtSeconds = expiresAtSeconds;
+        this.signature = signature.clone();
+    }
+
+    /**
+     * Voucher from its JSON form {"expiresAt": seconds, "signature": "0x..."},
+     * or null if a field is missing or malformed
+     */
+    static OfflineVoucher fromJson(long expiresAtSeconds, String signatureHex) {
+        byte[] signature = BinaryPaymentRecord.fromHex(signatureHex);
+        return expiresAtSeconds > 0 && signature != null && signature.length > 0
+                ? new OfflineVoucher(expiresAtSeconds, signature) : null;
+    }
+
+    /** DER signature bytes (a copy) */
+    public byte[] signature() {
+        return signature.clone();
+    }
+
+    int signatureLength() {
+        return signature.length;
+    }
+
+    String signatureHex() {
+        return BinaryPaymentRecord.toHex(signature, 0, signature.length);
+    }
+
+    int writeSignature(byte[] out, int offset) {
+        System.arraycopy(signature, 0, out, offset, signature.length);
+        return offset + signature.length;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAtSeconds * 1000L;
+    }
+
+    /**
+     * Whether {@code key} signed this voucher for exactly this payment, payer
+     * and amount. Checks the signature only; see {@link #isExpired}.
+     */
+    public boolean verify(PublicKey key, String paymentId, String payer, long amountMinor) {
+        if (key == null || paymentId == null || payer == null) {
+            return false;
+        }
+        try {
+            Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+            verifier.initVerify(key);
+            verifier.update(message(paymentId, payer, amountMinor, expiresAtSeconds));
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            // Includes signatures that are not valid DER
+            return false;
+        }
+    }
+
+    /**
+     * The bytes the API signs
+     */
+    public static byte[] message(String paymentId, String payer, long amountMinor, long expiresAtSeconds) {
+        return (MESSAGE_PREFIX + paymentId.toLowerCase(Locale.ROOT) + ":" + payer.toLowerCase(Locale.ROOT) + ":"
+                + amountMinor + ":" + expiresAtSeconds).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the API's voucher key as published with the offline limits
+     *
+     * @param hex "0x"-prefixed hex of a DER X.509 SubjectPublicKeyInfo (EC P-256)
+     */
+    public static PublicKey parsePublicKey(String hex) throws GeneralSecurityException {
+        byte[] encoded = BinaryPaymentRecord.fromHex(hex);
+        if (encoded == null) {
+            throw new GeneralSecurityException("Voucher key is not hex");
+        }
+        return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(encoded));
+    }
+}
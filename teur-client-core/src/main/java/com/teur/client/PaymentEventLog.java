@@ -0,0 +1,530 @@
+package com.teur.client;
+
+// Payment Event Log
+// Structured, asynchronous event log for the payment and NFC hot paths
+//
+// Callers record typed events (numeric code, optional payment ID, one value,
+// optional trace ID and detail) into a preallocated ring buffer and return:
+// no locks, no string building and no allocation on the calling thread. A
+// background "teur-event-log" thread drains the buffer to a rotating NDJSON
+// or binary file, and sleeps without a timeout while the buffer is empty: the
+// first event logged after that wakes it. When the buffer is full, new events
+// are dropped and counted rather than blocking a payment.
+//
+// Redaction: payment IDs are stored only as a 64-bit one-way fingerprint
+// (fingerprint(id) finds a known payment's events); secrets, payer wallets
+// and exception messages are never recorded, only an exception's class.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+public final class PaymentEventLog implements AutoCloseable {
+
+    /**
+     * Event catalog. Codes are stable and grouped by area; the meaning of the
+     * value field is given per event.
+     */
+    public enum Event {
+        // NFC
+        TAP_READ(1001),              // value: tag read time, microseconds
+        TAP_MISSING(1002),           // value: time waited, milliseconds
+        TAP_AMOUNT_MISMATCH(1003),   // value: amount on the tap, minor units
+
+        // Release
+        RELEASE_SENT(2001),          // value: amount, minor units (0 if unknown)
+        RELEASE_SUCCEEDED(2002),     // value: round trip, milliseconds
+        RELEASE_REJECTED(2003),      // value: HTTP status
+        RELEASE_FAILED(2004),        // detail: exception class
+        RELEASE_DUPLICATE(2005),
+        RELEASE_JOINED(2006),        // same ID already in flight; rejected
+        REPLAY_REJECTED(2007),
+
+        // Offline approval
+        OFFLINE_APPROVED(3001),      // value: amount, minor units
+        ONLINE_REQUIRED(3002),       // value: amount, minor units; detail: reason
+        OFFLINE_SETTLED(3003),
+        OFFLINE_SETTLEMENT_REJECTED(3004), // value: HTTP status, or 0 if no pending escrow; detail: reason
+        OFFLINE_SETTLEMENT_FAILED(3005),   // value: attempt; detail: exception class or HTTP status, retried
+        OFFLINE_SETTLEMENT_PAYER_MISMATCH(3006), // value: amount; detail: on-chain payer, released anyway
+
+        // Card payment
+        PAYMENT_FAILED(4001),        // detail: exception class
+
+        // Local state
+        LEDGER_WRITE_FAILED(5001),   // detail: exception class
+        SETTLEMENT_QUEUE_WRITE_FAILED(5002); // detail: exception class
+
+        public final int code;
+
+        Event(int code) {
+            this.code = code;
+        }
+    }
+
+    public enum Format {
+        NDJSON("ndjson"),
+        BINARY("bin");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    // Binary files: "TEVL", version byte, then 46-byte big-endian records of
+    // code (short), time, payment ID fingerprint, value, trace ID high and
+    // low (longs) and the hash of the detail's name (int, 0 if none)
+    private static final byte[] BINARY_MAGIC = { 'T', 'E', 'V', 'L' };
+    private static final int BINARY_VERSION = 1;
+    private static final int BINARY_RECORD_BYTES = 46;
+
+    private static final int FIELDS = 5;
+    private static final int TIME = 0;
+    private static final int ID = 1;
+    private static final int VALUE = 2;
+    private static final int TRACE_HIGH = 3;
+    private static final int TRACE_LOW = 4;
+
+    // Wait while a producer has claimed a slot but not yet published it
+    private static final long CLAIM_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    // How long close() waits for claimed slots to be published before dropping them
+    private static final long CLOSE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final PaymentEventLog DISABLED = new PaymentEventLog();
+
+    // Ring buffer: slot i holds fields[i * FIELDS ...], its event and detail,
+    // and is readable once published[i] equals the sequence written to it
+    private final int mask;
+    private final long[] fields;
+    private final AtomicReferenceArray<Event> events;
+    private final AtomicReferenceArray<Object> details;
+    private final AtomicLongArray published;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final File directory;
+    private final Format format;
+    private final Thread drainer;
+    private volatile boolean closed;
+    // Set by the drain thread before it parks; producers unpark it when they see it
+    private volatile boolean drainerIdle;
+    private volatile long maxFileBytes = 4L * 1024 * 1024;
+    private volatile int maxFiles = 4;
+
+    // Drain thread only
+    private OutputStream out;
+    private long fileBytes;
+    private final StringBuilder line = new StringBuilder(256);
+
+    private PaymentEventLog() {
+        this.mask = 0;
+        this.fields = null;
+        this.events = null;
+        this.details = null;
+        this.published = null;
+        this.directory = null;
+        this.format = null;
+        this.drainer = null;
+        this.closed = true;
+    }
+
+    private PaymentEventLog(File directory, Format format, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.fields = new long[size * FIELDS];
+        this.events = new AtomicReferenceArray<>(size);
+        this.details = new AtomicReferenceArray<>(size);
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.directory = directory;
+        this.format = format;
+        this.drainer = new Thread(this::drainLoop, "teur-event-log");
+        this.drainer.setDaemon(true);
+    }
+
+    /**
+     * Opens (appending to) the current log file in {@code directory} and
+     * starts the drain thread
+     *
+     * @param capacity events buffered before new ones are dropped (rounded up
+     *                 to a power of two)
+     */
+    public static PaymentEventLog open(File directory, Format format, int capacity) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create event log directory " + directory);
+        }
+        PaymentEventLog log = new PaymentEventLog(directory, format, capacity);
+        log.openFile();
+        log.drainer.start();
+        return log;
+    }
+
+    /**
+     * A log that discards everything; the default until one is attached
+     */
+    public static PaymentEventLog disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Size at which the current file is rotated (default 4 MiB)
+     */
+    public PaymentEventLog setMaxFileBytes(long maxFileBytes) {
+        this.maxFileBytes = maxFileBytes;
+        return this;
+    }
+
+    /**
+     * Files kept, including the current one (default 4)
+     */
+    public PaymentEventLog setMaxFiles(int maxFiles) {
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    public void log(Event event, String paymentId, long value) {
+        log(event, paymentId, value, null, null);
+    }
+
+    public void log(Event event, String paymentId, long value, String traceId) {
+        log(event, paymentId, value, traceId, null);
+    }
+
+    /**
+     * Records an event without blocking or allocating
+     *
+     * @param paymentId recorded as a fingerprint only; may be null
+     * @param traceId   32-hex-digit W3C trace ID, or null
+     * @param detail    a Throwable (only its class is recorded) or a constant
+     *                  String that never contains payment data; may be null
+     */
+    public void log(Event event, String paymentId, long value, String traceId, Object detail) {
+        if (closed) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail > mask) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        int base = slot * FIELDS;
+        fields[base + TIME] = System.currentTimeMillis();
+        fields[base + ID] = paymentId == null ? 0 : fingerprint(paymentId);
+        fields[base + VALUE] = value;
+        fields[base + TRACE_HIGH] = traceId == null ? 0 : parseHex(traceId, 0);
+        fields[base + TRACE_LOW] = traceId == null ? 0 : parseHex(traceId, 16);
+        events.lazySet(slot, event);
+        details.lazySet(slot, detail instanceof Throwable ? detail.getClass() : detail);
+        // Publishing last makes the writes above visible to the drain thread
+        published.lazySet(slot, sequence);
+        if (drainerIdle) {
+            // Only the first event into an empty buffer pays for the wake-up
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    /**
+     * One-way 64-bit fingerprint (FNV-1a, ASCII case-insensitive) under which
+     * a payment ID is logged
+     */
+    public static long fingerprint(String paymentId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < paymentId.length(); i++) {
+            char c = paymentId.charAt(i);
+            hash ^= c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Waits until everything logged so far has been written
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long target = head.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (tail < target) {
+            if (closed || System.nanoTime() > deadline) {
+                return tail >= target;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Writes what is buffered and stops the drain thread. Events still being
+     * logged by other threads get a short grace period; any not published by
+     * then are counted as dropped.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        boolean stopping = false;
+        long stopDeadline = 0;
+        while (true) {
+            if (!stopping && closed) {
+                stopping = true;
+                stopDeadline = System.nanoTime() + CLOSE_WAIT_NANOS;
+            }
+            int drained = drain();
+            if (drained == 0) {
+                if (head.get() != tail) {
+                    if (stopping && System.nanoTime() - stopDeadline > 0) {
+                        break;
+                    }
+                    // Claimed but not yet published; the producer is mid-write
+                    LockSupport.parkNanos(CLAIM_WAIT_NANOS);
+                    continue;
+                }
+                if (stopping) {
+                    break;
+                }
+                // Flag first, then re-check: a producer that claims a slot after
+                // the check sees the flag and unparks, so no wake-up is lost
+                drainerIdle = true;
+                if (head.get() == tail && !closed) {
+                    LockSupport.park(this);
+                }
+                drainerIdle = false;
+            }
+        }
+        // Seal the buffer: a producer that passed the closed check can no
+        // longer claim a slot (it finds the buffer full and counts a drop), and
+        // slots claimed before the seal but never published are dropped here
+        long sealed = head.getAndAdd(mask + 1);
+        dropped.addAndGet(sealed - tail);
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Nothing left to write to
+        }
+    }
+
+    private int drain() {
+        int drained = 0;
+        int failed = 0;
+        long sequence = tail;
+        while (true) {
+            int slot = (int) sequence & mask;
+            if (published.get(slot) != sequence) {
+                break;
+            }
+            try {
+                write(events.get(slot), slot * FIELDS, details.get(slot));
+                if (fileBytes >= maxFileBytes) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                // Skip what could not be written rather than stall producers
+                failed++;
+            }
+            sequence++;
+            tail = sequence;
+            drained++;
+        }
+        if (drained > 0) {
+            written.addAndGet(drained - failed);
+            dropped.addAndGet(failed);
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // Retried with the next batch
+            }
+        }
+        return drained;
+    }
+
+    private void write(Event event, int base, Object detail) throws IOException {
+        if (format == Format.BINARY) {
+            DataOutputStream data = (DataOutputStream) out;
+            data.writeShort(event.code);
+            data.writeLong(fields[base + TIME]);
+            data.writeLong(fields[base + ID]);
+            data.writeLong(fields[base + VALUE]);
+            data.writeLong(fields[base + TRACE_HIGH]);
+            data.writeLong(fields[base + TRACE_LOW]);
+            data.writeInt(detail == null ? 0 : detailName(detail).hashCode());
+            fileBytes += BINARY_RECORD_BYTES;
+            return;
+        }
+
+        line.setLength(0);
+        line.append("{\"ts\":").append(fields[base + TIME])
+                .append(",\"code\":").append(event.code)
+                .append(",\"event\":\"").append(event.name()).append('"');
+        if (fields[base + ID] != 0) {
+            line.append(",\"id\":\"");
+            appendHex(fields[base + ID]);
+            line.append('"');
+        }
+        line.append(",\"value\":").append(fields[base + VALUE]);
+        if (fields[base + TRACE_HIGH] != 0 || fields[base + TRACE_LOW] != 0) {
+            line.append(",\"trace\":\"");
+            appendHex(fields[base + TRACE_HIGH]);
+            appendHex(fields[base + TRACE_LOW]);
+            line.append('"');
+        }
+        if (detail != null) {
+            line.append(",\"detail\":\"");
+            appendEscaped(detailName(detail));
+            line.append('"');
+        }
+        line.append("}\n");
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        fileBytes += bytes.length;
+    }
+
+    private static String detailName(Object detail) {
+        return detail instanceof Class ? ((Class<?>) detail).getName() : detail.toString();
+    }
+
+    private void appendHex(long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            line.append(Character.forDigit((int) (value >>> shift) & 0xf, 16));
+        }
+    }
+
+    private void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c >= 0x20) {
+                line.append(c);
+            }
+        }
+    }
+
+    private File file(int index) {
+        String name = "teur-events." + format.extension;
+        return new File(directory, index == 0 ? name : name + "." + index);
+    }
+
+    private void openFile() throws IOException {
+        File current = file(0);
+        boolean fresh = !current.exists() || current.length() == 0;
+        fileBytes = current.length();
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(current, true), 16 * 1024);
+        if (format == Format.BINARY) {
+            DataOutputStream data = new DataOutputStream(stream);
+            if (fresh) {
+                data.write(BINARY_MAGIC);
+                data.writeByte(BINARY_VERSION);
+                fileBytes += BINARY_MAGIC.length + 1;
+            }
+            out = data;
+        } else {
+            out = stream;
+        }
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        try {
+            int keep = Math.max(1, maxFiles);
+            File oldest = file(keep - 1);
+            if (oldest.exists() && !oldest.delete()) {
+                throw new IOException("Cannot delete " + oldest);
+            }
+            for (int i = keep - 2; i >= 0; i--) {
+                File from = file(i);
+                if (from.exists() && !from.renameTo(file(i + 1))) {
+                    throw new IOException("Cannot rotate " + from);
+                }
+            }
+        } finally {
+            // Keep logging, to the old file if it could not be moved
+            openFile();
+        }
+    }
+
+    /**
+     * Converts a binary log file to NDJSON lines (details appear as
+     * "detailHash", the hash of their name)
+     */
+    public static void dumpBinary(File file, Appendable out) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] magic = new byte[BINARY_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, BINARY_MAGIC) || in.readUnsignedByte() != BINARY_VERSION) {
+                throw new IOException("Not a version " + BINARY_VERSION + " event log: " + file);
+            }
+            while (true) {
+                int code;
+                try {
+                    code = in.readUnsignedShort();
+                } catch (EOFException e) {
+                    return;
+                }
+                long time = in.readLong();
+                long id = in.readLong();
+                long value = in.readLong();
+                long traceHigh = in.readLong();
+                long traceLow = in.readLong();
+                int detailHash = in.readInt();
+                out.append(String.format("{\"ts\":%d,\"code\":%d,\"id\":\"%016x\",\"value\":%d,"
+                        + "\"trace\":\"%016x%016x\",\"detailHash\":%d}%n",
+                        time, code, id, value, traceHigh, traceLow, detailHash));
+            }
+        }
+    }
+
+    private static long parseHex(String hex, int offset) {
+        long value = 0;
+        int end = Math.min(hex.length(), offset + 16);
+        for (int i = offset; i < end; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                return 0;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
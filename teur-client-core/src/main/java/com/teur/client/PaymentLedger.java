@@ -0,0 +1,507 @@
+package com.teur.client;
+
+// Local Payment Ledger for tEUR Terminals
+// Append-only on-device record of payments with indexed lookups
+//
+// Every change (new payment or status update) appends one fixed-size record
+// to the ledger file, so writes never rewrite earlier data. In memory the
+// ledger keeps only compact indexes, rebuilt by a sequential scan on open:
+// - payment ID -> latest record (open-addressing hash table of primitives)
+// - status -> latest records (one bitset per status)
+// - day -> first record (records are appended in time order)
+// - day -> running count/amount per status for constant-time daily close
+// That is roughly 20 bytes per payment, so a year of high-volume till data
+// stays within a few megabytes of heap.
+//
+// Days are calendar days in the ledger's time zone, and a payment belongs to
+// the day it was created: daily totals, range() and salesForDay() all agree.
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+public class PaymentLedger implements AutoCloseable {
+
+    public enum Status {
+        PENDING, RELEASED, FAILED, REFUNDED
+    }
+
+    private static final int RECORD_SIZE = 160;
+    private static final int MAX_ID_BYTES = 72;
+    private static final int MAX_TX_BYTES = 48;
+    private static final int OFFSET_ID = 27;
+    private static final int OFFSET_TX = OFFSET_ID + MAX_ID_BYTES;
+    private static final int OFFSET_CRC = RECORD_SIZE - 4;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final Status[] STATUSES = Status.values();
+
+    private final FileChannel channel;
+    private final ZoneId zone;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    // payment ID hash -> sequence number of the latest record
+    private long[] indexHashes = new long[1024];
+    private int[] indexSeqs = new int[1024];
+    private int indexSize;
+
+    private final BitSet[] byStatus = new BitSet[STATUSES.length];
+    private final TreeMap<Long, Integer> firstSeqByDay = new TreeMap<>();
+    private final Map<Long, DailyTotals> totalsByDay = new HashMap<>();
+
+    private int recordCount;
+    private int corruptRecords;
+    private long lastTimestamp;
+
+    private PaymentLedger(FileChannel channel, ZoneId zone) {
+        this.channel = channel;
+        this.zone = zone;
+        for (int i = 0; i < byStatus.length; i++) {
+            byStatus[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Opens a ledger whose days follow the device's time zone
+     */
+    public static PaymentLedger open(File file) throws IOException {
+        return open(file, ZoneId.systemDefault());
+    }
+
+    /**
+     * Opens (or creates) a ledger file and rebuilds the in-memory indexes.
+     * Scans the whole file, so call it off the UI thread. A torn final record
+     * left by a crash mid-write is truncated; a damaged record elsewhere is
+     * kept on disk, skipped and counted in {@link #corruptRecords()}.
+     *
+     * @param zone time zone of the till's business day, e.g. Europe/Berlin
+     */
+    public static PaymentLedger open(File file, ZoneId zone) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        PaymentLedger ledger = new PaymentLedger(channel, zone);
+        try {
+            ledger.recover();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return ledger;
+    }
+
+    /**
+     * Records a new payment or a status change of a known one.
+     * The creation time and amount of an existing payment are preserved.
+     *
+     * @throws IllegalArgumentException if an ID is empty, too long or not ASCII
+     */
+    public synchronized Entry record(String paymentId, long amountMinor, Status status,
+            String sumupTransactionId) throws IOException {
+        Entry previous = find(paymentId);
+        long now = nextTimestamp();
+
+        Entry entry;
+        if (previous == null) {
+            entry = new Entry(paymentId, amountMinor, status, now, now, sumupTransactionId);
+        } else {
+            entry = new Entry(paymentId, previous.amountMinor, status, previous.createdAt, now,
+                    sumupTransactionId != null ? sumupTransactionId : previous.sumupTransactionId);
+        }
+
+        append(entry);
+        return entry;
+    }
+
+    /**
+     * Moves a known payment to a new status; returns null if the ID is unknown
+     */
+    public synchronized Entry updateStatus(String paymentId, Status status) throws IOException {
+        Entry previous = find(paymentId);
+        if (previous == null) {
+            return null;
+        }
+        return record(paymentId, previous.amountMinor, status, null);
+    }
+
+    /**
+     * Latest state of a payment, or null if it has never been recorded
+     */
+    public synchronized Entry find(String paymentId) throws IOException {
+        int slot = lookupSlot(paymentId, hash(paymentId));
+        return slot < 0 ? null : readEntry(indexSeqs[slot]);
+    }
+
+    /**
+     * Latest state of the payments created within [fromMillis, toMillis),
+     * oldest first
+     */
+    public synchronized List<Entry> range(long fromMillis, long toMillis) throws IOException {
+        // A payment's first record is appended when it is created and records
+        // are in time order, so its creation lies in this window; later status
+        // changes may be further on and are looked up through the index
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        Map.Entry<Long, Integer> startDay = firstSeqByDay.floorEntry(epochDay(fromMillis));
+        int seq = startDay == null ? 0 : startDay.getValue();
+
+        for (; seq < recordCount; seq++) {
+            Entry entry = readEntry(seq);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.updatedAt >= toMillis) {
+                break;
+            }
+            if (entry.createdAt >= fromMillis && !entries.containsKey(entry.paymentId)) {
+                entries.put(entry.paymentId, find(entry.paymentId));
+            }
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Latest state of the payments created on the day containing the given
+     * time; the same payments {@link #totalsForDay} counts
+     */
+    public synchronized List<Entry> salesForDay(long epochMillis) throws IOException {
+        long day = epochDay(epochMillis);
+        return range(startOfDay(day), startOfDay(day + 1));
+    }
+
+    /**
+     * Most recent payments currently in the given status, newest first
+     */
+    public synchronized List<Entry> byStatus(Status status, int limit) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BitSet seqs = byStatus[status.ordinal()];
+        for (int seq = seqs.previousSetBit(recordCount - 1); seq >= 0 && entries.size() < limit;
+                seq = seqs.previousSetBit(seq - 1)) {
+            entries.add(readEntry(seq));
+        }
+        return entries;
+    }
+
+    /**
+     * Running totals for the payments created on the day (in the ledger's
+     * time zone) containing the given time
+     */
+    public synchronized DailyTotals totalsForDay(long epochMillis) {
+        long day = epochDay(epochMillis);
+        DailyTotals totals = totalsByDay.get(day);
+        return totals == null ? new DailyTotals(day) : totals.copy();
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public synchronized int size() {
+        return indexSize;
+    }
+
+    /**
+     * Damaged records skipped when the ledger was opened; their payments may
+     * be missing or show an older status. Non-zero means the file needs
+     * attention, not that the ledger is unusable.
+     */
+    public synchronized int corruptRecords() {
+        return corruptRecords;
+    }
+
+    public synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private long nextTimestamp() {
+        // Keep the log ordered by time even if the wall clock steps backwards
+        lastTimestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+        return lastTimestamp;
+    }
+
+    private void append(Entry entry) throws IOException {
+        byte[] id = ascii(entry.paymentId, "Payment ID");
+        byte[] tx = entry.sumupTransactionId == null ? new byte[0]
+                : ascii(entry.sumupTransactionId, "SumUp transaction ID");
+        if (id.length == 0 || id.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Payment ID must be 1-" + MAX_ID_BYTES + " characters");
+        }
+        if (tx.length > MAX_TX_BYTES) {
+            throw new IllegalArgumentException("SumUp transaction ID exceeds " + MAX_TX_BYTES + " characters");
+        }
+
+        writeBuffer.clear();
+        writeBuffer.putLong(entry.createdAt);
+        writeBuffer.putLong(entry.updatedAt);
+        writeBuffer.putLong(entry.amountMinor);
+        writeBuffer.put((byte) entry.status.ordinal());
+        writeBuffer.put((byte) id.length);
+        writeBuffer.put((byte) tx.length);
+        writeBuffer.put(id);
+        writeBuffer.position(OFFSET_TX);
+        writeBuffer.put(tx);
+        writeBuffer.position(OFFSET_CRC);
+        writeBuffer.putInt(checksum(writeBuffer));
+        writeBuffer.flip();
+
+        long position = (long) recordCount * RECORD_SIZE;
+        while (writeBuffer.hasRemaining()) {
+            position += channel.write(writeBuffer, position);
+        }
+
+        index(entry, recordCount);
+        recordCount++;
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        int records = (int) (size / RECORD_SIZE);
+
+        for (int seq = 0; seq < records; seq++) {
+            Entry entry = readEntry(seq);
+            if (entry == null) {
+                // Keep the record (and its position) but leave it out of the indexes
+                corruptRecords++;
+                continue;
+            }
+            index(entry, seq);
+            lastTimestamp = Math.max(lastTimestamp, entry.updatedAt);
+        }
+        recordCount = records;
+
+        // Only a partial record running past the end can be a torn append
+        if (size != (long) records * RECORD_SIZE) {
+            channel.truncate((long) records * RECORD_SIZE);
+        }
+    }
+
+    private void index(Entry entry, int seq) throws IOException {
+        long hash = hash(entry.paymentId);
+        int slot = lookupSlot(entry.paymentId, hash);
+        Entry previous = null;
+
+        if (slot >= 0) {
+            int previousSeq = indexSeqs[slot];
+            previous = readEntry(previousSeq);
+            byStatus[previous.status.ordinal()].clear(previousSeq);
+            indexSeqs[slot] = seq;
+        } else {
+            insertSlot(hash, seq);
+        }
+        byStatus[entry.status.ordinal()].set(seq);
+
+        long day = epochDay(entry.updatedAt);
+        if (!firstSeqByDay.containsKey(day)) {
+            firstSeqByDay.put(day, seq);
+        }
+
+        // Totals are attributed to the day the sale was created
+        long saleDay = entry.createdAt == entry.updatedAt ? day : epochDay(entry.createdAt);
+        DailyTotals totals = totalsByDay.get(saleDay);
+        if (totals == null) {
+            totals = new DailyTotals(saleDay);
+            totalsByDay.put(saleDay, totals);
+        }
+        if (previous != null) {
+            totals.remove(previous.status, previous.amountMinor);
+        }
+        totals.add(entry.status, entry.amountMinor);
+    }
+
+    private long epochDay(long epochMillis) {
+        long offsetMillis = zone.getRules().getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+        return Math.floorDiv(epochMillis + offsetMillis, MILLIS_PER_DAY);
+    }
+
+    private long startOfDay(long epochDay) {
+        return LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    private int lookupSlot(String paymentId, long hash) {
+        int mask = indexHashes.length - 1;
+        for (int slot = (int) hash & mask; indexHashes[slot] != 0; slot = (slot + 1) & mask) {
+            if (indexHashes[slot] == hash && paymentId.equals(readPaymentId(indexSeqs[slot]))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insertSlot(long hash, int seq) {
+        if ((indexSize + 1) * 10 > indexHashes.length * 7) {
+            resizeIndex();
+        }
+        int mask = indexHashes.length - 1;
+        int slot = (int) hash & mask;
+        while (indexHashes[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        indexHashes[slot] = hash;
+        indexSeqs[slot] = seq;
+        indexSize++;
+    }
+
+    private void resizeIndex() {
+        long[] oldHashes = indexHashes;
+        int[] oldSeqs = indexSeqs;
+        indexHashes = new long[oldHashes.length * 2];
+        indexSeqs = new int[oldSeqs.length * 2];
+
+        int mask = indexHashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0) {
+                int slot = (int) oldHashes[i] & mask;
+                while (indexHashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                indexHashes[slot] = oldHashes[i];
+                indexSeqs[slot] = oldSeqs[i];
+            }
+        }
+    }
+
+    private String readPaymentId(int seq) {
+        try {
+            Entry entry = readEntry(seq);
+            return entry == null ? null : entry.paymentId;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read ledger record " + seq, e);
+        }
+    }
+
+    private Entry readEntry(int seq) throws IOException {
+        readBuffer.clear();
+        long position = (long) seq * RECORD_SIZE;
+        while (readBuffer.hasRemaining()) {
+            int read = channel.read(readBuffer, position + readBuffer.position());
+            if (read < 0) {
+                return null;
+            }
+        }
+        readBuffer.flip();
+
+        if (readBuffer.getInt(OFFSET_CRC) != checksum(readBuffer)) {
+            return null;
+        }
+
+        long createdAt = readBuffer.getLong(0);
+        long updatedAt = readBuffer.getLong(8);
+        long amountMinor = readBuffer.getLong(16);
+        int status = readBuffer.get(24);
+        int idLength = readBuffer.get(25);
+        int txLength = readBuffer.get(26);
+        if (status < 0 || status >= STATUSES.length || idLength <= 0 || idLength > MAX_ID_BYTES
+                || txLength < 0 || txLength > MAX_TX_BYTES) {
+            return null;
+        }
+
+        byte[] bytes = readBuffer.array();
+        String paymentId = new String(bytes, OFFSET_ID, idLength, StandardCharsets.US_ASCII);
+        String tx = txLength == 0 ? null : new String(bytes, OFFSET_TX, txLength, StandardCharsets.US_ASCII);
+        return new Entry(paymentId, amountMinor, STATUSES[status], createdAt, updatedAt, tx);
+    }
+
+    private static byte[] ascii(String value, String name) {
+        // US_ASCII would encode other characters as '?', so distinct IDs could share a record key
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7f) {
+                throw new IllegalArgumentException(name + " must be ASCII");
+            }
+        }
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private int checksum(ByteBuffer record) {
+        crc.reset();
+        crc.update(record.array(), 0, OFFSET_CRC);
+        return (int) crc.getValue();
+    }
+
+    private static long hash(String paymentId) {
+        // 64-bit FNV-1a; 0 marks an empty slot
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < paymentId.length(); i++) {
+            hash ^= paymentId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Latest recorded state of one payment
+     */
+    public static final class Entry {
+        public final String paymentId;
+        public final long amountMinor;
+        public final Status status;
+        public final long createdAt;
+        public final long updatedAt;
+        public final String sumupTransactionId;
+
+        Entry(String paymentId, long amountMinor, Status status, long createdAt, long updatedAt,
+                String sumupTransactionId) {
+            this.paymentId = paymentId;
+            this.amountMinor = amountMinor;
+            this.status = status;
+            this.createdAt = createdAt;
+            this.updatedAt = updatedAt;
+            this.sumupTransactionId = sumupTransactionId;
+        }
+    }
+
+    /**
+     * Count and amount (minor units) per status for one day of sales
+     */
+    public static final class DailyTotals {
+        public final long epochDay;
+        private final long[] counts = new long[STATUSES.length];
+        private final long[] amounts = new long[STATUSES.length];
+
+        DailyTotals(long epochDay) {
+            this.epochDay = epochDay;
+        }
+
+        public long count(Status status) {
+            return counts[status.ordinal()];
+        }
+
+        public long amountMinor(Status status) {
+            return amounts[status.ordinal()];
+        }
+
+        void add(Status status, long amountMinor) {
+            counts[status.ordinal()]++;
+            amounts[status.ordinal()] += amountMinor;
+        }
+
+        void remove(Status status, long amountMinor) {
+            counts[status.ordinal()]--;
+            amounts[status.ordinal()] -= amountMinor;
+        }
+
+        DailyTotals copy() {
+            DailyTotals copy = new DailyTotals(epochDay);
+            System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+            System.arraycopy(amounts, 0, copy.amounts, 0, amounts.length);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.teur.client;
+
+// Payment Tracer for tEUR Integrations
+// Records spans for each step of a payment and propagates W3C trace context
+//
+// Spans are kept in a fixed-size in-memory ring buffer (oldest entries are
+// overwritten) and can be exported as OTLP/JSON files for local analysis.
+// Outgoing OkHttp requests carry `traceparent` and `X-Request-Id` headers so
+// the tEUR API correlation IDs can be joined with the Java side.
+//
+// The active span is tracked per thread. Work that continues on another
+// thread (OkHttp enqueue callbacks, retries) passes its parent explicitly:
+// startSpan(name, parent) and a Span tag on the request.
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class PaymentTracer {
+
+    public static final String TRACEPARENT_HEADER = "traceparent";
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    private static final String DEFAULT_SERVICE_NAME = "teur-payment-client";
+    private static final int DEFAULT_CAPACITY = 2048;
+
+    // OTLP span kinds
+    private static final int KIND_INTERNAL = 1;
+    private static final int KIND_CLIENT = 3;
+
+    private final AtomicReferenceArray<Span> buffer;
+    private final AtomicLong writeIndex = new AtomicLong();
+    private final double sampleRatio;
+    private final String serviceName;
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+
+    public PaymentTracer() {
+        this(DEFAULT_SERVICE_NAME, DEFAULT_CAPACITY, 1.0);
+    }
+
+    public PaymentTracer(String serviceName) {
+        this(serviceName, DEFAULT_CAPACITY, 1.0);
+    }
+
+    public PaymentTracer(int capacity, double sampleRatio) {
+        this(DEFAULT_SERVICE_NAME, capacity, sampleRatio);
+    }
+
+    /**
+     * @param serviceName OTLP service.name of the exported spans
+     * @param capacity    number of finished spans retained in memory
+     * @param sampleRatio fraction of new traces recorded (0.0 - 1.0)
+     */
+    public PaymentTracer(String serviceName, int capacity, double sampleRatio) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (sampleRatio < 0.0 || sampleRatio > 1.0) {
+            throw new IllegalArgumentException("sampleRatio must be between 0 and 1");
+        }
+        this.buffer = new AtomicReferenceArray<>(capacity);
+        this.sampleRatio = sampleRatio;
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Starts a span as a child of the current span on this thread, or as the
+     * root of a new trace, and makes it current until it is closed. Close it
+     * on the same thread (try-with-resources).
+     */
+    public Span startSpan(String name) {
+        Span span = newSpan(name, current.get(), true);
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Starts a span under an explicit parent (null for the root of a new
+     * trace) without making it current. For work that finishes on another
+     * thread: the span may be closed from any thread, once.
+     */
+    public Span startSpan(String name, Span parent) {
+        return newSpan(name, parent, false);
+    }
+
+    private Span newSpan(String name, Span parent, boolean attached) {
+        String traceId;
+        boolean sampled;
+        if (parent != null) {
+            traceId = parent.traceId;
+            sampled = parent.sampled;
+        } else {
+            traceId = randomHex(16);
+            sampled = sampleRatio >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRatio;
+        }
+
+        return new Span(this, name, traceId, randomHex(8), parent, sampled, attached);
+    }
+
+    /**
+     * Returns the span active on the calling thread, or null
+     */
+    public Span currentSpan() {
+        return current.get();
+    }
+
+    /**
+     * OkHttp interceptor that wraps each call in a client span and injects
+     * `traceparent` and `X-Request-Id` headers. The span's parent is the
+     * request's Span tag ({@code Request.Builder.tag(PaymentTracer.Span.class,
+     * span)}), which enqueued calls need since they run on OkHttp's threads,
+     * or else the span current on the calling thread.
+     */
+    public Interceptor interceptor() {
+        return chain -> {
+            Request request = chain.request();
+            Span parent = request.tag(Span.class);
+            try (Span span = startSpan("HTTP " + request.method(), parent != null ? parent : current.get())) {
+                span.kind = KIND_CLIENT;
+                span.setAttribute("http.request.method", request.method());
+                span.setAttribute("server.address", request.url().host());
+
+                Request.Builder traced = request.newBuilder()
+                        .header(TRACEPARENT_HEADER, span.traceparent());
+                if (request.header(REQUEST_ID_HEADER) == null) {
+                    traced.header(REQUEST_ID_HEADER, span.traceId + "-" + span.spanId);
+                }
+
+                try {
+                    Response response = chain.proceed(traced.build());
+                    span.setAttribute("http.response.status_code", response.code());
+                    String serverRequestId = response.header(REQUEST_ID_HEADER);
+                    if (serverRequestId != null) {
+                        span.setAttribute("teur.correlation_id", serverRequestId);
+                    }
+                    if (!response.isSuccessful()) {
+                        span.setError("HTTP " + response.code());
+                    }
+                    return response;
+                } catch (IOException e) {
+                    span.setError(e.getClass().getSimpleName());
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the recorded spans, oldest first
+     */
+    public List<Span> snapshot() {
+        long end = writeIndex.get();
+        long start = Math.max(0, end - buffer.length());
+        List<Span> spans = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Span span = buffer.get((int) (i % buffer.length()));
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Per-step duration breakdown (milliseconds) of a single trace, in start order
+     */
+    public Map<String, Long> breakdown(String traceId) {
+        List<Span> spans = new ArrayList<>();
+        for (Span span : snapshot()) {
+            if (span.traceId.equals(traceId)) {
+                spans.add(span);
+            }
+        }
+        Collections.sort(spans, (a, b) -> Long.compare(a.startEpochNanos, b.startEpochNanos));
+
+        Map<String, Long> steps = new LinkedHashMap<>();
+        for (Span span : spans) {
+            steps.merge(span.name, span.durationNanos / 1_000_000L, Long::sum);
+        }
+        return steps;
+    }
+
+    /**
+     * Writes all recorded spans to an OTLP/JSON file (ExportTraceServiceRequest)
+     */
+    public void exportOtlp(File file) throws IOException {
+        JSONArray spans = new JSONArray();
+        for (Span span : snapshot()) {
+            spans.put(span.toOtlp());
+        }
+
+        JSONObject serviceAttribute = new JSONObject()
+                .put("key", "service.name")
+                .put("value", new JSONObject().put("stringValue", serviceName));
+        JSONObject resourceSpans = new JSONObject()
+                .put("resource", new JSONObject().put("attributes", new JSONArray().put(serviceAttribute)))
+                .put("scopeSpans", new JSONArray().put(new JSONObject()
+                        .put("scope", new JSONObject().put("name", PaymentTracer.class.getSimpleName()))
+                        .put("spans", spans)));
+        JSONObject export = new JSONObject().put("resourceSpans", new JSONArray().put(resourceSpans));
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(export.toString());
+        }
+    }
+
+    private void finish(Span span) {
+        if (span.attached && current.get() == span) {
+            if (span.parent != null) {
+                current.set(span.parent);
+            } else {
+                current.remove();
+            }
+        }
+        if (span.sampled) {
+            long slot = writeIndex.getAndIncrement();
+            buffer.set((int) (slot % buffer.length()), span);
+        }
+    }
+
+    private static String randomHex(int bytes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] out = new char[bytes * 2];
+        final char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < bytes; i++) {
+            int b = random.nextInt(256);
+            out[i * 2] = digits[b >>> 4];
+            out[i * 2 + 1] = digits[b & 0x0f];
+        }
+        return new String(out);
+    }
+
+    /**
+     * A single timed operation within a trace
+     */
+    public static final class Span implements AutoCloseable {
+
+        private final PaymentTracer tracer;
+        private final Span parent;
+        private final String name;
+        private final String traceId;
+        private final String spanId;
+        private final boolean sampled;
+        private final boolean attached;
+        private final long startEpochNanos;
+        private final long startNanoTime;
+        private int kind = KIND_INTERNAL;
+        private long durationNanos;
+        private String errorMessage;
+        private Map<String, Object> attributes;
+        private boolean ended;
+
+        private Span(PaymentTracer tracer, String name, String traceId, String spanId, Span parent,
+                boolean sampled, boolean attached) {
+            this.tracer = tracer;
+            this.name = name;
+            this.traceId = traceId;
+            this.spanId = spanId;
+            this.parent = parent;
+            this.sampled = sampled;
+            this.attached = attached;
+            this.startEpochNanos = System.currentTimeMillis() * 1_000_000L;
+            this.startNanoTime = System.nanoTime();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTraceId() {
+            return traceId;
+        }
+
+        public String getSpanId() {
+            return spanId;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * W3C trace context header value for this span
+         */
+        public String traceparent() {
+            return "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+        }
+
+        public Span setAttribute(String key, Object value) {
+            if (sampled) {
+                if (attributes == null) {
+                    attributes = new LinkedHashMap<>();
+                }
+                attributes.put(key, value);
+            }
+            return this;
+        }
+
+        public Span setError(String message) {
+            this.errorMessage = message;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            durationNanos = System.nanoTime() - startNanoTime;
+            tracer.finish(this);
+        }
+
+        private JSONObject toOtlp() {
+            JSONObject json = new JSONObject()
+                    .put("traceId", traceId)
+                    .put("spanId", spanId)
+                    .put("name", name)
+                    .put("kind", kind)
+                    .put("startTimeUnixNano", Long.toString(startEpochNanos))
+                    .put("endTimeUnixNano", Long.toString(startEpochNanos + durationNanos));
+            if (parent != null) {
+                json.put("parentSpanId", parent.spanId);
+            }
+
+            JSONArray attrs = new JSONArray();
+            if (attributes != null) {
+                for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                    Object value = entry.getValue();
+                    JSONObject typed = new JSONObject();
+                    if (value instanceof Integer || value instanceof Long) {
+                        typed.put("intValue", value.toString());
+                    } else if (value instanceof Boolean) {
+                        typed.put("boolValue", value);
+                    } else {
+                        typed.put("stringValue", String.valueOf(value));
+                    }
+                    attrs.put(new JSONObject().put("key", entry.getKey()).put("value", typed));
+                }
+            }
+            json.put("attributes", attrs);
+
+            JSONObject status = new JSONObject().put("code", errorMessage == null ? 1 : 2);
+            if (errorMessage != null) {
+                status.put("message", errorMessage);
+            }
+            json.put("status", status);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.teur.client;
+
+// Seen-Payment Cache for tEUR Release Calls
+// Suppresses duplicate and replayed releases of the same payment ID locally
+//
+// Released payment IDs are kept in time buckets (default: 6 x 10 minutes).
+// Each bucket has a Bloom filter in front of its exact ID set, so the common
+// "never seen" answer costs a few hashes and array reads. When a bucket fills
+// up it is rotated early and the oldest bucket is dropped: under heavy load
+// retention shrinks instead of memory growing. Concurrent releases of the
+// same ID share one in-flight outcome, and the live buckets can be written
+// to a compact snapshot to survive restarts.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class SeenPaymentCache {
+
+    private static final int SNAPSHOT_MAGIC = 0x54535043; // "TSPC"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int BLOOM_BITS_PER_ENTRY = 10; // ~1% false positives at capacity
+    private static final int BLOOM_HASHES = 4;
+
+    private final long bucketMillis;
+    private final int maxEntriesPerBucket;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private int head; // index of the newest bucket, guarded by this
+
+    public SeenPaymentCache() {
+        this(6, 10 * 60 * 1000L, 10_000);
+    }
+
+    /**
+     * @param bucketCount         number of time buckets kept
+     * @param bucketMillis        time span of one bucket
+     * @param maxEntriesPerBucket IDs per bucket before it is rotated early
+     */
+    public SeenPaymentCache(int bucketCount, long bucketMillis, int maxEntriesPerBucket) {
+        if (bucketCount <= 0 || bucketMillis <= 0 || maxEntriesPerBucket <= 0) {
+            throw new IllegalArgumentException("bucketCount, bucketMillis and maxEntriesPerBucket must be positive");
+        }
+        this.bucketMillis = bucketMillis;
+        this.maxEntriesPerBucket = maxEntriesPerBucket;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+        this.buckets.set(0, new Bucket(System.currentTimeMillis(), maxEntriesPerBucket));
+    }
+
+    /**
+     * Whether the payment was released within the retention window
+     */
+    public boolean isReleased(String paymentId) {
+        long hash = hash(paymentId);
+        long oldest = System.currentTimeMillis() - bucketMillis * buckets.length();
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.startMillis >= oldest && bucket.mightContain(hash)
+                    && bucket.ids.contains(paymentId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Claims a release of the payment. The owner must call
+     * {@link #finish(String, boolean)} once the release call completes.
+     */
+    public Attempt begin(String paymentId) {
+        if (isReleased(paymentId)) {
+            return new Attempt(false, true, CompletableFuture.completedFuture(true));
+        }
+        CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(paymentId, outcome);
+        if (existing != null) {
+            return new Attempt(false, false, existing);
+        }
+        // Re-check: a release may have finished between the first check and the claim
+        if (isReleased(paymentId)) {
+            inFlight.remove(paymentId, outcome);
+            outcome.complete(true);
+            return new Attempt(false, true, outcome);
+        }
+        return new Attempt(true, false, outcome);
+    }
+
+    /**
+     * Records the outcome of an owned release. Failed releases are forgotten
+     * so the payment can be retried.
+     */
+    public void finish(String paymentId, boolean released) {
+        if (released) {
+            markReleased(paymentId);
+        }
+        CompletableFuture<Boolean> outcome = inFlight.remove(paymentId);
+        if (outcome != null) {
+            outcome.complete(released);
+        }
+    }
+
+    /**
+     * Records a payment as released without going through {@link #begin(String)}
+     */
+    public synchronized void markReleased(String paymentId) {
+        long now = System.currentTimeMillis();
+        Bucket current = buckets.get(head);
+        if (now - current.startMillis >= bucketMillis || current.ids.size() >= maxEntriesPerBucket) {
+            current = rotateTo(now);
+        }
+        current.add(paymentId, hash(paymentId));
+    }
+
+    /**
+     * Writes the live buckets to a file (written and synced to a temp file,
+     * then renamed, so a crash leaves either the old or the new snapshot)
+     */
+    public synchronized void writeSnapshot(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        long oldest = System.currentTimeMillis() - bucketMillis * buckets.length();
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+
+            int live = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                Bucket bucket = buckets.get(i);
+                if (bucket != null && bucket.startMillis >= oldest) {
+                    live++;
+                }
+            }
+            out.writeInt(live);
+
+            // Oldest bucket first so a reload restores the same order
+            for (int i = 1; i <= buckets.length(); i++) {
+                Bucket bucket = buckets.get((head + i) % buckets.length());
+                if (bucket == null || bucket.startMillis < oldest) {
+                    continue;
+                }
+                out.writeLong(bucket.startMillis);
+                out.writeInt(bucket.ids.size());
+                for (String id : bucket.ids) {
+                    byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            // Some filesystems refuse to rename over an existing file
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Failed to replace snapshot " + file);
+            }
+        }
+    }
+
+    /**
+     * Restores IDs from a snapshot; expired buckets are skipped.
+     * A missing file leaves the cache empty.
+     */
+    public synchronized void loadSnapshot(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - bucketMillis * buckets.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognized seen-payment snapshot " + file);
+            }
+            int count = in.readInt();
+            for (int b = 0; b < count; b++) {
+                long startMillis = in.readLong();
+                int size = in.readInt();
+                boolean keep = startMillis >= oldest;
+                Bucket bucket = keep ? rotateTo(startMillis) : null;
+                for (int i = 0; i < size; i++) {
+                    byte[] bytes = new byte[in.readUnsignedShort()];
+                    in.readFully(bytes);
+                    if (keep) {
+                        String id = new String(bytes, StandardCharsets.UTF_8);
+                        bucket.add(id, hash(id));
+                    }
+                }
+            }
+        }
+    }
+
+    private Bucket rotateTo(long startMillis) {
+        head = (head + 1) % buckets.length();
+        Bucket bucket = new Bucket(startMillis, maxEntriesPerBucket);
+        buckets.set(head, bucket);
+        return bucket;
+    }
+
+    private static long hash(String paymentId) {
+        // 64-bit FNV-1a followed by a murmur3 finalizer for better bit spread
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < paymentId.length(); i++) {
+            hash ^= paymentId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Result of claiming a release
+     */
+    public static final class Attempt {
+        /** The caller must perform the release and report it via finish() */
+        public final boolean owner;
+        /** The payment was already released; no call should be made */
+        public final boolean alreadyReleased;
+        /** Completes with the release outcome (already complete for duplicates) */
+        public final CompletableFuture<Boolean> outcome;
+
+        Attempt(boolean owner, boolean alreadyReleased, CompletableFuture<Boolean> outcome) {
+            this.owner = owner;
+            this.alreadyReleased = alreadyReleased;
+            this.outcome = outcome;
+        }
+    }
+
+    private static final class Bucket {
+        final long startMillis;
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        final AtomicLongArray bloom;
+        final int bloomBits;
+
+        Bucket(long startMillis, int capacity) {
+            this.startMillis = startMillis;
+            int words = Math.max(1, (capacity * BLOOM_BITS_PER_ENTRY + 63) / 64);
+            this.bloom = new AtomicLongArray(words);
+            this.bloomBits = words * 64;
+        }
+
+        void add(String id, long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bloomBits;
+                int word = bit >>> 6;
+                long mask = 1L << (bit & 63);
+                long current;
+                do {
+                    current = bloom.get(word);
+                } while ((current & mask) == 0 && !bloom.compareAndSet(word, current, current | mask));
+            }
+            ids.add(id);
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bloomBits;
+                if ((bloom.get(bit >>> 6) & (1L << (bit & 63))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}